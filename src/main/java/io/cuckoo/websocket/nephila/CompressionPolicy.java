@@ -0,0 +1,216 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila;
+
+import java.util.zip.Deflater;
+
+/**
+ * Enables the permessage-deflate extension (RFC 7692) and controls the parameters offered to the server. Text and
+ * binary messages are compressed if the server accepts the offer, otherwise the connection is uncompressed.
+ *
+ * Once negotiated, compression is adapted per connection: small messages are sent uncompressed, and text or binary
+ * messages are no longer compressed while they do not shrink enough.
+ *
+ * With a preset dictionary the custom x-deflate-dictionary extension is offered first, which compresses every
+ * message on its own but primed with the dictionary, see {@link #setDictionary(byte[])}.
+ */
+public class CompressionPolicy {
+
+    public static final int LEVEL                           = Deflater.BEST_SPEED;
+
+    public static final int MAX_WINDOW_BITS                 = 15;
+
+    public static final boolean CLIENT_NO_CONTEXT_TAKEOVER  = false;
+
+    public static final boolean SERVER_NO_CONTEXT_TAKEOVER  = false;
+
+    public static final int MIN_COMPRESSION_SIZE            = 256;
+
+    public static final double MAX_COMPRESSION_RATIO        = 0.9;
+
+    public static final int PROBE_INTERVAL                  = 32;
+
+    public static final int MAX_DICTIONARY_SIZE             = 32 * 1024;
+
+    public static final int MAX_MESSAGE_SIZE                = 64 * 1024 * 1024;
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private int     level                   = LEVEL;
+    private int     serverMaxWindowBits     = MAX_WINDOW_BITS;
+    private boolean clientNoContextTakeover = CLIENT_NO_CONTEXT_TAKEOVER;
+    private boolean serverNoContextTakeover = SERVER_NO_CONTEXT_TAKEOVER;
+    private int     minCompressionSize      = MIN_COMPRESSION_SIZE;
+    private double  maxCompressionRatio     = MAX_COMPRESSION_RATIO;
+    private int     probeInterval           = PROBE_INTERVAL;
+    private int     maxMessageSize          = MAX_MESSAGE_SIZE;
+    private byte[]  dictionary;
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level the {@link Deflater} compression level of sent messages, from 0 to 9
+     */
+    public void setLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level must be between 0 and 9");
+        }
+
+        this.level = level;
+    }
+
+    public int getServerMaxWindowBits() {
+        return serverMaxWindowBits;
+    }
+
+    /**
+     * @param serverMaxWindowBits the LZ77 window the server may use for its messages, from 8 to 15; a smaller
+     *                            window saves memory on the server at the cost of compression
+     */
+    public void setServerMaxWindowBits(int serverMaxWindowBits) {
+        if (serverMaxWindowBits < 8 || serverMaxWindowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("serverMaxWindowBits must be between 8 and 15");
+        }
+
+        this.serverMaxWindowBits = serverMaxWindowBits;
+    }
+
+    public boolean isClientNoContextTakeover() {
+        return clientNoContextTakeover;
+    }
+
+    /**
+     * @param clientNoContextTakeover true to compress every sent message on its own, so that no compressor has to
+     *                                be kept per connection, at the cost of compression
+     */
+    public void setClientNoContextTakeover(boolean clientNoContextTakeover) {
+        this.clientNoContextTakeover = clientNoContextTakeover;
+    }
+
+    public boolean isServerNoContextTakeover() {
+        return serverNoContextTakeover;
+    }
+
+    /**
+     * @param serverNoContextTakeover true to ask the server to compress every message on its own, so that no
+     *                                decompressor has to be kept per connection, at the cost of compression
+     */
+    public void setServerNoContextTakeover(boolean serverNoContextTakeover) {
+        this.serverNoContextTakeover = serverNoContextTakeover;
+    }
+
+    public int getMinCompressionSize() {
+        return minCompressionSize;
+    }
+
+    /**
+     * @param minCompressionSize the size in bytes below which messages are sent uncompressed, as the deflate
+     *                           overhead outweighs the savings on tiny payloads; 0 compresses every message
+     */
+    public void setMinCompressionSize(int minCompressionSize) {
+        if (minCompressionSize < 0) {
+            throw new IllegalArgumentException("minCompressionSize is negative");
+        }
+
+        this.minCompressionSize = minCompressionSize;
+    }
+
+    public double getMaxCompressionRatio() {
+        return maxCompressionRatio;
+    }
+
+    /**
+     * @param maxCompressionRatio the compressed to uncompressed size above which compression of a message type
+     *                            (text or binary) is paused, as it costs cpu without saving bandwidth; judged by a
+     *                            moving average of the recent messages of that type, 1 never pauses compression
+     */
+    public void setMaxCompressionRatio(double maxCompressionRatio) {
+        if (!(maxCompressionRatio > 0 && maxCompressionRatio <= 1)) {
+            throw new IllegalArgumentException("maxCompressionRatio must be greater than 0 and at most 1");
+        }
+
+        this.maxCompressionRatio = maxCompressionRatio;
+    }
+
+    public int getProbeInterval() {
+        return probeInterval;
+    }
+
+    /**
+     * @param probeInterval every how many messages of a type whose compression is paused one is compressed anyway,
+     *                      to find out whether its payloads have become compressible again
+     */
+    public void setProbeInterval(int probeInterval) {
+        if (probeInterval < 1) {
+            throw new IllegalArgumentException("probeInterval must be at least 1");
+        }
+
+        this.probeInterval = probeInterval;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * @param maxMessageSize the size in bytes a received compressed message may inflate to, across all its
+     *                       frames; a message exceeding it fails the connection with close code 1009, as a small
+     *                       frame of highly compressible data could otherwise exhaust the heap
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize < 1) {
+            throw new IllegalArgumentException("maxMessageSize must be at least 1");
+        }
+
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Messages that share most of their keys and values compress poorly on their own, as deflate only finds
+     * repetitions within the message. Priming the deflater and inflater of every message with a dictionary of the
+     * common strings (see {@link io.cuckoo.websocket.nephila.util.DictionaryBuilder}) shrinks even small messages
+     * to a fraction, without keeping a compression context per connection. The server has to support the custom
+     * x-deflate-dictionary extension with the same dictionary, otherwise permessage-deflate is used.
+     *
+     * @param dictionary the preset dictionary of at most 32 KB, which must not be modified afterwards, or null to
+     *                   only offer permessage-deflate
+     */
+    public void setDictionary(byte[] dictionary) {
+        if (dictionary != null && (dictionary.length == 0 || dictionary.length > MAX_DICTIONARY_SIZE)) {
+            throw new IllegalArgumentException("dictionary must contain between 1 byte and 32 KB");
+        }
+
+        this.dictionary = dictionary;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila;
+
+import io.cuckoo.websocket.nephila.util.LatencyHistogram;
+
+/**
+ * The {@link ConnectTimings} of many connects, one histogram per phase. A {@link WebSocketClient} records the
+ * connects of all of its websockets into a single instance.
+ */
+public class ConnectTimingHistograms {
+
+    private final LatencyHistogram  dns;
+    private final LatencyHistogram  tcpConnect;
+    private final LatencyHistogram  tlsHandshake;
+    private final LatencyHistogram  upgrade;
+    private final LatencyHistogram  total;
+
+    public ConnectTimingHistograms() {
+        dns             = new LatencyHistogram();
+        tcpConnect      = new LatencyHistogram();
+        tlsHandshake    = new LatencyHistogram();
+        upgrade         = new LatencyHistogram();
+        total           = new LatencyHistogram();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * Records the phases of a successful connect. The TLS handshake is only recorded for wss connections.
+     */
+    public void record(ConnectTimings timings, boolean tls) {
+        if (timings == null) {
+            throw new IllegalArgumentException("timings is null");
+        }
+
+        dns.record(timings.getDnsNanos());
+        tcpConnect.record(timings.getTcpConnectNanos());
+        if (tls) {
+            tlsHandshake.record(timings.getTlsHandshakeNanos());
+        }
+        upgrade.record(timings.getUpgradeNanos());
+        total.record(timings.getTotalNanos());
+    }
+
+    /**
+     * Adds all values recorded by the given histograms to these histograms.
+     */
+    public void add(ConnectTimingHistograms other) {
+        if (other == null) {
+            throw new IllegalArgumentException("other is null");
+        }
+
+        dns.add(other.getDns());
+        tcpConnect.add(other.getTcpConnect());
+        tlsHandshake.add(other.getTlsHandshake());
+        upgrade.add(other.getUpgrade());
+        total.add(other.getTotal());
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public LatencyHistogram getDns() {
+        return dns;
+    }
+
+    public LatencyHistogram getTcpConnect() {
+        return tcpConnect;
+    }
+
+    public LatencyHistogram getTlsHandshake() {
+        return tlsHandshake;
+    }
+
+    public LatencyHistogram getUpgrade() {
+        return upgrade;
+    }
+
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "dns=[" + dns + "]"
+                + " tcpConnect=[" + tcpConnect + "]"
+                + " tlsHandshake=[" + tlsHandshake + "]"
+                + " upgrade=[" + upgrade + "]"
+                + " total=[" + total + "]";
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila;
+
+/**
+ * The durations of the phases of a single connect, in nanoseconds.
+ */
+public class ConnectTimings {
+
+    private final long dnsNanos;
+    private final long tcpConnectNanos;
+    private final long tlsHandshakeNanos;
+    private final long upgradeNanos;
+
+    public ConnectTimings(long dnsNanos, long tcpConnectNanos, long tlsHandshakeNanos, long upgradeNanos) {
+        this.dnsNanos           = dnsNanos;
+        this.tcpConnectNanos    = tcpConnectNanos;
+        this.tlsHandshakeNanos  = tlsHandshakeNanos;
+        this.upgradeNanos       = upgradeNanos;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @return the time spent resolving the host, 0 for a unix domain socket
+     */
+    public long getDnsNanos() {
+        return dnsNanos;
+    }
+
+    /**
+     * @return the time spent establishing the tcp connection, including the attempts raced against it
+     */
+    public long getTcpConnectNanos() {
+        return tcpConnectNanos;
+    }
+
+    /**
+     * @return the time spent in the TLS handshake (including the write of the upgrade request it precedes),
+     * 0 for a ws connection
+     */
+    public long getTlsHandshakeNanos() {
+        return tlsHandshakeNanos;
+    }
+
+    /**
+     * @return the time between sending the upgrade request and having read the server's response
+     */
+    public long getUpgradeNanos() {
+        return upgradeNanos;
+    }
+
+    public long getTotalNanos() {
+        return dnsNanos + tcpConnectNanos + tlsHandshakeNanos + upgradeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "dns=" + dnsNanos / 1000
+                + " tcpConnect=" + tcpConnectNanos / 1000
+                + " tlsHandshake=" + tlsHandshakeNanos / 1000
+                + " upgrade=" + upgradeNanos / 1000
+                + " total=" + getTotalNanos() / 1000
+                + " (us)";
+    }
+}
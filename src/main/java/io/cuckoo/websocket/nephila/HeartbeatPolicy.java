@@ -0,0 +1,89 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila;
+
+/**
+ * Controls the heartbeat of a connected websocket: a ping is sent at a fixed interval and the matching pong
+ * yields the round trip time. A peer that misses too many pongs in a row is considered dead and its connection
+ * is closed as lost, which also triggers the {@link ReconnectPolicy reconnect}, if enabled. A silently dead peer
+ * would otherwise go unnoticed, because reads have no timeout.
+ */
+public class HeartbeatPolicy {
+
+    public static final long INTERVAL_MILLIS        = 30000;
+
+    public static final int MAX_MISSED_PONGS        = 2;
+
+    public static final boolean ANSWER_PINGS        = true;
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private long    intervalMillis  = INTERVAL_MILLIS;
+    private int     maxMissedPongs  = MAX_MISSED_PONGS;
+    private boolean answerPings     = ANSWER_PINGS;
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("intervalMillis must be positive");
+        }
+
+        this.intervalMillis = intervalMillis;
+    }
+
+    public int getMaxMissedPongs() {
+        return maxMissedPongs;
+    }
+
+    /**
+     * @param maxMissedPongs the number of consecutive heartbeat pings left unanswered after which the connection
+     *                       is closed
+     */
+    public void setMaxMissedPongs(int maxMissedPongs) {
+        if (maxMissedPongs <= 0) {
+            throw new IllegalArgumentException("maxMissedPongs must be positive");
+        }
+
+        this.maxMissedPongs = maxMissedPongs;
+    }
+
+    public boolean isAnswerPings() {
+        return answerPings;
+    }
+
+    /**
+     * @param answerPings true if pings of the server are answered with a pong carrying the same payload before
+     *                    they are passed to the listener
+     */
+    public void setAnswerPings(boolean answerPings) {
+        this.answerPings = answerPings;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A text or binary message that is encoded once and then sent on any number of websockets, e.g. for a
+ * broadcast. The payload bytes and the frame header are shared by all sends; only the masking key (and with it
+ * the masked payload) differs per connection.
+ */
+public class PreparedMessage {
+
+    private static final byte OP_CODE_TEXT      = 0x1;
+    private static final byte OP_CODE_BINARY    = 0x2;
+
+    private final byte      opCode;
+    private final byte[]    payload;
+    private final byte[]    header;     // fin, op code, mask bit and payload length; the masking key follows
+
+    private PreparedMessage(byte opCode, byte[] payload) {
+        this.opCode     = opCode;
+        this.payload    = payload;
+        this.header     = createHeader(opCode, payload.length);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public static PreparedMessage text(String data) throws WebSocketException {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+
+        try {
+            return new PreparedMessage(OP_CODE_TEXT, data.getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new WebSocketException("utf-8 is not supported on this platform");
+        }
+    }
+
+    /**
+     * @param data copied, so the array may be reused afterwards
+     */
+    public static PreparedMessage binary(byte[] data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+
+        return new PreparedMessage(OP_CODE_BINARY, data.clone());
+    }
+
+    public boolean isText() {
+        return opCode == OP_CODE_TEXT;
+    }
+
+    public byte getOpCode() {
+        return opCode;
+    }
+
+    public int getPayloadLength() {
+        return payload.length;
+    }
+
+    /**
+     * @return a copy of the encoded payload
+     */
+    public byte[] getPayload() {
+        return payload.clone();
+    }
+
+    /**
+     * Writes the frame masked with the given key. The payload is masked chunk-wise through the given buffer,
+     * so the shared payload is never modified.
+     */
+    public void writeTo(OutputStream out, byte[] maskingKey, byte[] buffer) throws IOException {
+        out.write(header);
+        out.write(maskingKey, 0, 4);
+
+        for (int offset = 0; offset < payload.length; offset += buffer.length) {
+            int n = Math.min(buffer.length, payload.length - offset);
+            for (int i = 0; i < n; i++) {
+                buffer[i] = (byte) (payload[offset + i] ^ maskingKey[(offset + i) & 3]);
+            }
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static byte[] createHeader(byte opCode, int payloadLength) {
+        byte[] header;
+
+        if (payloadLength <= 125) {
+            header = new byte[2];
+            header[1] = (byte) (0x80 | payloadLength);
+        }
+        else if (payloadLength <= 65535) {
+            header = new byte[4];
+            header[1] = (byte) (0x80 | 126);
+            header[2] = (byte) (payloadLength >>> 8);
+            header[3] = (byte) payloadLength;
+        }
+        else {
+            header = new byte[10];
+            header[1] = (byte) (0x80 | 127);
+            // the 64 bit length of an array always has its upper four bytes set to zero
+            header[6] = (byte) (payloadLength >>> 24);
+            header[7] = (byte) (payloadLength >>> 16);
+            header[8] = (byte) (payloadLength >>> 8);
+            header[9] = (byte) payloadLength;
+        }
+
+        header[0] = (byte) (0x80 | opCode);     // fin bit set, rsv1/2/3 not set
+        return header;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila;
+
+import java.util.Random;
+
+/**
+ * Controls whether and how a websocket reconnects after its connection has been lost without the client
+ * closing it. The delay before an attempt grows exponentially and is drawn at random below that bound ("full
+ * jitter"), so that the clients of a restarted server do not reconnect in lockstep. Text and binary messages
+ * sent while the websocket is reconnecting are buffered and sent once the connection has been re-established.
+ */
+public class ReconnectPolicy {
+
+    public static final long INITIAL_DELAY_MILLIS   = 500;
+
+    public static final long MAX_DELAY_MILLIS       = 30000;
+
+    public static final double MULTIPLIER           = 2.0;
+
+    public static final int MAX_ATTEMPTS            = 10;
+
+    public static final int REPLAY_BUFFER_SIZE      = 1000;
+
+    public static final int UNLIMITED               = -1;
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private long    initialDelayMillis  = INITIAL_DELAY_MILLIS;
+    private long    maxDelayMillis      = MAX_DELAY_MILLIS;
+    private double  multiplier          = MULTIPLIER;
+    private int     maxAttempts         = MAX_ATTEMPTS;
+    private int     replayBufferSize    = REPLAY_BUFFER_SIZE;
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @param attempt the number of failed attempts so far, 0 before the first one
+     * @return the delay before the next attempt, uniformly distributed between 0 and the exponential bound
+     */
+    public long getDelayMillis(int attempt, Random random) {
+        double bound = initialDelayMillis * Math.pow(multiplier, attempt);
+        return (long) (random.nextDouble() * Math.min(bound, maxDelayMillis));
+    }
+
+    /**
+     * @param attempts the number of failed attempts so far
+     * @return true if another attempt is allowed
+     */
+    public boolean isAttemptAllowed(int attempts) {
+        return maxAttempts == UNLIMITED || attempts < maxAttempts;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    public void setInitialDelayMillis(long initialDelayMillis) {
+        if (initialDelayMillis <= 0) {
+            throw new IllegalArgumentException("initialDelayMillis must be positive");
+        }
+
+        this.initialDelayMillis = initialDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        if (maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("maxDelayMillis must be positive");
+        }
+
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public void setMultiplier(double multiplier) {
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must not be less than 1");
+        }
+
+        this.multiplier = multiplier;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts the number of attempts after which the websocket gives up, or {@link #UNLIMITED}
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0 && maxAttempts != UNLIMITED) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    /**
+     * @param replayBufferSize the number of messages buffered while reconnecting, 0 disables buffering
+     */
+    public void setReplayBufferSize(int replayBufferSize) {
+        if (replayBufferSize < 0) {
+            throw new IllegalArgumentException("replayBufferSize is negative");
+        }
+
+        this.replayBufferSize = replayBufferSize;
+    }
+}
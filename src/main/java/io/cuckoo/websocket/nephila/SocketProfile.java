@@ -0,0 +1,208 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila;
+
+/**
+ * The options applied to the tcp socket of a websocket before it connects, for ws as well as wss.
+ * Integer options set to {@link #SYSTEM_DEFAULT} are left untouched. The extended options (keepalive timing and
+ * TCP_QUICKACK) are set through jdk.net.ExtendedSocketOptions and skipped (logged at debug level) where the
+ * platform lacks them.
+ */
+public class SocketProfile {
+
+    public static final int SYSTEM_DEFAULT  = -1;
+
+    public static final String LOW_LATENCY  = "low-latency";
+
+    public static final String THROUGHPUT   = "throughput";
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private boolean tcpNoDelay          = true;
+    private int     sendBufferSize      = SYSTEM_DEFAULT;
+    private int     receiveBufferSize   = SYSTEM_DEFAULT;
+    private boolean keepAlive           = false;
+    private int     keepAliveIdle       = SYSTEM_DEFAULT;
+    private int     keepAliveInterval   = SYSTEM_DEFAULT;
+    private int     keepAliveCount      = SYSTEM_DEFAULT;
+    private boolean quickAck            = false;
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * Nagle disabled, quick acks and a keepalive that detects a dead peer within about a minute.
+     * Suits request/response traffic of small frames.
+     */
+    public static SocketProfile lowLatency() {
+        SocketProfile profile = new SocketProfile();
+        profile.setTcpNoDelay(true);
+        profile.setQuickAck(true);
+        profile.setKeepAlive(true);
+        profile.setKeepAliveIdle(30);
+        profile.setKeepAliveInterval(10);
+        profile.setKeepAliveCount(3);
+        return profile;
+    }
+
+    /**
+     * Nagle enabled and 1 MiB socket buffers. Suits streams of large frames over links with a high
+     * bandwidth-delay product.
+     */
+    public static SocketProfile throughput() {
+        SocketProfile profile = new SocketProfile();
+        profile.setTcpNoDelay(false);
+        profile.setSendBufferSize(1024 * 1024);
+        profile.setReceiveBufferSize(1024 * 1024);
+        profile.setKeepAlive(true);
+        return profile;
+    }
+
+    /**
+     * @return a new instance of the preset with the given name ({@link #LOW_LATENCY} or {@link #THROUGHPUT})
+     */
+    public static SocketProfile forName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+
+        if (name.equals(LOW_LATENCY)) {
+            return lowLatency();
+        }
+
+        if (name.equals(THROUGHPUT)) {
+            return throughput();
+        }
+
+        throw new IllegalArgumentException("unknown socket profile: " + name);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = checkSize("sendBufferSize", sendBufferSize);
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Applied before connecting, so that sizes beyond 64 KiB take effect through window scaling.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = checkSize("receiveBufferSize", receiveBufferSize);
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getKeepAliveIdle() {
+        return keepAliveIdle;
+    }
+
+    /**
+     * @param keepAliveIdle the seconds of idleness before the first probe (TCP_KEEPIDLE)
+     */
+    public void setKeepAliveIdle(int keepAliveIdle) {
+        this.keepAliveIdle = checkSize("keepAliveIdle", keepAliveIdle);
+    }
+
+    public int getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    /**
+     * @param keepAliveInterval the seconds between unanswered probes (TCP_KEEPINTERVAL)
+     */
+    public void setKeepAliveInterval(int keepAliveInterval) {
+        this.keepAliveInterval = checkSize("keepAliveInterval", keepAliveInterval);
+    }
+
+    public int getKeepAliveCount() {
+        return keepAliveCount;
+    }
+
+    /**
+     * @param keepAliveCount the number of unanswered probes after which the connection is dropped (TCP_KEEPCOUNT)
+     */
+    public void setKeepAliveCount(int keepAliveCount) {
+        this.keepAliveCount = checkSize("keepAliveCount", keepAliveCount);
+    }
+
+    public boolean isQuickAck() {
+        return quickAck;
+    }
+
+    /**
+     * Enables TCP_QUICKACK (Linux only). Note that the kernel may fall back to delayed acks later on.
+     */
+    public void setQuickAck(boolean quickAck) {
+        this.quickAck = quickAck;
+    }
+
+    @Override
+    public String toString() {
+        return "tcpNoDelay=" + tcpNoDelay
+                + " sendBufferSize=" + sendBufferSize
+                + " receiveBufferSize=" + receiveBufferSize
+                + " keepAlive=" + keepAlive
+                + " keepAliveIdle=" + keepAliveIdle
+                + " keepAliveInterval=" + keepAliveInterval
+                + " keepAliveCount=" + keepAliveCount
+                + " quickAck=" + quickAck;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static int checkSize(String name, int value) {
+        if (value <= 0 && value != SYSTEM_DEFAULT) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+
+        return value;
+    }
+}
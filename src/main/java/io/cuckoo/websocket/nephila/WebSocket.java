@@ -22,9 +22,17 @@
 
 package io.cuckoo.websocket.nephila;
 
+import io.cuckoo.websocket.nephila.impl.DefaultWebSocketConfig;
+
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * The methods added after the first release ({@link #connectAsync(URI)}, {@link #send(PreparedMessage)} and
+ * {@link #closeNow()}) have defaults built on the original ones, so that existing implementations keep compiling.
+ */
 public interface WebSocket {
     WebSocketListener getWebSocketListener();
     void setWebSocketListener(WebSocketListener webSocketListener);
@@ -33,11 +41,59 @@ public interface WebSocket {
 
     void connect(URI uri) throws WebSocketException;
     void connect(String uri) throws WebSocketException;
+
+    /**
+     * Connects in a thread of its own instead of the calling one.
+     * @return a future completed with this websocket once connected, or exceptionally with the
+     * {@link WebSocketException} the connect failed with
+     */
+    default CompletableFuture<WebSocket> connectAsync(final URI uri) {
+        final CompletableFuture<WebSocket> future = new CompletableFuture<WebSocket>();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connect(uri);
+                    future.complete(WebSocket.this);
+                }
+                catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        }, DefaultWebSocketConfig.CONNECT_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+
+        return future;
+    }
+
     boolean isConnected();
 
     void send(String data) throws WebSocketException;
     void send(byte[] data) throws WebSocketException;
 
+    /**
+     * Sends a message encoded once for many websockets. The default sends a copy of its payload.
+     */
+    default void send(PreparedMessage message) throws WebSocketException {
+        if (message == null) {
+            throw new IllegalArgumentException("message is null");
+        }
+
+        if (message.isText()) {
+            try {
+                send(new String(message.getPayload(), "UTF-8"));
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new WebSocketException("utf-8 is not supported on this platform");
+            }
+        }
+        else {
+            send(message.getPayload());
+        }
+    }
+
     void stream(String data, boolean isFinalChunk) throws WebSocketException;
     void stream(byte[] data, boolean isFinalChunk) throws WebSocketException;
 
@@ -51,4 +107,20 @@ public interface WebSocket {
 
     void close() throws WebSocketException;
     void close(String reason) throws WebSocketException;
+
+    /**
+     * Closes the connection immediately, without a closing handshake. The default falls back to {@link #close()}
+     * and ignores its failures.
+     */
+    default void closeNow() {
+        try {
+            if (isConnected()) {
+                close();
+            }
+        }
+        catch (WebSocketException ignored) {
+        }
+        catch (IllegalStateException ignored) {
+        }
+    }
 }
@@ -0,0 +1,96 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates and manages many websockets that share their I/O threads, buffers, timers and dns cache.
+ */
+public interface WebSocketClient {
+    WebSocketConfig getWebSocketConfig();
+
+    WebSocket createWebSocket(WebSocketListener webSocketListener) throws WebSocketException;
+    WebSocket createWebSocket(WebSocketListener webSocketListener, String[] acceptingSubProtocols) throws WebSocketException;
+    Set<WebSocket> getWebSockets();
+    boolean removeWebSocket(WebSocket webSocket);
+
+    /**
+     * Connects each of the given websockets to its uri, a number of them concurrently.
+     * @return the websockets that could not be connected, mapped to the cause
+     */
+    Map<WebSocket, WebSocketException> connectAll(Map<WebSocket, URI> uris);
+
+    /**
+     * Connects each of the given websockets to its uri, at most maxInFlight of them at the same time.
+     * @return the websockets that could not be connected, mapped to the cause
+     */
+    Map<WebSocket, WebSocketException> connectAll(Map<WebSocket, URI> uris, int maxInFlight);
+
+    /**
+     * Like {@link #connectAll(Map, int)}, but returns immediately.
+     * @return a future completed with the websockets that could not be connected, once all connects have finished
+     */
+    CompletableFuture<Map<WebSocket, WebSocketException>> connectAllAsync(Map<WebSocket, URI> uris, int maxInFlight);
+    void closeAll();
+
+    /**
+     * Closes all websockets immediately, without closing handshakes.
+     */
+    void closeAllNow();
+
+    /**
+     * Sends the message on every connected websocket of this client.
+     * @return the websockets the message could not be sent on, mapped to the cause
+     */
+    Map<WebSocket, WebSocketException> broadcast(PreparedMessage message);
+
+    /**
+     * Creates a pool that keeps the given number of websockets connected to the uri ready for use.
+     * Its websockets are created by this client, and the pool is shut down together with it.
+     */
+    WebSocketPool createPool(URI uri, int size);
+
+    int getConnectedCount();
+
+    /**
+     * @return the traffic counters of all websockets ever created by this client, aggregated
+     */
+    WebSocketStats getStats();
+
+    /**
+     * @return the phase durations of all successful connects of the websockets of this client
+     */
+    ConnectTimingHistograms getConnectTimingHistograms();
+
+    /**
+     * Closes all websockets and releases the shared resources. Connections whose server has not answered the
+     * closing handshake within the {@link WebSocketConfig#getCloseTimeout() close timeout} are closed anyway.
+     * The client must not be used afterwards.
+     */
+    void shutdown();
+}
@@ -22,9 +22,62 @@
 
 package io.cuckoo.websocket.nephila;
 
+import io.cuckoo.websocket.nephila.impl.DefaultWebSocketConfig;
+import io.cuckoo.websocket.nephila.util.ThreadFactories;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The getters added after the first release have defaults, the values of {@link DefaultWebSocketConfig}, so that
+ * existing implementations keep compiling and behave as before.
+ */
 public interface WebSocketConfig {
     boolean isDebug();
     String getDateTimeFormat();
     int getSocketTimeout();
     int getOutputBufferSize();
+
+    default int getCloseTimeout() {
+        return DefaultWebSocketConfig.CLOSE_TIMEOUT;
+    }
+
+    default int getEarlySendBufferSize() {
+        return DefaultWebSocketConfig.EARLY_SEND_BUFFER_SIZE;
+    }
+
+    default int getInputBufferSize() {
+        return DefaultWebSocketConfig.INPUT_BUFFER_SIZE;
+    }
+
+    default SocketProfile getSocketProfile() {
+        return SocketProfile.forName(DefaultWebSocketConfig.SOCKET_PROFILE);
+    }
+
+    default ReconnectPolicy getReconnectPolicy() {
+        return null;
+    }
+
+    default HeartbeatPolicy getHeartbeatPolicy() {
+        return null;
+    }
+
+    default CompressionPolicy getCompressionPolicy() {
+        return null;
+    }
+
+    default WebSocketReceiveMode getReceiveMode() {
+        return DefaultWebSocketConfig.RECEIVE_MODE;
+    }
+
+    default int getSpinIterations() {
+        return DefaultWebSocketConfig.SPIN_ITERATIONS;
+    }
+
+    default long getParkNanos() {
+        return DefaultWebSocketConfig.PARK_NANOS;
+    }
+
+    default ThreadFactory getThreadFactory() {
+        return ThreadFactories.platform(DefaultWebSocketConfig.THREAD_NAME);
+    }
 }
@@ -0,0 +1,46 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila;
+
+import java.net.URI;
+
+/**
+ * Keeps a number of websockets connected to a uri ready for use, so that acquiring one does not have to wait
+ * for the tcp, TLS and opening handshakes. Handed out websockets belong to the caller and are replaced in the
+ * background; idle ones are pinged periodically and replaced if they stop answering.
+ */
+public interface WebSocketPool {
+    URI getUri();
+    int getSize();
+    int getIdleCount();
+
+    /**
+     * @return an idle websocket of the pool, or a newly connected one if the pool is exhausted. The listener's
+     * onConnect() is invoked in either case.
+     */
+    WebSocket acquire(WebSocketListener webSocketListener) throws WebSocketException;
+
+    /**
+     * Closes the idle websockets and stops replenishing. Acquired websockets are not affected.
+     */
+    void shutdown();
+}
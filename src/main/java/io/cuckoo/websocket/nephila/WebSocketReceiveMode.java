@@ -0,0 +1,44 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila;
+
+public enum WebSocketReceiveMode {
+
+    /*
+     * BLOCKING         the receiver thread blocks in a socket read until data arrives (default)
+     * BUSY_SPIN        the receiver thread polls a non-blocking channel in a tight loop and never gives up its core
+     * SPIN_THEN_PARK   like BUSY_SPIN, but the receiver thread parks for a short period after a number of empty polls
+     * SELECTOR         no receiver thread at all, many connections share the selector threads of an event loop group
+     * ASYNCHRONOUS     no receiver thread at all, reads complete on the threads of an asynchronous channel group
+     *
+     * The spinning modes trade a dedicated cpu core for lower wakeup latency. For wss:// connections
+     * BLOCKING uses an SSL socket, all other modes an SSLEngine operating on pooled buffers.
+     */
+
+    BLOCKING,
+    BUSY_SPIN,
+    SPIN_THEN_PARK,
+    SELECTOR,
+    ASYNCHRONOUS
+}
@@ -0,0 +1,191 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila;
+
+import io.cuckoo.websocket.nephila.util.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic counters of a single websocket or, aggregated, of all websockets of a {@link WebSocketClient}.
+ */
+public class WebSocketStats {
+
+    private final AtomicLong        connects;
+    private final AtomicLong        connectFailures;
+    private final AtomicLong        tlsFullHandshakes;
+    private final AtomicLong        tlsResumedHandshakes;
+    private final AtomicLong        framesSent;
+    private final AtomicLong        bytesSent;
+    private final AtomicLong        framesReceived;
+    private final AtomicLong        bytesReceived;
+    private final AtomicLong        deadPeers;
+    private final LatencyHistogram  receiveLatency;
+    private final LatencyHistogram  roundTripTime;
+
+    public WebSocketStats() {
+        connects                = new AtomicLong();
+        connectFailures         = new AtomicLong();
+        tlsFullHandshakes       = new AtomicLong();
+        tlsResumedHandshakes    = new AtomicLong();
+        framesSent              = new AtomicLong();
+        bytesSent               = new AtomicLong();
+        framesReceived          = new AtomicLong();
+        bytesReceived           = new AtomicLong();
+        deadPeers               = new AtomicLong();
+        receiveLatency          = new LatencyHistogram();
+        roundTripTime           = new LatencyHistogram();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public void onConnect() {
+        connects.incrementAndGet();
+    }
+
+    public void onConnectFailure() {
+        connectFailures.incrementAndGet();
+    }
+
+    public void onTlsHandshake(boolean resumed) {
+        if (resumed) {
+            tlsResumedHandshakes.incrementAndGet();
+        }
+        else {
+            tlsFullHandshakes.incrementAndGet();
+        }
+    }
+
+    public void onFrameSent(long bytes) {
+        framesSent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    public void onFrameReceived() {
+        framesReceived.incrementAndGet();
+    }
+
+    public void onBytesReceived(long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    public void onDeadPeer() {
+        deadPeers.incrementAndGet();
+    }
+
+    /**
+     * Adds all counters of the given stats to this stats.
+     */
+    public void add(WebSocketStats other) {
+        connects.addAndGet(other.getConnects());
+        connectFailures.addAndGet(other.getConnectFailures());
+        tlsFullHandshakes.addAndGet(other.getTlsFullHandshakes());
+        tlsResumedHandshakes.addAndGet(other.getTlsResumedHandshakes());
+        framesSent.addAndGet(other.getFramesSent());
+        bytesSent.addAndGet(other.getBytesSent());
+        framesReceived.addAndGet(other.getFramesReceived());
+        bytesReceived.addAndGet(other.getBytesReceived());
+        deadPeers.addAndGet(other.getDeadPeers());
+        receiveLatency.add(other.getReceiveLatency());
+        roundTripTime.add(other.getRoundTripTime());
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    public long getTlsFullHandshakes() {
+        return tlsFullHandshakes.get();
+    }
+
+    /**
+     * @return the number of wss connects that have resumed a cached TLS session instead of a full handshake
+     */
+    public long getTlsResumedHandshakes() {
+        return tlsResumedHandshakes.get();
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return the number of connections closed, because the peer has not answered the heartbeat pings
+     */
+    public long getDeadPeers() {
+        return deadPeers.get();
+    }
+
+    /**
+     * @return the latencies between the read returning a frame's data and the invocation of the corresponding
+     * listener callback; the wakeup of a blocked or parked receiver thread is not included
+     */
+    public LatencyHistogram getReceiveLatency() {
+        return receiveLatency;
+    }
+
+    /**
+     * @return the round trip times between sending a heartbeat ping and receiving the matching pong
+     */
+    public LatencyHistogram getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    @Override
+    public String toString() {
+        return "connects=" + getConnects()
+                + " connectFailures=" + getConnectFailures()
+                + " tlsFullHandshakes=" + getTlsFullHandshakes()
+                + " tlsResumedHandshakes=" + getTlsResumedHandshakes()
+                + " framesSent=" + getFramesSent()
+                + " bytesSent=" + getBytesSent()
+                + " framesReceived=" + getFramesReceived()
+                + " bytesReceived=" + getBytesReceived()
+                + " deadPeers=" + getDeadPeers()
+                + " receiveLatency=[" + receiveLatency + "]"
+                + " roundTripTime=[" + roundTripTime + "]";
+    }
+}
@@ -25,17 +25,53 @@ package io.cuckoo.websocket.nephila.crypto;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class SHA1 {
 
+    private static final int POOL_SIZE = 16;
+
+    // MessageDigest.getInstance() walks the security providers, so released digests are kept for the next connects;
+    // a pool instead of a per-thread digest also pays off when every connect runs in a fresh thread
+    private static final BlockingQueue<MessageDigest> POOL = new ArrayBlockingQueue<MessageDigest>(POOL_SIZE);
+
     public static byte[] encode(String text) throws NoSuchAlgorithmException, UnsupportedEncodingException {
 		if (text == null) {
             throw new IllegalArgumentException("text is null");
         }
 
-        MessageDigest md = MessageDigest.getInstance("SHA-1");
-		md.update(text.getBytes("ISO-8859-1"), 0, text.length());
-        return md.digest();
+        MessageDigest md = acquireDigest();
+        try {
+            md.update(text.getBytes("ISO-8859-1"), 0, text.length());
+            return md.digest();
+        }
+        finally {
+            releaseDigest(md);
+        }
 	}
 
+    /**
+     * @return a reset sha-1 digest, owned by the caller until it is {@link #releaseDigest(MessageDigest) released}
+     */
+    public static MessageDigest acquireDigest() throws NoSuchAlgorithmException {
+        MessageDigest md = POOL.poll();
+        if (md == null) {
+            return MessageDigest.getInstance("SHA-1");
+        }
+
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Returns a digest to the pool, it is dropped if the pool is full.
+     */
+    public static void releaseDigest(MessageDigest md) {
+        if (md == null) {
+            throw new IllegalArgumentException("md is null");
+        }
+
+        POOL.offer(md);
+    }
 }
@@ -0,0 +1,290 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.util.ByteBufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An output stream on top of an {@link AsynchronousSocketChannel}. The bytes are copied into pooled direct
+ * buffers and queued, and each completed write starts the write of the next queued buffer. {@link #flush()}
+ * waits until the queue has been drained.
+ *
+ * The completions are handled by the threads of the {@link AsynchronousChannelGroup}, so a group thread never
+ * waits here: it queues its bytes and returns, otherwise the group deadlocks once all of its threads wait for
+ * completions that need one of them. Other threads wait in {@link #write(byte[], int, int)} while
+ * {@link #MAX_QUEUED_BUFFERS} buffers are queued.
+ *
+ * It is a {@link WritableByteChannel} as well, so that a {@link TlsChannel} can write its records to it.
+ */
+public class AsynchronousChannelOutputStream extends OutputStream implements WritableByteChannel {
+
+    public static final int MAX_QUEUED_BUFFERS = 16;
+
+    // the threads that have handled a completion of this or the receiving side, i.e. the threads of a group
+    private static final ThreadLocal<Boolean> GROUP_THREAD = new ThreadLocal<Boolean>();
+
+    private final AsynchronousSocketChannel channel;
+    private final ByteBufferPool            bufferPool;
+    private final byte[]                    singleByte;
+    // a lock rather than a monitor, so that waiting virtual threads don't pin their carrier
+    private final ReentrantLock             lock;
+    private final Condition                 dequeued;
+    private final Queue<ByteBuffer>         queue;      // the head is being written
+    private final WriteCompletion           completion;
+    private Throwable                       failure;
+
+    public AsynchronousChannelOutputStream(AsynchronousSocketChannel channel, ByteBufferPool bufferPool) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel is null");
+        }
+
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool is null");
+        }
+
+        this.channel    = channel;
+        this.bufferPool = bufferPool;
+        this.singleByte = new byte[1];
+        this.lock       = new ReentrantLock();
+        this.dequeued   = lock.newCondition();
+        this.queue      = new ArrayDeque<ByteBuffer>();
+        this.completion = new WriteCompletion();
+    }
+
+    /**
+     * Marks the calling thread as a thread of a channel group, which must never wait for a completion.
+     */
+    static void markGroupThread() {
+        if (GROUP_THREAD.get() == null) {
+            GROUP_THREAD.set(Boolean.TRUE);
+        }
+    }
+
+    static boolean isGroupThread() {
+        return GROUP_THREAD.get() != null;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ByteBuffer buffer = bufferPool.acquire();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            buffer.flip();
+            enqueue(buffer);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int n = src.remaining();
+        while (src.hasRemaining()) {
+            ByteBuffer buffer = bufferPool.acquire();
+            transfer(src, buffer);
+            buffer.flip();
+            enqueue(buffer);
+        }
+
+        return n;
+    }
+
+    /**
+     * Waits until all queued bytes have been written, unless called by a thread of the channel group.
+     */
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            if (!isGroupThread()) {
+                while (!queue.isEmpty() && failure == null) {
+                    await();
+                }
+            }
+            checkFailure();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();    // a pending write fails with an AsynchronousCloseException and releases the queue
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void enqueue(ByteBuffer buffer) throws IOException {
+        boolean start;
+
+        lock.lock();
+        try {
+            if (!isGroupThread()) {
+                while (queue.size() >= MAX_QUEUED_BUFFERS && failure == null) {
+                    await();
+                }
+            }
+
+            if (failure != null) {
+                bufferPool.release(buffer);
+                checkFailure();
+            }
+
+            queue.add(buffer);
+            start = queue.size() == 1;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        if (start) {
+            startWrite(buffer);
+        }
+    }
+
+    private void startWrite(ByteBuffer buffer) {
+        try {
+            channel.write(buffer, buffer, completion);
+        }
+        catch (RuntimeException re) {
+            // e.g. the channel group has been shut down
+            completion.failed(re, buffer);
+        }
+    }
+
+    private void await() throws IOException {
+        try {
+            dequeued.await();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while writing");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        else if (failure != null) {
+            throw new IOException("error while writing: " + failure.getMessage(), failure);
+        }
+    }
+
+    private static void transfer(ByteBuffer src, ByteBuffer dst) {
+        if (src.remaining() <= dst.remaining()) {
+            dst.put(src);
+        }
+        else {
+            int limit = src.limit();
+            src.limit(src.position() + dst.remaining());
+            dst.put(src);
+            src.limit(limit);
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private class WriteCompletion implements CompletionHandler<Integer, ByteBuffer> {
+
+        @Override
+        public void completed(Integer result, ByteBuffer buffer) {
+            markGroupThread();
+
+            if (buffer.hasRemaining()) {
+                // partial write, continue with the rest of the buffer
+                startWrite(buffer);
+                return;
+            }
+
+            ByteBuffer next;
+
+            lock.lock();
+            try {
+                queue.poll();
+                bufferPool.release(buffer);
+                next = queue.peek();
+                dequeued.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+
+            if (next != null) {
+                startWrite(next);
+            }
+        }
+
+        @Override
+        public void failed(Throwable t, ByteBuffer buffer) {
+            lock.lock();
+            try {
+                failure = t;
+
+                ByteBuffer queued;
+                while ((queued = queue.poll()) != null) {
+                    bufferPool.release(queued);
+                }
+                dequeued.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketConfig;
+import io.cuckoo.websocket.nephila.WebSocketException;
+import io.cuckoo.websocket.nephila.util.ByteBufferPool;
+
+import javax.net.ssl.SSLSession;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A transport on top of an {@link AsynchronousSocketChannel}. Reads are issued with a completion handler
+ * into a pooled direct buffer and decoded on the threads of the {@link AsynchronousChannelGroup}, which can be
+ * shared with other connections (or an application framework). For wss the data is decrypted through
+ * a {@link TlsChannel}.
+ *
+ * The listener callbacks, and with them the automatic pong, are dispatched to a shared pool of dispatcher
+ * threads, so that neither a blocking listener nor a send ever holds up a thread of the group. The writes are
+ * queued by an {@link AsynchronousChannelOutputStream}.
+ */
+public class AsynchronousChannelTransport implements WebSocketTransport,
+        CompletionHandler<Integer, ByteBuffer> {
+
+    private static ExecutorService          defaultDispatchExecutor;
+
+    private final WebSocketConfig           webSocketConfig;
+    private final TcpConnector              tcpConnector;
+    private final AsynchronousChannelGroup  channelGroup;
+    private final ByteBufferPool            bufferPool;
+    private AsynchronousSocketChannel       channel;
+    private AsynchronousChannelOutputStream channelOutput;
+    private TlsChannel                      tlsChannel;     // null for ws
+    private TimestampingInputStream         input;
+    private OutputStream                    output;
+    private volatile WebSocketReceiver      receiver;
+    private volatile boolean                closed;
+
+    /**
+     * @param channelGroup the group the channel is bound to, or null for the jvm's default group
+     */
+    public AsynchronousChannelTransport(WebSocketConfig webSocketConfig, TcpConnector tcpConnector,
+                                        AsynchronousChannelGroup channelGroup, ByteBufferPool bufferPool) {
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool is null");
+        }
+
+        this.webSocketConfig    = webSocketConfig;
+        this.tcpConnector       = tcpConnector;
+        this.channelGroup       = channelGroup;
+        this.bufferPool         = bufferPool;
+    }
+
+    /**
+     * @return the lazily created pool of dispatcher threads that is shared by all asynchronous transports
+     */
+    static synchronized ExecutorService getDefaultDispatchExecutor() {
+        if (defaultDispatchExecutor == null) {
+            defaultDispatchExecutor = EventLoopGroup.newDispatchExecutor();
+        }
+
+        return defaultDispatchExecutor;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void connect(URI uri) throws WebSocketException, IOException {
+        channel = tcpConnector.connectAsynchronousChannel(uri, channelGroup);
+
+        // the handshake is read through a blocking view of the channel
+        channelOutput = new AsynchronousChannelOutputStream(channel, bufferPool);
+        if (uri.getScheme().equals("wss")) {
+            tlsChannel  = new TlsChannel(
+                    Channels.newChannel(Channels.newInputStream(channel)),
+                    channelOutput,
+                    tcpConnector.createSslEngine(uri),
+                    bufferPool
+            );
+            input       = new TimestampingInputStream(Channels.newInputStream(tlsChannel), webSocketConfig.getInputBufferSize());
+            output      = new TlsOutputStream(Channels.newOutputStream(tlsChannel));
+        }
+        else {
+            input       = new TimestampingInputStream(Channels.newInputStream(channel), webSocketConfig.getInputBufferSize());
+            output      = channelOutput;
+        }
+    }
+
+    @Override
+    public TimestampingInputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public void startReceiving(WebSocketReceiver receiver) {
+        this.receiver = receiver;
+        receiver.setDispatcher(new SerialExecutor(getDefaultDispatchExecutor()));
+
+        ByteBuffer buffer = bufferPool.acquire();
+
+        // frames the server has sent right after its opening handshake may already be buffered
+        try {
+            int n = input.getBufferedByteCount();
+            long arrivalNanos = input.getLastArrivalNanos();
+            if (n > 0) {
+                byte[] readAhead = new byte[n];
+                input.read(readAhead, 0, n);
+                receiver.onData(readAhead, 0, n, arrivalNanos);
+            }
+            input = null;   // the handshake stream is not needed anymore
+
+            if (tlsChannel != null) {
+                // records that have been read, but not yet decrypted or consumed by the handshake stream
+                tlsChannel.unwrap(ByteBuffer.allocate(0), receiver, arrivalNanos);
+            }
+        }
+        catch (IOException ioe) {
+            bufferPool.release(buffer);
+            receiver.onError(ioe);
+            return;
+        }
+        catch (RuntimeException re) {
+            bufferPool.release(buffer);
+            receiver.onError(re);
+            return;
+        }
+
+        read(buffer);
+    }
+
+    @Override
+    public boolean isOutputOpen() {
+        return channel != null && channel.isOpen();
+    }
+
+    @Override
+    public SSLSession getTlsSession() {
+        return tlsChannel != null ? tlsChannel.getSession() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        if (tlsChannel != null) {
+            tlsChannel.close();
+        }
+
+        if (channel != null) {
+            channel.close();    // a pending read fails with an AsynchronousCloseException and releases its buffer
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void completed(Integer n, ByteBuffer buffer) {
+        AsynchronousChannelOutputStream.markGroupThread();
+
+        if (n == -1) {
+            bufferPool.release(buffer);
+            if (!closed) {
+                receiver.onEndOfStream();
+            }
+            return;
+        }
+
+        buffer.flip();
+        try {
+            if (tlsChannel != null) {
+                tlsChannel.unwrap(buffer, receiver, System.nanoTime());
+            }
+            else {
+                receiver.onData(buffer, System.nanoTime());
+            }
+        }
+        catch (IOException ioe) {
+            bufferPool.release(buffer);
+            receiver.onError(ioe);
+            return;
+        }
+        catch (RuntimeException re) {
+            // e.g. a listener callback has thrown an exception, which must not get lost in the channel group
+            bufferPool.release(buffer);
+            receiver.onError(re);
+            return;
+        }
+
+        buffer.clear();
+        read(buffer);
+    }
+
+    @Override
+    public void failed(Throwable t, ByteBuffer buffer) {
+        bufferPool.release(buffer);
+        if (!closed) {
+            receiver.onError(t);
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void read(ByteBuffer buffer) {
+        if (closed || receiver.isStopped()) {
+            bufferPool.release(buffer);
+            return;
+        }
+
+        channel.read(buffer, buffer, this);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * Writes through the {@link TlsChannel} and waits for the queued records on flush, after the channel has
+     * released its write lock, so that a decrypting thread of the group never waits for that lock.
+     */
+    private class TlsOutputStream extends FilterOutputStream {
+
+        private TlsOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+            channelOutput.flush();
+        }
+    }
+}
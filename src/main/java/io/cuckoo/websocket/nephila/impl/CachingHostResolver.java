@@ -0,0 +1,229 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A resolver that caches the addresses of a host for a fixed time to live, so that a reconnect storm
+ * results in a single lookup per host instead of one per connection. Unknown hosts are cached for a shorter
+ * time, and concurrent lookups of the same host wait for a single query of the delegate.
+ *
+ * An entry found expired is removed. Once the cache holds {@link #MAX_SIZE} hosts, a new one first evicts all
+ * expired entries and then, if none has expired, arbitrary ones.
+ */
+public class CachingHostResolver implements HostResolver {
+
+    public static final long TTL_MILLIS             = 30000;
+
+    public static final long NEGATIVE_TTL_MILLIS    = 5000;
+
+    public static final int MAX_SIZE                = 10000;
+
+    private final HostResolver                  delegate;
+    private final long                          ttlNanos;
+    private final long                          negativeTtlNanos;
+    private final int                           maxSize;
+    private final ConcurrentMap<String, Entry>  cache;
+    private final ConcurrentMap<String, Lookup> lookups;
+
+    public CachingHostResolver() {
+        this(SystemHostResolver.INSTANCE, TTL_MILLIS, NEGATIVE_TTL_MILLIS);
+    }
+
+    public CachingHostResolver(HostResolver delegate, long ttlMillis) {
+        this(delegate, ttlMillis, NEGATIVE_TTL_MILLIS);
+    }
+
+    /**
+     * @param negativeTtlMillis the time an unknown host is remembered as such, 0 disables negative caching
+     */
+    public CachingHostResolver(HostResolver delegate, long ttlMillis, long negativeTtlMillis) {
+        this(delegate, ttlMillis, negativeTtlMillis, MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the maximum number of cached hosts
+     */
+    public CachingHostResolver(HostResolver delegate, long ttlMillis, long negativeTtlMillis, int maxSize) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis is negative");
+        }
+
+        if (negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("negativeTtlMillis is negative");
+        }
+
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+
+        this.delegate           = delegate;
+        this.ttlNanos           = ttlMillis * 1000000L;
+        this.negativeTtlNanos   = negativeTtlMillis * 1000000L;
+        this.maxSize            = maxSize;
+        this.cache              = new ConcurrentHashMap<String, Entry>();
+        this.lookups            = new ConcurrentHashMap<String, Lookup>();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        final String key = host.toLowerCase(Locale.ROOT);
+
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            if (!entry.isExpired(System.nanoTime())) {
+                return entry.get();
+            }
+            cache.remove(key, entry);
+        }
+
+        Lookup lookup = new Lookup();
+        Lookup pending = lookups.putIfAbsent(key, lookup);
+        if (pending != null) {
+            entry = pending.await();
+            // null if the pending lookup failed unexpectedly
+            return entry != null ? entry.get() : delegate.resolve(host);
+        }
+
+        try {
+            try {
+                entry = new Entry(delegate.resolve(host).clone(), null, System.nanoTime(), ttlNanos);
+            }
+            catch (UnknownHostException uhe) {
+                entry = new Entry(null, uhe.getMessage(), System.nanoTime(), negativeTtlNanos);
+            }
+
+            if (cache.size() >= maxSize) {
+                evict();
+            }
+            cache.put(key, entry);
+            lookup.entry = entry;
+            return entry.get();
+        }
+        finally {
+            lookups.remove(key, lookup);
+            lookup.done.countDown();
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * Makes room for a new entry, preferring the expired ones.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue().isExpired(now)) {
+                it.remove();
+            }
+        }
+
+        for (Iterator<String> it = cache.keySet().iterator(); it.hasNext() && cache.size() >= maxSize; ) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static class Entry {
+        private final InetAddress[] addresses;
+        private final String        failure;
+        private final long          resolvedAt;
+        private final long          ttlNanos;
+
+        private Entry(InetAddress[] addresses, String failure, long resolvedAt, long ttlNanos) {
+            this.addresses  = addresses;
+            this.failure    = failure;
+            this.resolvedAt = resolvedAt;
+            this.ttlNanos   = ttlNanos;
+        }
+
+        private boolean isExpired(long now) {
+            return now - resolvedAt >= ttlNanos;
+        }
+
+        private InetAddress[] get() throws UnknownHostException {
+            if (addresses == null) {
+                throw new UnknownHostException(failure);
+            }
+
+            return addresses.clone();
+        }
+    }
+
+    private static class Lookup {
+        private final CountDownLatch    done = new CountDownLatch(1);
+        private volatile Entry          entry;
+
+        private Entry await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        done.await();
+                        return entry;
+                    }
+                    catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
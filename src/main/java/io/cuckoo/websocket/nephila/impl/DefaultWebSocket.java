@@ -24,23 +24,37 @@ package io.cuckoo.websocket.nephila.impl;
 
 import io.cuckoo.websocket.nephila.*;
 import io.cuckoo.websocket.nephila.util.ByteArrayUtils;
+import io.cuckoo.websocket.nephila.util.ByteBufferPool;
+import io.cuckoo.websocket.nephila.util.CompressorPool;
 import io.cuckoo.websocket.nephila.util.ConsoleLogger;
+import io.cuckoo.websocket.nephila.util.LatencyHistogram;
 import io.cuckoo.websocket.nephila.util.Logger;
 
-import javax.net.SocketFactory;
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLSession;
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 public class DefaultWebSocket implements WebSocket {
 
+    private static final int MASKING_BUFFER_SIZE = 8192;
+
+    private static final long NO_PING           = Long.MIN_VALUE;
+
+    private static final int RSV1               = 0x40;    // marks a message compressed by permessage-deflate
+
     private volatile WebSocketListener  webSocketListener;
     private final WebSocketConfig       webSocketConfig;
     private final String[]              acceptingSubProtocols;
@@ -50,9 +64,43 @@ public class DefaultWebSocket implements WebSocket {
     private final byte[]                payloadSizeLessEqualThan65535Buffer;
     private final byte[]                payloadSizeGreaterThan65535Buffer;
     private final byte[]                maskingKeyArray;
-    private Socket                      socket;
-    private InputStream                 input;
-    private BufferedOutputStream        output;
+    private byte[]                      maskingBuffer;  // masks prepared messages, allocated on first use
+    private final WebSocketStats        stats;
+    private final ReentrantLock         lock;       // used instead of 'synchronized', because a virtual thread
+                                                    // blocking in a socket write while holding a monitor
+                                                    // pins its carrier thread
+    private volatile EventLoopGroup     eventLoopGroup;
+    private volatile AsynchronousChannelGroup asynchronousChannelGroup;
+    private volatile ByteBufferPool     byteBufferPool;
+    private volatile CompressorPool     compressorPool;
+    private volatile HostResolver       hostResolver;
+    private volatile TlsContext         tlsContext;
+    private volatile WebSocketTimer     timer;
+    private volatile boolean            handshakeTimedOut;
+    private final ArrayDeque<BufferedMessage> replayBuffer;     // sent while reconnecting, guarded by replayLock
+    private final ReentrantLock         replayLock; // guards replayBuffer between send() and the replaying connect(),
+                                                    // as lock is held by a reconnect for the whole attempt
+    private volatile boolean            replaying;  // true while sends are buffered for replay
+    private final ArrayDeque<BufferedMessage> earlyMessages;    // sent while connecting, guarded by earlyLock
+    private final ReentrantLock         earlyLock;  // guards earlyMessages between send() and the handshake writer,
+                                                    // as lock is held by connect() for the whole handshake
+    private volatile boolean            connecting; // true while early sends are queued
+    private volatile boolean            reconnecting;
+    private volatile boolean            closeRequested;
+    private int                         reconnectAttempts;
+    private WebSocketTimeout            reconnectTimeout;
+    private URI                         uri;        // of the last established connection
+    private WebSocketHandshake.Template handshakeTemplate;  // of the last connect, reused by reconnects
+    private volatile WebSocketTimeout   heartbeatTimeout;
+    private volatile WebSocketTimeout   closeTimeout;
+    private final AtomicLong            heartbeatPing;  // send time of the unanswered heartbeat ping, or NO_PING
+    private volatile int                missedPongs;
+    private volatile long               roundTripNanos;
+    private volatile ConnectTimings     connectTimings;             // of the last successful connect
+    private volatile ConnectTimingHistograms connectTimingHistograms;
+    private volatile WebSocketTransport transport;  // read by timer tasks and closeNow() without the lock
+    private volatile PerMessageDeflate  deflate;    // of the current connection, null if not negotiated
+    private OutputStream                output;
     private WebSocketReceiver           receiver;
     private volatile boolean            onCloseAlreadyCalled;
     private volatile boolean            connected;  // WebSocketReceiver-Thread may change the value
@@ -98,6 +146,15 @@ public class DefaultWebSocket implements WebSocket {
         this.connected              = false;
         this.streaming              = false;
         this.onCloseAlreadyCalled   = false;
+        this.replayBuffer           = new ArrayDeque<BufferedMessage>();
+        this.replayLock             = new ReentrantLock();
+        this.replaying              = false;
+        this.earlyMessages          = new ArrayDeque<BufferedMessage>();
+        this.earlyLock              = new ReentrantLock();
+        this.connecting             = false;
+        this.reconnecting           = false;
+        this.heartbeatPing          = new AtomicLong(NO_PING);
+        this.roundTripNanos         = -1;
 
         // Network byte order is big endian
         //this.payloadSizeLessEqualThan65535Buffer     = ByteBuffer.allocateDirect(4).order(ByteOrder.BIG_ENDIAN);
@@ -105,6 +162,8 @@ public class DefaultWebSocket implements WebSocket {
         this.payloadSizeLessEqualThan65535Buffer    = new byte[4];
         this.payloadSizeGreaterThan65535Buffer      = new byte[8];
         this.maskingKeyArray                        = new byte[4];
+        this.stats                                  = new WebSocketStats();
+        this.lock                                   = new ReentrantLock();
     }
 
     /* ######################################################################## */
@@ -131,47 +190,282 @@ public class DefaultWebSocket implements WebSocket {
         return negotiatedSubProtocols;
     }
 
-    @Override
-    public synchronized void connect(URI uri) throws WebSocketException {
-        failFastOnInvalidUri(uri);
-        failFastOnAlreadyEstablishedConnection();
+    /**
+     * @return the latencies between the read returning a frame's data and the invocation of the corresponding
+     * listener callback; the wakeup of a blocked or parked receiver thread is not included, accumulated over the lifetime of this object
+     */
+    public LatencyHistogram getReceiveLatency() {
+        return stats.getReceiveLatency();
+    }
+
+    /**
+     * @return the traffic counters of this websocket, accumulated over the lifetime of this object
+     */
+    public WebSocketStats getStats() {
+        return stats;
+    }
+
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    /**
+     * Assigns the event loop group that hosts this websocket in {@link WebSocketReceiveMode#SELECTOR} mode.
+     * If no group is assigned, the shared {@link EventLoopGroup#getDefault() default group} is used.
+     */
+    public void setEventLoopGroup(EventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    public AsynchronousChannelGroup getAsynchronousChannelGroup() {
+        return asynchronousChannelGroup;
+    }
+
+    /**
+     * Assigns the channel group that hosts this websocket in {@link WebSocketReceiveMode#ASYNCHRONOUS} mode.
+     * If no group is assigned, the jvm's default group is used.
+     */
+    public void setAsynchronousChannelGroup(AsynchronousChannelGroup asynchronousChannelGroup) {
+        this.asynchronousChannelGroup = asynchronousChannelGroup;
+    }
 
+    public ByteBufferPool getByteBufferPool() {
+        return byteBufferPool;
+    }
+
+    /**
+     * Assigns the pool the direct buffers of the {@link WebSocketReceiveMode#ASYNCHRONOUS} mode are taken from.
+     * If no pool is assigned, the shared {@link ByteBufferPool#getDefault() default pool} is used.
+     */
+    public void setByteBufferPool(ByteBufferPool byteBufferPool) {
+        this.byteBufferPool = byteBufferPool;
+    }
+
+    public CompressorPool getCompressorPool() {
+        return compressorPool;
+    }
+
+    /**
+     * Assigns the pool the deflaters and inflaters of the permessage-deflate extension are taken from.
+     * If no pool is assigned, the shared {@link CompressorPool#getDefault() default pool} is used.
+     */
+    public void setCompressorPool(CompressorPool compressorPool) {
+        this.compressorPool = compressorPool;
+    }
+
+    /**
+     * @return the permessage-deflate extension negotiated for the current connection, or null if the connection
+     * is uncompressed
+     */
+    public PerMessageDeflate getPerMessageDeflate() {
+        return deflate;
+    }
+
+    public HostResolver getHostResolver() {
+        return hostResolver;
+    }
+
+    /**
+     * Assigns the resolver used to look up the host of the uri passed to {@link #connect(URI)}.
+     * If no resolver is assigned, every connect asks the {@link SystemHostResolver system resolver}.
+     */
+    public void setHostResolver(HostResolver hostResolver) {
+        this.hostResolver = hostResolver;
+    }
+
+    public TlsContext getTlsContext() {
+        return tlsContext;
+    }
+
+    /**
+     * Assigns the context whose session cache and trust settings are used for wss connections.
+     * If no context is assigned, the shared {@link TlsContext#getDefault() default context} is used.
+     */
+    public void setTlsContext(TlsContext tlsContext) {
+        this.tlsContext = tlsContext;
+    }
+
+    public WebSocketTimer getTimer() {
+        return timer;
+    }
+
+    /**
+     * Assigns the timer that enforces the deadlines (opening and closing handshake, heartbeat, reconnect delay) of
+     * this websocket.
+     * If no timer is assigned, the shared {@link HashedWheelTimer#getDefault() default timer} is used.
+     */
+    public void setTimer(WebSocketTimer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * @return the round trip time of the last answered heartbeat ping in nanoseconds, or -1 if no heartbeat
+     * ping has been answered yet
+     */
+    public long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+
+    /**
+     * @return the phase durations of the last successful connect (or reconnect), or null if this websocket has
+     * never been connected
+     */
+    public ConnectTimings getConnectTimings() {
+        return connectTimings;
+    }
+
+    /**
+     * @return the histograms every successful connect of this websocket is recorded into
+     */
+    public ConnectTimingHistograms getConnectTimingHistograms() {
+        ConnectTimingHistograms h = connectTimingHistograms;
+        if (h == null) {
+            lock.lock();
+            try {
+                if ((h = connectTimingHistograms) == null) {
+                    h = connectTimingHistograms = new ConnectTimingHistograms();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        return h;
+    }
+
+    /**
+     * Assigns the histograms the successful connects of this websocket are recorded into, so that they can be
+     * shared by many websockets.
+     * If no histograms are assigned, this websocket creates its own on first use.
+     */
+    public void setConnectTimingHistograms(ConnectTimingHistograms connectTimingHistograms) {
+        this.connectTimingHistograms = connectTimingHistograms;
+    }
+
+    /**
+     * @return true while a lost connection is being re-established according to the
+     * {@link WebSocketConfig#getReconnectPolicy() reconnect policy}
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    @Override
+    public void connect(URI uri) throws WebSocketException {
+        lock.lock();
         try {
-            // reset internal state
-            streaming               = false;
-            onCloseAlreadyCalled    = false;
+            failFastOnInvalidUri(uri);
+            failFastOnAlreadyEstablishedConnection();
+            startEarlySends();
+
+            WebSocketTimeout handshakeTimeout = null;
+
+            try {
+                // reset internal state
+                streaming               = false;
+                onCloseAlreadyCalled    = false;
+                handshakeTimedOut       = false;
+                closeRequested          = false;
+                negotiatedSubProtocols.clear();
+
+                // create opening handshake
+                URI handshakeUri                = UnixDomainSockets.isUnixDomain(uri)
+                                                        ? UnixDomainSockets.getHandshakeUri(uri) : uri;
+                WebSocketHandshake handshake    = new WebSocketHandshake(handshakeUri);
+
+                // establish tcp connection
+                long connectStartMillis         = System.currentTimeMillis();
+                long connectStartNanos          = System.nanoTime();
+                TcpConnector tcpConnector       = createTcpConnector();
+                transport                       = createTransport(uri, tcpConnector);
+                transport.connect(uri);
+                handshakeTimeout                = scheduleHandshakeTimeout(transport);
+                output                          = createOutputStream(uri, transport.getOutputStream());
+
+                // send opening handshake
+                sendOpeningHandshake(handshake.getHandshakeBytes(getHandshakeTemplate(handshakeUri)));
+                long requestSentNanos           = System.nanoTime();
+
+                // wait for response containing server opening handshake and process it
+                processServerOpeningHandshake(handshake, transport.getInputStream());
+                long upgradedNanos              = System.nanoTime();
+                if (!handshakeTimeout.cancel()) {
+                    throw new WebSocketException("opening handshake timed out");
+                }
 
-            // create opening handshake
-            WebSocketHandshake handshake    = new WebSocketHandshake(uri);
+                // messages sent while waiting for the response, in the order they have been sent
+                if (writeEarlyMessages(true) > 0) {
+                    output.flush();
+                }
 
-            // establish tcp socket connection
-            socket                          = createTcpConnection(uri);
-            input                           = socket.getInputStream();
-            output                          = new BufferedOutputStream(
-                    socket.getOutputStream(),
-                    webSocketConfig.getOutputBufferSize()
-            );
+                SSLSession tlsSession = transport.getTlsSession();
+                if (tlsSession != null) {
+                    stats.onTlsHandshake(tcpConnector.getTlsContext().onHandshakeCompleted(tlsSession, connectStartMillis));
+                    ((TlsRecordOutputStream) output).setRecordSize(TlsContext.getRecordPlaintextSize(tlsSession));
+                }
 
-            // send opening handshake
-            sendOpeningHandshake(handshake.getHandshakeBytes(getAcceptingSubProtocolsAsCSV()));
+                // set connected flag to true before any frame (even one that has been read ahead) can arrive
+                connected = true;
 
-            // wait for response containing server opening handshake and process it
-            processServerOpeningHandshake(handshake);
+                // instantiate receiver and let the transport feed it
+                receiver = new WebSocketReceiver(this, stats, deflate);
+                transport.startReceiving(receiver);
 
-            // instantiate and start receiver thread
-            receiver = new WebSocketReceiver(this, input);
-            receiver.start();
+                stats.onConnect();
+                recordConnectTimings(tcpConnector, tlsSession != null, connectStartNanos, requestSentNanos, upgradedNanos);
 
-            // set connected flag to true
-            connected = true;
+                // a pending reconnect is obsolete now, messages buffered in the meantime are sent before
+                // the listener (or any other sender) gets the chance to send new ones
+                this.uri = uri;
+                cancelReconnect();
+                replayBufferedMessages();
+                startHeartbeat();
 
-            // notify listener
-            if (webSocketListener != null) {
-                webSocketListener.onConnect();
+                // notify listener
+                if (webSocketListener != null) {
+                    webSocketListener.onConnect();
+                }
+            }
+            catch (IOException ioe) {
+                cancelQuietly(handshakeTimeout);
+                closeTransportQuietly();
+                releaseDeflate();
+                stats.onConnectFailure();
+                String discarded = getDiscardedMessage(discardEarlyMessages());
+
+                if (handshakeTimedOut) {
+                    throw new WebSocketException("error while connecting to " + uri.toString() + ": opening handshake timed out" + discarded);
+                }
+                throw new WebSocketException("error while connecting to " + uri.toString() + ": " + ioe.getMessage() + discarded);
+            }
+            catch (WebSocketException wse) {
+                cancelQuietly(handshakeTimeout);
+                closeTransportQuietly();
+                releaseDeflate();
+                stats.onConnectFailure();
+
+                int discarded = discardEarlyMessages();
+                if (discarded > 0) {
+                    throw new WebSocketException(wse.getMessage() + getDiscardedMessage(discarded), wse);
+                }
+                throw wse;
+            }
+            catch (RuntimeException re) {
+                // e.g. from the resolver or the thread factory, the half-open transport must not leak
+                cancelQuietly(handshakeTimeout);
+                closeTransportQuietly();
+                releaseDeflate();
+                stats.onConnectFailure();
+                discardEarlyMessages();
+                throw re;
             }
         }
-        catch (IOException ioe) {
-            throw new WebSocketException("error while connecting to " + uri.toString() + ": " + ioe.getMessage());
+        finally {
+            if (connecting) {
+                discardEarlyMessages();
+            }
+            lock.unlock();
         }
     }
 
@@ -188,55 +482,158 @@ public class DefaultWebSocket implements WebSocket {
         connect(URI.create(uri));
     }
 
+    @Override
+    public CompletableFuture<WebSocket> connectAsync(final URI uri) {
+        failFastOnInvalidUri(uri);
+
+        // messages sent as soon as this method has returned are already queued as early sends
+        if (!connected) {
+            startEarlySends();
+        }
+
+        final CompletableFuture<WebSocket> future = new CompletableFuture<WebSocket>();
+
+        // dns, tcp, TLS and the opening handshake block, the caller's thread is not
+        newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connect(uri);
+                    future.complete(DefaultWebSocket.this);
+                }
+                catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        }, DefaultWebSocketConfig.CONNECT_THREAD_NAME).start();
+
+        return future;
+    }
+
     @Override
     public boolean isConnected() {
         return connected;
     }
 
     @Override
-    public synchronized void send(String data) throws WebSocketException {
-        if (data == null) {
-            throw new IllegalArgumentException("data is null");
+    public void send(String data) throws WebSocketException {
+        if (connecting && data != null && bufferEarly(getUtf8Bytes(data), (byte) 0x1)) {
+            return;
         }
 
-        if (streaming) {
-            throw new IllegalStateException("cannot send unfragmented payload data while in a streaming sequence");
+        if (replaying && data != null && bufferForReplay(getUtf8Bytes(data), (byte) 0x1)) {
+            return;
         }
 
+        lock.lock();
         try {
-            write(data.getBytes("UTF-8"), true, (byte) 0x1, true);
+            if (data == null) {
+                throw new IllegalArgumentException("data is null");
+            }
+
+            if (streaming) {
+                throw new IllegalStateException("cannot send unfragmented payload data while in a streaming sequence");
+            }
+
+            try {
+                byte[] bytes = data.getBytes("UTF-8");
+                if (!bufferForReplay(bytes, (byte) 0x1)) {
+                    write(bytes, true, (byte) 0x1, true);
+                }
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new WebSocketException("utf-8 is not supported on this platform");
+            }
         }
-        catch (UnsupportedEncodingException e) {
-            throw new WebSocketException("utf-8 is not supported on this platform");
+        finally {
+            lock.unlock();
         }
     }
 
     @Override
-    public synchronized void send(byte[] data) throws WebSocketException {
-        if (streaming) {
-            throw new IllegalStateException("cannot send unfragmented payload data while in a streaming sequence");
+    public void send(byte[] data) throws WebSocketException {
+        if (connecting && bufferEarly(data, (byte) 0x2)) {
+            return;
         }
 
-        write(data, true, (byte) 0x2, true);
+        if (replaying && bufferForReplay(data, (byte) 0x2)) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (streaming) {
+                throw new IllegalStateException("cannot send unfragmented payload data while in a streaming sequence");
+            }
+
+            if (!bufferForReplay(data, (byte) 0x2)) {
+                write(data, true, (byte) 0x2, true);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public synchronized void stream(String data, boolean isFinalChunk) throws WebSocketException {
-        if (data == null) {
-            throw new IllegalArgumentException("data is null");
+    public void send(PreparedMessage message) throws WebSocketException {
+        if (connecting && message != null && bufferEarly(message.getPayload(), message.getOpCode())) {
+            return;
+        }
+
+        if (replaying && message != null && bufferForReplay(message.getPayload(), message.getOpCode())) {
+            return;
         }
 
+        lock.lock();
         try {
-            stream(data.getBytes("UTF-8"), isFinalChunk, (byte) 0x1);
+            if (message == null) {
+                throw new IllegalArgumentException("message is null");
+            }
+
+            if (streaming) {
+                throw new IllegalStateException("cannot send unfragmented payload data while in a streaming sequence");
+            }
+
+            // the payload is only copied if the message has to be buffered
+            if (connected || !bufferForReplay(message.getPayload(), message.getOpCode())) {
+                writePrepared(message);
+            }
         }
-        catch (UnsupportedEncodingException e) {
-            throw new WebSocketException("utf-8 is not supported on this platform");
+        finally {
+            lock.unlock();
         }
     }
 
     @Override
-    public synchronized void stream(byte[] data, boolean isFinalChunk) throws WebSocketException {
-        stream(data, isFinalChunk, (byte) 0x2);
+    public void stream(String data, boolean isFinalChunk) throws WebSocketException {
+        lock.lock();
+        try {
+            if (data == null) {
+                throw new IllegalArgumentException("data is null");
+            }
+
+            try {
+                stream(data.getBytes("UTF-8"), isFinalChunk, (byte) 0x1);
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new WebSocketException("utf-8 is not supported on this platform");
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void stream(byte[] data, boolean isFinalChunk) throws WebSocketException {
+        lock.lock();
+        try {
+            stream(data, isFinalChunk, (byte) 0x2);
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -297,50 +694,114 @@ public class DefaultWebSocket implements WebSocket {
         close(reason, true);
     }
 
-    public synchronized void close(String reason, boolean clientInitiatingConnectionClose) throws WebSocketException {
-        if (!connected) {
-            throw new IllegalStateException("not connected");
-        }
+    public void close(String reason, boolean clientInitiatingConnectionClose) throws WebSocketException {
+        close(WebSocketClosureStatusCode.NORMAL, reason, clientInitiatingConnectionClose);
+    }
 
-        if (reason == null) {
-            throw new IllegalArgumentException("reason is null");
-        }
+    private void close(WebSocketClosureStatusCode code, String reason, boolean clientInitiatingConnectionClose)
+            throws WebSocketException {
+        lock.lock();
+        try {
+            if (!connected) {
+                if (reconnecting) {
+                    // the listener has already been notified when the connection was lost
+                    cancelReconnect();
+                    discardReplayBuffer();
+                    return;
+                }
+
+                throw new IllegalStateException("not connected");
+            }
 
-        if (clientInitiatingConnectionClose) {
-            //log.debug(getClass(), "client initiating connection close");
+            if (reason == null) {
+                throw new IllegalArgumentException("reason is null");
+            }
 
-            // enable receiver to wait for server closing handshake
-            receiver.enableWaitingForServerClosingHandshake();
+            if (clientInitiatingConnectionClose) {
+                closeRequested = true;
 
-            // send closing handshake
-            sendClosingHandshake(WebSocketClosureStatusCode.NORMAL, reason);
-        }
-        else {
-            //log.debug(getClass(), "server initiating connection close");
+                //log.debug(getClass(), "client initiating connection close");
 
-            // send closing handshake if socket is still connected
-            if (socket.isConnected() && !socket.isOutputShutdown()) {
-                sendClosingHandshake(WebSocketClosureStatusCode.NORMAL, reason);
+                // enable receiver to wait for server closing handshake
+                receiver.enableWaitingForServerClosingHandshake();
+
+                // send closing handshake
+                sendClosingHandshake(code, reason);
+
+                // the connection is torn down if the server does not answer in time
+                if (connected) {
+                    scheduleCloseTimeout(transport);
+                }
+            }
+            else {
+                //log.debug(getClass(), "server initiating connection close");
+
+                // send closing handshake if socket is still connected
+                if (transport.isOutputOpen()) {
+                    sendClosingHandshake(code, reason);
+                }
+                onServerClosingHandshake();
             }
-            onServerClosingHandshake();
+        }
+        finally {
+            lock.unlock();
         }
     }
 
-    public synchronized void onServerClosingHandshake() {
+    public void onServerClosingHandshake() {
+        lock.lock();
         try {
-            connected = false;
-            receiver.stopIt();
-            closeTcpConnection();
-        }
-        catch (IOException ignored) {
-            log.error(getClass(), "error while closing websocket connection: " + ignored.getMessage());
+            try {
+                connected = false;
+                stopHeartbeat();
+                cancelQuietly(closeTimeout);
+                closeTimeout = null;
+                receiver.stopIt();
+                closeTcpConnection();
+            }
+            catch (IOException ignored) {
+                log.error(getClass(), "error while closing websocket connection: " + ignored.getMessage());
+            }
+            finally {
+                releaseDeflate();
+
+                // started first, so that the listener can tell a lost connection from a final close
+                if (!closeRequested) {
+                    startReconnecting();
+                }
+
+                if (webSocketListener != null && !onCloseAlreadyCalled) {
+                    webSocketListener.onClose();
+                    onCloseAlreadyCalled = true;
+                }
+            }
         }
         finally {
-            if (webSocketListener != null && !onCloseAlreadyCalled) {
-                webSocketListener.onClose();
-                onCloseAlreadyCalled = true;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the connection without a closing handshake and stops reconnecting. Unlike {@link #close()} it neither
+     * waits for a sender blocked by the server nor for the server's reply, and it does nothing if the websocket
+     * is not connected.
+     */
+    @Override
+    public void closeNow() {
+        // set before the transport is closed, so that the receiver does not take the failing read for a lost connection
+        closeRequested = true;
+        abort(transport);
+
+        lock.lock();
+        try {
+            if (reconnecting) {
+                cancelReconnect();
+                discardReplayBuffer();
             }
         }
+        finally {
+            lock.unlock();
+        }
     }
 
     /* ######################################################################## */
@@ -348,9 +809,16 @@ public class DefaultWebSocket implements WebSocket {
     /* ######################################################################## */
 
     public void handleReceiverError(String reason) {
+        handleReceiverError(WebSocketClosureStatusCode.NORMAL, reason);
+    }
+
+    /**
+     * Fails the connection with the given close code, e.g. {@link WebSocketClosureStatusCode#MESSAGE_TOO_LARGE}.
+     */
+    public void handleReceiverError(WebSocketClosureStatusCode code, String reason) {
         try {
             if (connected) {
-                close(reason, false);
+                close(code, reason, false);
             }
         }
         catch (WebSocketException ignore) {
@@ -358,11 +826,59 @@ public class DefaultWebSocket implements WebSocket {
         }
     }
 
-    public synchronized void closeSilently() {
+    /**
+     * Called by the receiver for every ping frame, before the listener is notified.
+     */
+    public void onPing(byte[] payload) {
+        HeartbeatPolicy policy = webSocketConfig.getHeartbeatPolicy();
+        if (policy == null || !policy.isAnswerPings() || !connected) {
+            return;
+        }
+
         try {
-            close("", false);
-        } catch (WebSocketException e) {
-            // ignored
+            // answered with a copy, because the payload is masked in place and is still passed to the listener
+            pong(payload.clone());
+        }
+        catch (WebSocketException wse) {
+            log.warn(getClass(), "error while answering ping: " + wse.getMessage());
+        }
+        catch (IllegalStateException ise) {
+            // the connection has been closed in the meantime
+        }
+    }
+
+    /**
+     * Called by the receiver for every pong frame, before the listener is notified.
+     */
+    public void onPong(byte[] payload) {
+        if (payload.length != 8) {
+            return;
+        }
+
+        long sentNanos = ByteBuffer.wrap(payload).getLong();
+        if (heartbeatPing.compareAndSet(sentNanos, NO_PING)) {
+            long rtt = System.nanoTime() - sentNanos;
+            roundTripNanos  = rtt;
+            missedPongs     = 0;
+            stats.getRoundTripTime().record(rtt);
+        }
+    }
+
+    public void closeSilently() {
+        lock.lock();
+        try {
+            if (!connected) {
+                return;
+            }
+
+            try {
+                close("", false);
+            } catch (WebSocketException e) {
+                // ignored
+            }
+        }
+        finally {
+            lock.unlock();
         }
     }
 
@@ -385,56 +901,595 @@ public class DefaultWebSocket implements WebSocket {
             throw new IllegalArgumentException("invalid uri: scheme is null");
         }
 
-        if (uri.getHost() == null) {
+        if (uri.getHost() == null && !UnixDomainSockets.isUnixDomain(uri)) {
             throw new IllegalArgumentException("invalid uri: host is null");
         }
     }
 
-    private Socket createTcpConnection(URI uri) throws WebSocketException {
-        final String scheme = uri.getScheme();
-        final String host   = uri.getHost();
-        final int port      = (uri.getPort() == -1) ? 80 : uri.getPort();
-        Socket socket;
+    private WebSocketTimeout scheduleHandshakeTimeout(final WebSocketTransport transport) {
+        // closing the transport unblocks the thread that is waiting for the server opening handshake
+        return getTimerOrDefault().schedule(new Runnable() {
+            @Override
+            public void run() {
+                handshakeTimedOut = true;
+                try {
+                    transport.close();
+                }
+                catch (IOException ignored) {
+                }
+            }
+        }, webSocketConfig.getSocketTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Derives the phase durations from the time stamps of a successful connect. A TLS handshake is run by the
+     * first write of the transport, so for wss the time between connection and sent upgrade request is
+     * attributed to it.
+     */
+    private void recordConnectTimings(TcpConnector tcpConnector, boolean tls, long startNanos, long requestSentNanos,
+                                      long upgradedNanos) {
+        long resolvedNanos  = tcpConnector.getResolvedNanos() != 0 ? tcpConnector.getResolvedNanos() : startNanos;
+        long connectedNanos = tcpConnector.getConnectedNanos() != 0 ? tcpConnector.getConnectedNanos() : resolvedNanos;
+
+        ConnectTimings timings;
+        if (tls) {
+            timings = new ConnectTimings(resolvedNanos - startNanos, connectedNanos - resolvedNanos,
+                                         requestSentNanos - connectedNanos, upgradedNanos - requestSentNanos);
+        }
+        else {
+            timings = new ConnectTimings(resolvedNanos - startNanos, connectedNanos - resolvedNanos,
+                                         0, upgradedNanos - connectedNanos);
+        }
+
+        connectTimings = timings;
+        getConnectTimingHistograms().record(timings, tls);
+    }
+
+    private WebSocketTimer getTimerOrDefault() {
+        WebSocketTimer t = timer;
+        if (t == null) {
+            t = HashedWheelTimer.getDefault();
+        }
+
+        return t;
+    }
+
+    private void startHeartbeat() {
+        HeartbeatPolicy policy = webSocketConfig.getHeartbeatPolicy();
+        if (policy == null) {
+            return;
+        }
+
+        heartbeatPing.set(NO_PING);
+        missedPongs = 0;
+        scheduleHeartbeat(policy, transport);
+    }
+
+    private void scheduleHeartbeat(final HeartbeatPolicy policy, final WebSocketTransport connection) {
+        try {
+            heartbeatTimeout = getTimerOrDefault().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    heartbeat(policy, connection);
+                }
+            }, policy.getIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (RuntimeException re) {
+            // the timer has been stopped
+            log.warn(getClass(), "cannot schedule heartbeat for " + uri + ": " + re);
+        }
+    }
+
+    /**
+     * Runs in the timer thread, which is shared by all websockets, therefore it never waits for the lock: the ping
+     * is written only if no sender holds it. An interval whose ping has been skipped behind a blocked sender
+     * counts as a missed pong.
+     */
+    private void heartbeat(HeartbeatPolicy policy, WebSocketTransport connection) {
+        // a heartbeat of a previous connection
+        if (!connected || transport != connection) {
+            return;
+        }
+
+        if (heartbeatPing.get() != NO_PING && ++missedPongs >= policy.getMaxMissedPongs()) {
+            closeDeadConnection(connection);
+            return;
+        }
+
+        // counted as sent even if a sender holding the lock is blocked by the dead peer, so that the miss is noticed
+        long sentNanos = System.nanoTime();
+        heartbeatPing.set(sentNanos);
+        sendHeartbeatPing(connection, sentNanos);
+
+        if (connected && transport == connection) {
+            scheduleHeartbeat(policy, connection);
+        }
+    }
+
+    private void sendHeartbeatPing(WebSocketTransport connection, long sentNanos) {
+        if (!lock.tryLock()) {
+            return;
+        }
 
         try {
-            if (scheme.equals("ws")) {
-                SocketAddress sockAddr = new InetSocketAddress(host, port);
-                socket = new Socket();
-                socket.setTcpNoDelay(false);
-                socket.connect(sockAddr, webSocketConfig.getSocketTimeout());
+            // no other write is in progress, only a send buffer still filled by the previous message delays these 8 bytes
+            if (connected && transport == connection) {
+                write(ByteBuffer.allocate(8).putLong(sentNanos).array(), true, (byte) 0x9, true);
             }
-            else if (scheme.equals("wss")) {
-                SocketFactory factory = SSLSocketFactory.getDefault();
-                socket = factory.createSocket(host, port);
+        }
+        catch (WebSocketException wse) {
+            log.warn(getClass(), "error while sending heartbeat ping: " + wse.getMessage());
+        }
+        catch (IllegalStateException ise) {
+            // the connection has been closed in the meantime
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeDeadConnection(WebSocketTransport connection) {
+        log.warn(getClass(), "closing connection to " + uri + ": " + missedPongs + " heartbeat pings have not been answered");
+        stats.onDeadPeer();
+        abort(connection);
+    }
+
+    private void scheduleCloseTimeout(final WebSocketTransport connection) {
+        try {
+            closeTimeout = getTimerOrDefault().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    log.warn(getClass(), "closing connection to " + uri + ": the closing handshake has not been answered");
+                    abort(connection);
+                }
+            }, webSocketConfig.getCloseTimeout(), TimeUnit.MILLISECONDS);
+        }
+        catch (RuntimeException re) {
+            // the timer has been stopped
+            log.warn(getClass(), "cannot schedule close timeout for " + uri + ": " + re);
+        }
+    }
+
+    /**
+     * Tears down the connection without a closing handshake and notifies the listener.
+     */
+    private void abort(WebSocketTransport connection) {
+        if (connection == null) {
+            return;
+        }
+
+        // closing the transport first unblocks a sender waiting for the server, so the lock can be taken
+        try {
+            connection.close();
+        }
+        catch (IOException ignored) {
+        }
+
+        lock.lock();
+        try {
+            if (connected && transport == connection) {
+                onServerClosingHandshake();
             }
-            else {
-                throw new WebSocketException("unsupported protocol: " + scheme);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void stopHeartbeat() {
+        cancelQuietly(heartbeatTimeout);
+        heartbeatTimeout = null;
+        heartbeatPing.set(NO_PING);
+    }
+
+    private void startReconnecting() {
+        ReconnectPolicy policy = webSocketConfig.getReconnectPolicy();
+        if (policy == null || reconnecting || connected || uri == null) {
+            return;
+        }
+
+        reconnecting        = true;
+        reconnectAttempts   = 0;
+        startReplayBuffering(policy);
+        scheduleReconnect(policy);
+    }
+
+    private void scheduleReconnect(ReconnectPolicy policy) {
+        long delay = policy.getDelayMillis(reconnectAttempts, random);
+
+        try {
+            // the attempt blocks, so it runs in a thread of its own instead of the timer thread
+            reconnectTimeout = getTimerOrDefault().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        newThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                reconnect();
+                            }
+                        }, DefaultWebSocketConfig.RECONNECT_THREAD_NAME).start();
+                    }
+                    catch (RuntimeException re) {
+                        lock.lock();
+                        try {
+                            if (reconnecting && !connected) {
+                                onReconnectFailed(re.toString());
+                            }
+                        }
+                        finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RuntimeException re) {
+            // the timer has been stopped
+            log.warn(getClass(), "cannot schedule reconnect to " + uri + ": " + re);
+            cancelReconnect();
+            discardReplayBuffer();
+        }
+    }
+
+    private void reconnect() {
+        lock.lock();
+        try {
+            if (!reconnecting || connected) {
+                return;
+            }
+
+            try {
+                connect(uri);
+            }
+            catch (WebSocketException wse) {
+                onReconnectFailed(wse.getMessage());
+            }
+            catch (RuntimeException re) {
+                onReconnectFailed(re.toString());
             }
         }
-        catch (SocketTimeoutException ste) {
-            throw new WebSocketException("socket timeout while connecting to " + host + ":" + port);
+        finally {
+            lock.unlock();
         }
-        catch (UnknownHostException uhe) {
-            throw new WebSocketException("unknown host: " + host);
+    }
+
+    /**
+     * Schedules the next attempt or gives up, if the policy does not allow another one. Called with the lock held.
+     */
+    private void onReconnectFailed(String reason) {
+        reconnectAttempts++;
+
+        ReconnectPolicy policy = webSocketConfig.getReconnectPolicy();
+        if (policy != null && policy.isAttemptAllowed(reconnectAttempts)) {
+            scheduleReconnect(policy);
         }
-        catch (IOException ioe) {
-            throw new WebSocketException("error while creating tcp connection to " + host + ":" + port, ioe);
+        else {
+            log.error(getClass(), "giving up to reconnect to " + uri + " after " + reconnectAttempts
+                    + " attempts: " + reason);
+            cancelReconnect();
+            discardReplayBuffer();
+        }
+    }
+
+    private void cancelReconnect() {
+        reconnecting = false;
+        cancelQuietly(reconnectTimeout);
+        reconnectTimeout = null;
+    }
+
+    /**
+     * Buffers the sends from now on until the messages have been replayed, unless the policy has no replay buffer.
+     * Called with the lock held.
+     */
+    private void startReplayBuffering(ReconnectPolicy policy) {
+        if (policy.getReplayBufferSize() > 0) {
+            replayLock.lock();
+            try {
+                replaying = true;
+            }
+            finally {
+                replayLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true if the message has been buffered, because the websocket is reconnecting
+     */
+    private boolean bufferForReplay(byte[] data, byte opCode) throws WebSocketException {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+
+        replayLock.lock();
+        try {
+            if (!replaying) {
+                return false;
+            }
+
+            ReconnectPolicy policy = webSocketConfig.getReconnectPolicy();
+            if (policy == null || replayBuffer.size() >= policy.getReplayBufferSize()) {
+                throw new WebSocketException("error while sending data: replay buffer is full while reconnecting to " + uri);
+            }
+
+            // copied, because the caller may reuse the array
+            replayBuffer.add(new BufferedMessage(data.clone(), opCode));
+            return true;
+        }
+        finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the buffered messages of a websocket that has stopped reconnecting.
+     */
+    private void discardReplayBuffer() {
+        replayLock.lock();
+        try {
+            replayBuffer.clear();
+            replaying = false;
+        }
+        finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Queues early sends for a connect, unless they are disabled or the connect is a reconnect, whose messages are
+     * buffered for replay instead.
+     */
+    private void startEarlySends() {
+        if (webSocketConfig.getEarlySendBufferSize() > 0 && !reconnecting) {
+            connecting = true;
+        }
+    }
+
+    /**
+     * @return true if the message has been queued, because the websocket is connecting
+     */
+    private boolean bufferEarly(byte[] data, byte opCode) throws WebSocketException {
+        if (data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+
+        earlyLock.lock();
+        try {
+            if (!connecting) {
+                return false;
+            }
+
+            if (earlyMessages.size() >= webSocketConfig.getEarlySendBufferSize()) {
+                throw new WebSocketException("error while sending data: early send buffer is full while connecting");
+            }
+
+            // copied, because the caller may reuse the array and the payload is masked in place
+            earlyMessages.add(new BufferedMessage(data.clone(), opCode));
+            return true;
+        }
+        finally {
+            earlyLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued early sends without flushing them. The last call ends the queueing atomically, so that
+     * later messages are sent the regular way behind them.
+     *
+     * @return the number of written messages
+     */
+    private int writeEarlyMessages(boolean last) throws IOException {
+        int count = 0;
+
+        while (true) {
+            BufferedMessage message;
+
+            earlyLock.lock();
+            try {
+                message = earlyMessages.poll();
+                if (message == null) {
+                    if (last) {
+                        connecting = false;
+                    }
+                    return count;
+                }
+            }
+            finally {
+                earlyLock.unlock();
+            }
+
+            writeFrame(message.data, message.data.length, true, message.opCode, true);
+            count++;
+        }
+    }
+
+    /**
+     * Drops the early sends of a failed connect.
+     *
+     * @return the number of dropped messages
+     */
+    private int discardEarlyMessages() {
+        earlyLock.lock();
+        try {
+            int count = earlyMessages.size();
+            earlyMessages.clear();
+            connecting = false;
+
+            if (count > 0) {
+                log.warn(getClass(), "discarded " + count + " messages sent while connecting");
+            }
+            return count;
+        }
+        finally {
+            earlyLock.unlock();
+        }
+    }
+
+    private static String getDiscardedMessage(int discarded) {
+        return discarded > 0 ? " (" + discarded + " messages sent while connecting have been discarded)" : "";
+    }
+
+    private static byte[] getUtf8Bytes(String data) throws WebSocketException {
+        try {
+            return data.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new WebSocketException("utf-8 is not supported on this platform");
+        }
+    }
+
+    /**
+     * Writes the buffered messages, including those buffered meanwhile. Emptying the buffer ends the buffering
+     * atomically, so that later messages are sent the regular way behind them. Called with the lock held.
+     */
+    private void replayBufferedMessages() {
+        while (connected) {
+            BufferedMessage message;
+
+            replayLock.lock();
+            try {
+                message = replayBuffer.peek();
+                if (message == null) {
+                    replaying = false;
+                    return;
+                }
+            }
+            finally {
+                replayLock.unlock();
+            }
+
+            try {
+                // written from a copy, because the payload is masked in place
+                write(message.data.clone(), true, message.opCode, true);
+            }
+            catch (WebSocketException wse) {
+                log.error(getClass(), "error while replaying buffered messages: " + wse.getMessage());
+                if (connected) {
+                    // the rest is kept for the next reconnect, but new messages must not pile up behind it
+                    replayLock.lock();
+                    try {
+                        replaying = false;
+                    }
+                    finally {
+                        replayLock.unlock();
+                    }
+                }
+                return;
+            }
+
+            // a lost connection keeps the message for the next attempt
+            if (connected) {
+                replayLock.lock();
+                try {
+                    replayBuffer.poll();
+                }
+                finally {
+                    replayLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a thread of the configured factory, named after its purpose instead of the receivers
+     */
+    private Thread newThread(Runnable runnable, String name) {
+        Thread thread = webSocketConfig.getThreadFactory().newThread(runnable);
+        thread.setName(name);
+        return thread;
+    }
+
+    private static void cancelQuietly(WebSocketTimeout timeout) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private OutputStream createOutputStream(URI uri, OutputStream transportOutput) {
+        if (uri.getScheme().equals("wss")) {
+            // frames are packed into full TLS records, only the last record of a frame is flushed partially
+            return new TlsRecordOutputStream(transportOutput);
+        }
+
+        return new BufferedOutputStream(transportOutput, webSocketConfig.getOutputBufferSize());
+    }
+
+    private TcpConnector createTcpConnector() {
+        HostResolver resolver = hostResolver;
+        if (resolver == null) {
+            resolver = SystemHostResolver.INSTANCE;
+        }
+
+        return new TcpConnector(webSocketConfig, resolver, tlsContext);
+    }
+
+    private WebSocketTransport createTransport(URI uri, TcpConnector tcpConnector) throws IOException, WebSocketException {
+        ByteBufferPool pool = byteBufferPool;
+        if (pool == null) {
+            pool = ByteBufferPool.getDefault();
         }
 
-        return socket;
+        switch (webSocketConfig.getReceiveMode()) {
+            case BUSY_SPIN:
+            case SPIN_THEN_PARK:
+                return new SpinningChannelTransport(webSocketConfig, tcpConnector, pool);
+            case SELECTOR:
+                EventLoopGroup group = eventLoopGroup;
+                if (group == null) {
+                    group = EventLoopGroup.getDefault();
+                }
+                return new SelectorTransport(webSocketConfig, tcpConnector, group.next(), pool);
+            case ASYNCHRONOUS:
+                if (UnixDomainSockets.isUnixDomain(uri)) {
+                    throw new WebSocketException("unix domain sockets are not supported in receive mode ASYNCHRONOUS");
+                }
+                return new AsynchronousChannelTransport(webSocketConfig, tcpConnector, asynchronousChannelGroup, pool);
+            default:
+                if (UnixDomainSockets.isUnixDomain(uri)) {
+                    return new UnixDomainSocketTransport(webSocketConfig, tcpConnector);
+                }
+                return new SocketTransport(webSocketConfig, tcpConnector);
+        }
     }
 
     private void closeTcpConnection() throws IOException {
-        if (input != null) {
-            input.close();
+        if (transport != null) {
+            transport.close();
         }
+    }
 
-        if (output != null) {
-            output.close();
+    private void closeTransportQuietly() {
+        try {
+            closeTcpConnection();
         }
+        catch (IOException ignored) {
+        }
+    }
+
+    private WebSocketHandshake.Template getHandshakeTemplate(URI handshakeUri) throws WebSocketException {
+        // the subprotocols of a websocket never change, so the uri and the extension offer identify the request
+        CompressionPolicy policy = webSocketConfig.getCompressionPolicy();
+        String extensions = policy != null ? PerMessageDeflate.getOffer(policy) : null;
 
-        if (socket != null) {
-            socket.close();
+        if (handshakeTemplate == null || !handshakeTemplate.getUri().equals(handshakeUri)
+                || !equals(handshakeTemplate.getExtensions(), extensions)) {
+            handshakeTemplate = new WebSocketHandshake.Template(handshakeUri, getAcceptingSubProtocolsAsCSV(),
+                                                                extensions);
+        }
+
+        return handshakeTemplate;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void releaseDeflate() {
+        PerMessageDeflate d = deflate;
+        if (d != null) {
+            deflate = null;
+            d.release();
         }
     }
 
@@ -464,50 +1519,60 @@ public class DefaultWebSocket implements WebSocket {
 
     private void sendOpeningHandshake(byte[] handshakeBytes) throws IOException {
         output.write(handshakeBytes);
+        // messages sent while connecting go out together with the upgrade request
+        writeEarlyMessages(false);
         output.flush();
     }
 
-    private synchronized void sendClosingHandshake(
+    private void sendClosingHandshake(
             WebSocketClosureStatusCode code, String reason) throws WebSocketException {
+        lock.lock();
         try {
-            byte[] reasonBytes = reason.getBytes("UTF-8");
-
-            byte[] oversizedPayload = ByteBuffer
-                            .allocate(4 + reasonBytes.length)   // 4 bytes (= 32 bit) for the integer holding the code
-                                                                //      + number of bytes for the reason
-                            .order(ByteOrder.BIG_ENDIAN)
-                            .putInt(code.code())
-                            .put(reasonBytes)
-                            .array();
-
-            // but real payload is 2 bytes smaller because spec says that the code is denoted by a 16 bit integer
-            // (NOT 32 bit like Java int)
-            byte[] realPayload = new byte[oversizedPayload.length - 2];
-            // so remove the leading two bytes
-            System.arraycopy(oversizedPayload, 2, realPayload, 0, realPayload.length);
-
-            // send closing handshake
-            write(realPayload, true, (byte) 0x8, true);
+            try {
+                byte[] reasonBytes = reason.getBytes("UTF-8");
+
+                byte[] oversizedPayload = ByteBuffer
+                                .allocate(4 + reasonBytes.length)   // 4 bytes (= 32 bit) for the integer holding the code
+                                                                    //      + number of bytes for the reason
+                                .order(ByteOrder.BIG_ENDIAN)
+                                .putInt(code.code())
+                                .put(reasonBytes)
+                                .array();
+
+                // but real payload is 2 bytes smaller because spec says that the code is denoted by a 16 bit integer
+                // (NOT 32 bit like Java int)
+                byte[] realPayload = new byte[oversizedPayload.length - 2];
+                // so remove the leading two bytes
+                System.arraycopy(oversizedPayload, 2, realPayload, 0, realPayload.length);
+
+                // send closing handshake
+                write(realPayload, true, (byte) 0x8, true);
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new WebSocketException("utf-8 is not supported on this platform");
+            }
         }
-        catch (UnsupportedEncodingException e) {
-            throw new WebSocketException("utf-8 is not supported on this platform");
+        finally {
+            lock.unlock();
         }
     }
 
-    private void processServerOpeningHandshake(WebSocketHandshake handshake) throws IOException, WebSocketException {
+    private void processServerOpeningHandshake(WebSocketHandshake handshake, InputStream input) throws IOException, WebSocketException {
         List<String> serverHandshakeLines = new ArrayList<String>();
-        BufferedReader bufferedIn = new BufferedReader(new InputStreamReader(input, "ISO-8859-1"));
 
         /*
          * HTTP spec says that the headers must be separated from the body by two CRLF symbols.
-         * So, we have to listen for an empty line while reading lines with the BufferedReader.
+         * So, we have to listen for an empty line while reading lines.
+         *
+         * The lines are read directly from the (buffered) input instead of a BufferedReader, because
+         * a reader would consume frames the server may have sent right after its opening handshake.
          */
 
         String s;
         boolean ready = false;
-        while( (!ready && (s = bufferedIn.readLine()) != null)) {   // the !ready must be on the left hand side of the
-                                                                    // boolean expression because readLine() is
-                                                                    // a blocking call!
+        while( (!ready && (s = readHandshakeLine(input)) != null)) {     // the !ready must be on the left hand side of the
+                                                                    // boolean expression because readHandshakeLine()
+                                                                    // is a blocking call!
             if (s.length() > 0) {
                 serverHandshakeLines.add(s);
                 log.debug(getClass(), "processServerOpeningHandshake() # " + s);
@@ -526,6 +1591,8 @@ public class DefaultWebSocket implements WebSocket {
         negotiatedSubProtocols.addAll(
                 handshake.negotiateSubProtocols(acceptingSubProtocols, getSecWebSocketProtocol(serverHandshakeLines, false))
         );
+        deflate = PerMessageDeflate.negotiate(webSocketConfig.getCompressionPolicy(),
+                getSecWebSocketExtensions(serverHandshakeLines), getCompressorPoolOrDefault());
 
         serverHandshakeLines.remove(0);
         HashMap<String, String> headers = new HashMap<String, String>();
@@ -537,6 +1604,22 @@ public class DefaultWebSocket implements WebSocket {
         handshake.verifyServerHandshakeHeaders(headers);
     }
 
+    private String readHandshakeLine(InputStream input) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int b;
+        while ((b = input.read()) != -1) {
+            if (b == '\n') {
+                return sb.toString();
+            }
+
+            if (b != '\r') {
+                sb.append((char) b);    // ISO-8859-1 maps every byte to the char with the same value
+            }
+        }
+
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
     private String getSecWebSocketAccept(List<String> handshakeLines) throws WebSocketException {
         final String secWebSocketAccept = "Sec-WebSocket-Accept";
 
@@ -568,6 +1651,24 @@ public class DefaultWebSocket implements WebSocket {
         }
     }
 
+    /**
+     * @return the value of the Sec-WebSocket-Extensions header, or null if it is missing
+     */
+    private String getSecWebSocketExtensions(List<String> handshakeLines) throws WebSocketException {
+        String line = getResponseHeaderLine(handshakeLines, "Sec-WebSocket-Extensions");
+
+        return line != null ? line.substring(line.indexOf(':') + 1).trim() : null;
+    }
+
+    private CompressorPool getCompressorPoolOrDefault() {
+        CompressorPool pool = compressorPool;
+        if (pool == null) {
+            pool = CompressorPool.getDefault();
+        }
+
+        return pool;
+    }
+
     private String getResponseHeaderLine(List<String> handshakeLines, String header) throws WebSocketException {
         if (handshakeLines == null) {
             throw new IllegalArgumentException("handshakeLines is null");
@@ -591,145 +1692,198 @@ public class DefaultWebSocket implements WebSocket {
         return random.nextInt(256);
     }*/
 
-    private byte[] maskPayload(byte[] payload, byte[] maskingKey) {
+    private byte[] maskPayload(byte[] payload, int length, byte[] maskingKey) {
         //byte[] out = new byte[payload.length];
-        for(int i = 0; i < payload.length; i++) {
+        for(int i = 0; i < length; i++) {
             payload[i] = (byte) (payload[i] ^ maskingKey[i%4]);
         }
 
         return payload;
     }
 
-    private synchronized void write(byte[] data, boolean fin, byte opCode, boolean mask) throws WebSocketException {
-        if (data == null) {
-            throw new IllegalArgumentException("data is null");
-        }
-
-        if (!connected) {
-            throw new IllegalStateException("error while sending data: not connected to a websocket server");
-        }
-
+    private void write(byte[] data, boolean fin, byte opCode, boolean mask) throws WebSocketException {
+        lock.lock();
         try {
-            int payloadSize = data.length;
+            if (data == null) {
+                throw new IllegalArgumentException("data is null");
+            }
 
-            // clone data because it will be manipulated (masking)
-            // byte is primitive, so we get a deep copy although cloning
-            //byte[] payloadBytes = data.clone();
-            byte[] payloadBytes = data;
+            if (!connected) {
+                throw new IllegalStateException("error while sending data: not connected to a websocket server");
+            }
 
-            // FIN bit
-            //log.debug(getClass(), "write() # fin -> " + fin);
-            int b;
-            if (fin) {
-                b = 0x80;
+            try {
+                PerMessageDeflate d = deflate;
+                if (d != null && fin && (opCode == 0x1 || opCode == 0x2) && d.shouldCompress(opCode, data.length)) {
+                    // a whole text or binary message worth compressing, RSV1 marks it as compressed
+                    int length = d.compress(data, opCode);
+                    writeFrame(d.getCompressed(), length, fin, (byte) (RSV1 | opCode), mask);
+                }
+                else {
+                    writeFrame(data, data.length, fin, opCode, mask);
+                }
+                output.flush();
             }
-            else {
-                b = 0;
+            catch (IOException ioe) {
+                if (ioe instanceof SocketException) {
+                    //System.out.println("### SocketException ###");
+                    onServerClosingHandshake();
+                }
+                else {
+                    throw new WebSocketException("error while sending data", ioe);
+                }
             }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
 
-            // op code
-            b = b | opCode;
-
-            // FIN bit set / rsv1/2/3 set to 0 / op code %x1 denotes a text frame
-            //output.write(0x81); // fin (1), rsv1 (1), rsv2 (1), rsv3 (1) and op code (4)
-            output.write(b);
-
-
-            /*
-                Payload length:  7 bits, 7+16 bits, or 7+64 bits
-
-                  The length of the "Payload data", in bytes: if 0-125, that is the
-                  payload length.  If 126, the following 2 bytes interpreted as a
-                  16-bit unsigned integer are the payload length.  If 127, the
-                  following 8 bytes interpreted as a 64-bit unsigned integer (the
-                  most significant bit MUST be 0) are the payload length.  Multibyte
-                  length quantities are expressed in network byte order.  Note that
-                  in all cases, the minimal number of bytes MUST be used to encode
-                  the length, for example, the length of a 124-byte-long string
-                  can't be encoded as the sequence 126, 0, 124.  The payload length
-                  is the length of the "Extension data" + the length of the
-                  "Application data".  The length of the "Extension data" may be
-                  zero, in which case the payload length is the length of the
-                  "Application data".
-             */
+    /**
+     * Encodes a frame into the output stream without flushing it.
+     * @param length the number of leading bytes of data that form the payload
+     * @param opCode the op code, possibly combined with the RSV bits
+     */
+    private void writeFrame(byte[] data, int length, boolean fin, byte opCode, boolean mask) throws IOException {
+        int payloadSize = length;
+
+        // clone data because it will be manipulated (masking)
+        // byte is primitive, so we get a deep copy although cloning
+        //byte[] payloadBytes = data.clone();
+        byte[] payloadBytes = data;
+
+        // FIN bit
+        //log.debug(getClass(), "write() # fin -> " + fin);
+        int b;
+        if (fin) {
+            b = 0x80;
+        }
+        else {
+            b = 0;
+        }
 
+        // op code
+        b = b | opCode;
 
-            //byte[] payloadBytes = data.getBytes("UTF-8");
+        // FIN bit set / rsv1/2/3 set to 0 / op code %x1 denotes a text frame
+        //output.write(0x81); // fin (1), rsv1 (1), rsv2 (1), rsv3 (1) and op code (4)
+        output.write(b);
 
 
-            int i;
-            if (payloadSize <= 125) {
-                //log.debug(getClass(), "write() # payloadSize <= 125");
-                i = payloadSize;
-                if (mask) {
-                    i = i | 128; // set mask bit to 1
-                }
-                output.write(i); // mask (1) and payload len (7)
-            }
-            else if (payloadSize <= 65535) {
-                //log.debug(getClass(), "write() # payloadSize <= 65535");
-                /*
-                    The largest 16-bit unsigned integer is 1111111111111111 in binary (sixteen 1s), which is equal
-                    to 65535 in decimal.
-                 */
+        /*
+            Payload length:  7 bits, 7+16 bits, or 7+64 bits
+
+              The length of the "Payload data", in bytes: if 0-125, that is the
+              payload length.  If 126, the following 2 bytes interpreted as a
+              16-bit unsigned integer are the payload length.  If 127, the
+              following 8 bytes interpreted as a 64-bit unsigned integer (the
+              most significant bit MUST be 0) are the payload length.  Multibyte
+              length quantities are expressed in network byte order.  Note that
+              in all cases, the minimal number of bytes MUST be used to encode
+              the length, for example, the length of a 124-byte-long string
+              can't be encoded as the sequence 126, 0, 124.  The payload length
+              is the length of the "Extension data" + the length of the
+              "Application data".  The length of the "Extension data" may be
+              zero, in which case the payload length is the length of the
+              "Application data".
+         */
 
-                i = 126;
-                if (mask) {
-                    i = i | 128; // set mask bit to 1
-                }
-                output.write(i); // mask (1) and payload len (7)
 
-                // 16-bit unsigned integer (2 bytes)
-                //payloadSizeLessEqualThan65535Buffer.clear();
-                //byte[] bit16 = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt( payloadSize ).array();
-                //byte[] bit16 = payloadSizeLessEqualThan65535Buffer.putInt( payloadSize ).array();
-                byte[] bit16 = ByteArrayUtils.intToByteArray(payloadSizeLessEqualThan65535Buffer, payloadSize);
-                output.write(bit16, 2, 2); // send the two low order bytes
-            }
-            else {
-                //log.debug(getClass(), "write() # payloadSize <= " + Integer.MAX_VALUE);
-                i = 127;
-                if (mask) {
-                    i = i | 128; // set mask bit to 1
-                }
+        //byte[] payloadBytes = data.getBytes("UTF-8");
 
-                output.write(i); // mask (1) and payload len (7)
 
-                // the actual payload size can be max. Integer.MAX_VALUE bytes because the byte array length is
-                // bounded by Integer.MAX_VALUE.
-                // but the spec says that payload sizes larger than 65535 bytes must be denoted by
-                // a 64-bit unsigned integer (the most significant bit MUST be 0), therefore we describe an 32 bit
-                // integer as a 64 bit long
-                //payloadSizeGreaterThan65535Buffer.clear();
-                //byte[] bit64 = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong((long) payloadSize).array();
-                byte[] bit64 = ByteArrayUtils.longToByteArray(payloadSizeGreaterThan65535Buffer, (long) payloadSize);
-                output.write(bit64);
+        int i;
+        if (payloadSize <= 125) {
+            //log.debug(getClass(), "write() # payloadSize <= 125");
+            i = payloadSize;
+            if (mask) {
+                i = i | 128; // set mask bit to 1
             }
-
+            output.write(i); // mask (1) and payload len (7)
+        }
+        else if (payloadSize <= 65535) {
+            //log.debug(getClass(), "write() # payloadSize <= 65535");
             /*
-             *
-             * j                   = i MOD 4
-             * transformed-octet-i = original-octet-i XOR masking-key-octet-j
-             *
+                The largest 16-bit unsigned integer is 1111111111111111 in binary (sixteen 1s), which is equal
+                to 65535 in decimal.
              */
 
+            i = 126;
             if (mask) {
-                random.nextBytes(maskingKeyArray);
-                //byte[] maskingKey = new byte[] { (byte) getRandomInt(), (byte) getRandomInt(), (byte) getRandomInt(), (byte) getRandomInt() };
-                output.write(maskingKeyArray[0]); // *
-                output.write(maskingKeyArray[1]); // * masking key (32)
-                output.write(maskingKeyArray[2]); // *
-                output.write(maskingKeyArray[3]); // *
-                payloadBytes = maskPayload(payloadBytes, maskingKeyArray);
+                i = i | 128; // set mask bit to 1
             }
+            output.write(i); // mask (1) and payload len (7)
+
+            // 16-bit unsigned integer (2 bytes)
+            //payloadSizeLessEqualThan65535Buffer.clear();
+            //byte[] bit16 = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt( payloadSize ).array();
+            //byte[] bit16 = payloadSizeLessEqualThan65535Buffer.putInt( payloadSize ).array();
+            byte[] bit16 = ByteArrayUtils.intToByteArray(payloadSizeLessEqualThan65535Buffer, payloadSize);
+            output.write(bit16, 2, 2); // send the two low order bytes
+        }
+        else {
+            //log.debug(getClass(), "write() # payloadSize <= " + Integer.MAX_VALUE);
+            i = 127;
+            if (mask) {
+                i = i | 128; // set mask bit to 1
+            }
+
+            output.write(i); // mask (1) and payload len (7)
+
+            // the actual payload size can be max. Integer.MAX_VALUE bytes because the byte array length is
+            // bounded by Integer.MAX_VALUE.
+            // but the spec says that payload sizes larger than 65535 bytes must be denoted by
+            // a 64-bit unsigned integer (the most significant bit MUST be 0), therefore we describe an 32 bit
+            // integer as a 64 bit long
+            //payloadSizeGreaterThan65535Buffer.clear();
+            //byte[] bit64 = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong((long) payloadSize).array();
+            byte[] bit64 = ByteArrayUtils.longToByteArray(payloadSizeGreaterThan65535Buffer, (long) payloadSize);
+            output.write(bit64);
+        }
+
+        /*
+         *
+         * j                   = i MOD 4
+         * transformed-octet-i = original-octet-i XOR masking-key-octet-j
+         *
+         */
 
+        if (mask) {
+            random.nextBytes(maskingKeyArray);
+            //byte[] maskingKey = new byte[] { (byte) getRandomInt(), (byte) getRandomInt(), (byte) getRandomInt(), (byte) getRandomInt() };
+            output.write(maskingKeyArray[0]); // *
+            output.write(maskingKeyArray[1]); // * masking key (32)
+            output.write(maskingKeyArray[2]); // *
+            output.write(maskingKeyArray[3]); // *
+            payloadBytes = maskPayload(payloadBytes, payloadSize, maskingKeyArray);
+        }
+
+
+        output.write(payloadBytes, 0, payloadSize);
+        stats.onFrameSent(payloadSize);
+    }
 
-            output.write(payloadBytes);
+    /**
+     * Writes a prepared message. Unlike {@link #write(byte[], boolean, byte, boolean)} it leaves the payload
+     * untouched and masks it into a buffer of this websocket.
+     */
+    private void writePrepared(PreparedMessage message) throws WebSocketException {
+        if (!connected) {
+            throw new IllegalStateException("error while sending data: not connected to a websocket server");
+        }
+
+        if (maskingBuffer == null) {
+            maskingBuffer = new byte[MASKING_BUFFER_SIZE];
+        }
+
+        try {
+            random.nextBytes(maskingKeyArray);
+            message.writeTo(output, maskingKeyArray, maskingBuffer);
             output.flush();
+            stats.onFrameSent(message.getPayloadLength());
         }
         catch (IOException ioe) {
             if (ioe instanceof SocketException) {
-                //System.out.println("### SocketException ###");
                 onServerClosingHandshake();
             }
             else {
@@ -738,21 +1892,40 @@ public class DefaultWebSocket implements WebSocket {
         }
     }
 
-    private synchronized void stream(byte[] data, boolean isFinalChunk, byte initialFrameOpCode) throws WebSocketException {
-        if (streaming) {
-            // send continuation frame
-            write(data, isFinalChunk, (byte) 0x0, true);
-            if (isFinalChunk) {
-                streaming = false;
+    private void stream(byte[] data, boolean isFinalChunk, byte initialFrameOpCode) throws WebSocketException {
+        lock.lock();
+        try {
+            if (streaming) {
+                // send continuation frame
+                write(data, isFinalChunk, (byte) 0x0, true);
+                if (isFinalChunk) {
+                    streaming = false;
+                }
             }
-        }
-        else {
-            // send initial chunk
-            write(data, isFinalChunk, initialFrameOpCode, true);
-            if (!isFinalChunk) {
-                streaming = true;
+            else {
+                // send initial chunk
+                write(data, isFinalChunk, initialFrameOpCode, true);
+                if (!isFinalChunk) {
+                    streaming = true;
+                }
             }
         }
+        finally {
+            lock.unlock();
+        }
     }
 
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static class BufferedMessage {
+        private final byte[]    data;
+        private final byte      opCode;
+
+        private BufferedMessage(byte[] data, byte opCode) {
+            this.data   = data;
+            this.opCode = opCode;
+        }
+    }
 }
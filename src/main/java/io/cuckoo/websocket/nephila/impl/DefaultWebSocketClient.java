@@ -0,0 +1,482 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.*;
+import io.cuckoo.websocket.nephila.util.ByteBufferPool;
+import io.cuckoo.websocket.nephila.util.CompressorPool;
+import io.cuckoo.websocket.nephila.util.ConsoleLogger;
+import io.cuckoo.websocket.nephila.util.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link WebSocketClient} that hands its event loops (or asynchronous channel group), buffer pool, timer,
+ * caching host resolver and TLS context to every {@link DefaultWebSocket} it creates. The event loops and the
+ * channel group are created lazily by the first websocket that needs them, the TLS context initializes its
+ * {@link javax.net.ssl.SSLContext} on the first wss connect.
+ */
+public class DefaultWebSocketClient implements WebSocketClient {
+
+    public static final int MAX_CONNECTS_IN_FLIGHT = 64;
+
+    private final WebSocketConfig                   webSocketConfig;
+    private final Logger                            log;
+    private final Set<DefaultWebSocket>             webSockets;
+    private final Set<WebSocketPool>                pools;
+    private final WebSocketStats                    removedStats;   // stats of websockets removed from this client
+    private final ByteBufferPool                    byteBufferPool;
+    private final CompressorPool                    compressorPool;
+    private final WebSocketTimer                    timer;
+    private final ConnectTimingHistograms           connectTimingHistograms;
+    private final HostResolver                      hostResolver;
+    private EventLoopGroup                          eventLoopGroup;
+    private TlsContext                              tlsContext;
+    private AsynchronousChannelGroup                asynchronousChannelGroup;
+    private boolean                                 ownsAsynchronousChannelGroup;
+    private volatile boolean                        shutdown;
+
+    public DefaultWebSocketClient() {
+        this(new DefaultWebSocketConfig());
+    }
+
+    public DefaultWebSocketClient(WebSocketConfig webSocketConfig) {
+        if (webSocketConfig == null) {
+            throw new IllegalArgumentException("webSocketConfig is null");
+        }
+
+        this.webSocketConfig    = webSocketConfig;
+        this.log                = new ConsoleLogger(webSocketConfig);
+        this.webSockets         = Collections.newSetFromMap(new ConcurrentHashMap<DefaultWebSocket, Boolean>());
+        this.pools              = Collections.newSetFromMap(new ConcurrentHashMap<WebSocketPool, Boolean>());
+        this.removedStats       = new WebSocketStats();
+        this.byteBufferPool     = new ByteBufferPool();
+        this.compressorPool     = new CompressorPool();
+        this.timer              = new HashedWheelTimer(HashedWheelTimer.TICK_MILLIS, TimeUnit.MILLISECONDS,
+                                          HashedWheelTimer.WHEEL_SIZE, log);
+        this.connectTimingHistograms = new ConnectTimingHistograms();
+        this.hostResolver       = new CachingHostResolver();
+        this.shutdown           = false;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public WebSocketConfig getWebSocketConfig() {
+        return webSocketConfig;
+    }
+
+    @Override
+    public WebSocket createWebSocket(WebSocketListener webSocketListener) throws WebSocketException {
+        return createWebSocket(webSocketListener, new String[0]);
+    }
+
+    @Override
+    public WebSocket createWebSocket(WebSocketListener webSocketListener, String[] acceptingSubProtocols)
+            throws WebSocketException {
+        if (shutdown) {
+            throw new IllegalStateException("client has been shut down");
+        }
+
+        DefaultWebSocket webSocket = new DefaultWebSocket(webSocketListener, acceptingSubProtocols, webSocketConfig);
+        webSocket.setByteBufferPool(byteBufferPool);
+        webSocket.setCompressorPool(compressorPool);
+        webSocket.setTimer(timer);
+        webSocket.setConnectTimingHistograms(connectTimingHistograms);
+        webSocket.setHostResolver(hostResolver);
+        webSocket.setTlsContext(getTlsContext());
+
+        try {
+            switch (webSocketConfig.getReceiveMode()) {
+                case SELECTOR:
+                    webSocket.setEventLoopGroup(getEventLoopGroup());
+                    break;
+                case ASYNCHRONOUS:
+                    webSocket.setAsynchronousChannelGroup(getAsynchronousChannelGroup());
+                    break;
+                default:
+                    break;
+            }
+        }
+        catch (IOException ioe) {
+            throw new WebSocketException("error while creating shared I/O threads", ioe);
+        }
+
+        webSockets.add(webSocket);
+        return webSocket;
+    }
+
+    @Override
+    public Set<WebSocket> getWebSockets() {
+        return Collections.<WebSocket>unmodifiableSet(webSockets);
+    }
+
+    @Override
+    public boolean removeWebSocket(WebSocket webSocket) {
+        if (webSockets.remove(webSocket)) {
+            removedStats.add(((DefaultWebSocket) webSocket).getStats());
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public Map<WebSocket, WebSocketException> connectAll(Map<WebSocket, URI> uris) {
+        return connectAll(uris, MAX_CONNECTS_IN_FLIGHT);
+    }
+
+    @Override
+    public Map<WebSocket, WebSocketException> connectAll(Map<WebSocket, URI> uris, int maxInFlight) {
+        // never completed exceptionally, failures are part of the result
+        return connectAllAsync(uris, maxInFlight).join();
+    }
+
+    @Override
+    public CompletableFuture<Map<WebSocket, WebSocketException>> connectAllAsync(Map<WebSocket, URI> uris, int maxInFlight) {
+        if (uris == null) {
+            throw new IllegalArgumentException("uris is null");
+        }
+
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+
+        BulkConnect bulkConnect = new BulkConnect(uris);
+        bulkConnect.start(maxInFlight);
+        return bulkConnect.result;
+    }
+
+    @Override
+    public Map<WebSocket, WebSocketException> broadcast(PreparedMessage message) {
+        if (message == null) {
+            throw new IllegalArgumentException("message is null");
+        }
+
+        Map<WebSocket, WebSocketException> failures = new HashMap<WebSocket, WebSocketException>();
+
+        for (DefaultWebSocket webSocket : webSockets) {
+            if (webSocket.isConnected()) {
+                try {
+                    webSocket.send(message);
+                }
+                catch (WebSocketException wse) {
+                    failures.put(webSocket, wse);
+                }
+                catch (IllegalStateException ise) {
+                    // closed concurrently
+                }
+            }
+        }
+
+        return failures;
+    }
+
+    @Override
+    public WebSocketPool createPool(URI uri, int size) {
+        if (shutdown) {
+            throw new IllegalStateException("client has been shut down");
+        }
+
+        WebSocketPool pool = new DefaultWebSocketPool(this, uri, size);
+        pools.add(pool);
+        return pool;
+    }
+
+    @Override
+    public void closeAll() {
+        for (DefaultWebSocket webSocket : webSockets) {
+            if (webSocket.isConnected() || webSocket.isReconnecting()) {
+                try {
+                    webSocket.close();
+                }
+                catch (WebSocketException wse) {
+                    log.warn(getClass(), "error while closing websocket: " + wse.getMessage());
+                }
+                catch (IllegalStateException ignored) {
+                    // the connection has ended concurrently
+                }
+            }
+        }
+    }
+
+    @Override
+    public void closeAllNow() {
+        for (DefaultWebSocket webSocket : webSockets) {
+            webSocket.closeNow();
+        }
+    }
+
+    @Override
+    public int getConnectedCount() {
+        int count = 0;
+
+        for (DefaultWebSocket webSocket : webSockets) {
+            if (webSocket.isConnected()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public WebSocketStats getStats() {
+        WebSocketStats stats = new WebSocketStats();
+        stats.add(removedStats);
+
+        for (DefaultWebSocket webSocket : webSockets) {
+            stats.add(webSocket.getStats());
+        }
+
+        return stats;
+    }
+
+    @Override
+    public ConnectTimingHistograms getConnectTimingHistograms() {
+        return connectTimingHistograms;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (WebSocketPool pool : pools) {
+            pool.shutdown();
+        }
+        closeAll();
+        awaitClosed(webSocketConfig.getCloseTimeout());
+        closeAllNow();
+        timer.stop();
+
+        synchronized (this) {
+            if (eventLoopGroup != null) {
+                eventLoopGroup.shutdown();
+            }
+
+            if (asynchronousChannelGroup != null && ownsAsynchronousChannelGroup) {
+                asynchronousChannelGroup.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Waits for the servers to answer the closing handshakes, the close timeouts of the websockets would be
+     * cancelled by stopping the timer.
+     */
+    private void awaitClosed(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        try {
+            while (getConnectedCount() > 0 && System.nanoTime() - deadline < 0) {
+                Thread.sleep(10);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public ByteBufferPool getByteBufferPool() {
+        return byteBufferPool;
+    }
+
+    public CompressorPool getCompressorPool() {
+        return compressorPool;
+    }
+
+    public HostResolver getHostResolver() {
+        return hostResolver;
+    }
+
+    public WebSocketTimer getTimer() {
+        return timer;
+    }
+
+    /**
+     * @return the TLS context shared by the websockets of this client, so that reconnects can resume their sessions
+     */
+    public synchronized TlsContext getTlsContext() throws WebSocketException {
+        if (tlsContext == null) {
+            tlsContext = new TlsContext();
+        }
+
+        return tlsContext;
+    }
+
+    /**
+     * Assigns the TLS context (e.g. with custom trust settings or session cache limits) to the websockets
+     * created from now on.
+     */
+    public synchronized void setTlsContext(TlsContext tlsContext) {
+        if (tlsContext == null) {
+            throw new IllegalArgumentException("tlsContext is null");
+        }
+
+        this.tlsContext = tlsContext;
+    }
+
+    public synchronized EventLoopGroup getEventLoopGroup() throws IOException {
+        if (eventLoopGroup == null) {
+            eventLoopGroup = new EventLoopGroup();
+        }
+
+        return eventLoopGroup;
+    }
+
+    public synchronized AsynchronousChannelGroup getAsynchronousChannelGroup() throws IOException {
+        if (asynchronousChannelGroup == null) {
+            asynchronousChannelGroup = AsynchronousChannelGroup.withFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        private final AtomicInteger counter = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "AsynchronousChannelGroup-" + counter.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }
+            );
+            ownsAsynchronousChannelGroup = true;
+        }
+
+        return asynchronousChannelGroup;
+    }
+
+    /**
+     * Assigns an externally managed channel group (e.g. the one of an application framework) to the websockets
+     * created from now on. The client does not shut down such a group.
+     */
+    public synchronized void setAsynchronousChannelGroup(AsynchronousChannelGroup asynchronousChannelGroup) {
+        if (asynchronousChannelGroup == null) {
+            throw new IllegalArgumentException("asynchronousChannelGroup is null");
+        }
+
+        this.asynchronousChannelGroup       = asynchronousChannelGroup;
+        this.ownsAsynchronousChannelGroup   = false;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * Connects a number of websockets concurrently: every finished connect starts the next pending one, so no
+     * thread waits for a free slot.
+     */
+    private static class BulkConnect {
+        private final List<Map.Entry<WebSocket, URI>>                           pending;
+        private final Map<WebSocket, WebSocketException>                        failures;
+        private final AtomicInteger                                             remaining;
+        private final CompletableFuture<Map<WebSocket, WebSocketException>>     result;
+        private int                                                             next;
+
+        private BulkConnect(Map<WebSocket, URI> uris) {
+            // copied, because the caller may modify the map while the connects are running
+            this.pending    = new ArrayList<Map.Entry<WebSocket, URI>>(uris.entrySet());
+            this.failures   = new ConcurrentHashMap<WebSocket, WebSocketException>();
+            this.remaining  = new AtomicInteger(pending.size());
+            this.result     = new CompletableFuture<Map<WebSocket, WebSocketException>>();
+        }
+
+        private void start(int maxInFlight) {
+            if (pending.isEmpty()) {
+                result.complete(new HashMap<WebSocket, WebSocketException>());
+                return;
+            }
+
+            for (int i = 0; i < maxInFlight; i++) {
+                connectNext();
+            }
+        }
+
+        private void connectNext() {
+            Map.Entry<WebSocket, URI> entry;
+            while ((entry = poll()) != null) {
+                final WebSocket webSocket = entry.getKey();
+
+                try {
+                    webSocket.connectAsync(entry.getValue()).whenComplete(new BiConsumer<WebSocket, Throwable>() {
+                        @Override
+                        public void accept(WebSocket connected, Throwable failure) {
+                            if (onConnected(webSocket, failure)) {
+                                connectNext();
+                            }
+                        }
+                    });
+                    return;
+                }
+                catch (RuntimeException re) {
+                    // e.g. an invalid uri, rejected before a thread is started
+                    if (!onConnected(webSocket, re)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private synchronized Map.Entry<WebSocket, URI> poll() {
+            return next < pending.size() ? pending.get(next++) : null;
+        }
+
+        /**
+         * @return true if there may be pending connects left
+         */
+        private boolean onConnected(WebSocket webSocket, Throwable failure) {
+            if (failure != null) {
+                failures.put(webSocket, failure instanceof WebSocketException
+                        ? (WebSocketException) failure
+                        : new WebSocketException("error while connecting: " + failure.getMessage(), failure));
+            }
+
+            if (remaining.decrementAndGet() == 0) {
+                result.complete(new HashMap<WebSocket, WebSocketException>(failures));
+                return false;
+            }
+
+            return true;
+        }
+    }
+}
@@ -20,9 +20,18 @@
  *
  */
 
+
 package io.cuckoo.websocket.nephila.impl;
 
+import io.cuckoo.websocket.nephila.CompressionPolicy;
+import io.cuckoo.websocket.nephila.HeartbeatPolicy;
+import io.cuckoo.websocket.nephila.ReconnectPolicy;
+import io.cuckoo.websocket.nephila.SocketProfile;
 import io.cuckoo.websocket.nephila.WebSocketConfig;
+import io.cuckoo.websocket.nephila.WebSocketReceiveMode;
+import io.cuckoo.websocket.nephila.util.ThreadFactories;
+
+import java.util.concurrent.ThreadFactory;
 
 public class DefaultWebSocketConfig implements WebSocketConfig {
 
@@ -36,8 +45,43 @@ public class DefaultWebSocketConfig implements WebSocketConfig {
 
     public static final int SOCKET_TIMEOUT      = 10000;
 
+    public static final int CLOSE_TIMEOUT       = 3000;
+
+    public static final int EARLY_SEND_BUFFER_SIZE = 0;
+
     public static final int OUTPUT_BUFFER_SIZE  = 8192;
 
+    public static final int INPUT_BUFFER_SIZE   = 8192;
+
+    public static final String SOCKET_PROFILE   = SocketProfile.LOW_LATENCY;
+
+    public static final WebSocketReceiveMode RECEIVE_MODE = WebSocketReceiveMode.BLOCKING;
+
+    public static final int SPIN_ITERATIONS     = 10000;
+
+    public static final long PARK_NANOS         = 50000L;
+
+    public static final String THREAD_NAME      = "WebSocketReceiver-Thread";
+
+    public static final String CONNECT_THREAD_NAME   = "WebSocketConnect-Thread";
+
+    public static final String RECONNECT_THREAD_NAME = "WebSocketReconnect-Thread";
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private int                     closeTimeout    = CLOSE_TIMEOUT;
+    private int                     earlySendBufferSize = EARLY_SEND_BUFFER_SIZE;
+    private SocketProfile           socketProfile   = SocketProfile.forName(SOCKET_PROFILE);
+    private ReconnectPolicy         reconnectPolicy = null;
+    private HeartbeatPolicy         heartbeatPolicy = null;
+    private CompressionPolicy       compressionPolicy = null;
+    private WebSocketReceiveMode    receiveMode     = RECEIVE_MODE;
+    private int                     spinIterations  = SPIN_ITERATIONS;
+    private long                    parkNanos       = PARK_NANOS;
+    private ThreadFactory           threadFactory   = ThreadFactories.platform(THREAD_NAME);
+
     /* ######################################################################## */
     /* ######################################################################## */
     /* ######################################################################## */
@@ -57,8 +101,158 @@ public class DefaultWebSocketConfig implements WebSocketConfig {
         return SOCKET_TIMEOUT;
     }
 
+    @Override
+    public int getCloseTimeout() {
+        return closeTimeout;
+    }
+
+    /**
+     * Sets the milliseconds to wait for the server's reply to the closing handshake before the tcp connection is
+     * closed anyway.
+     */
+    public void setCloseTimeout(int closeTimeout) {
+        if (closeTimeout <= 0) {
+            throw new IllegalArgumentException("closeTimeout must be positive");
+        }
+
+        this.closeTimeout = closeTimeout;
+    }
+
+    @Override
+    public int getEarlySendBufferSize() {
+        return earlySendBufferSize;
+    }
+
+    /**
+     * Sets the number of messages that may be sent while the websocket is connecting, 0 (the default) disables
+     * early sends. They are written right behind the upgrade request instead of one round trip later, which
+     * requires a server that buffers frames received before its 101 response.
+     */
+    public void setEarlySendBufferSize(int earlySendBufferSize) {
+        if (earlySendBufferSize < 0) {
+            throw new IllegalArgumentException("earlySendBufferSize is negative");
+        }
+
+        this.earlySendBufferSize = earlySendBufferSize;
+    }
+
     @Override
     public int getOutputBufferSize() {
         return OUTPUT_BUFFER_SIZE;
     }
+
+    @Override
+    public int getInputBufferSize() {
+        return INPUT_BUFFER_SIZE;
+    }
+
+    @Override
+    public SocketProfile getSocketProfile() {
+        return socketProfile;
+    }
+
+    /**
+     * Sets the options applied to the tcp sockets, e.g. {@link SocketProfile#throughput()} for bulk transfers.
+     */
+    public void setSocketProfile(SocketProfile socketProfile) {
+        if (socketProfile == null) {
+            throw new IllegalArgumentException("socketProfile is null");
+        }
+
+        this.socketProfile = socketProfile;
+    }
+
+    @Override
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    /**
+     * Enables the automatic reconnect of lost connections, null (the default) disables it.
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    @Override
+    public HeartbeatPolicy getHeartbeatPolicy() {
+        return heartbeatPolicy;
+    }
+
+    /**
+     * Enables the heartbeat of connected websockets, null (the default) disables it.
+     */
+    public void setHeartbeatPolicy(HeartbeatPolicy heartbeatPolicy) {
+        this.heartbeatPolicy = heartbeatPolicy;
+    }
+
+    @Override
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Enables the permessage-deflate extension, null (the default) disables it.
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    @Override
+    public WebSocketReceiveMode getReceiveMode() {
+        return receiveMode;
+    }
+
+    public void setReceiveMode(WebSocketReceiveMode receiveMode) {
+        if (receiveMode == null) {
+            throw new IllegalArgumentException("receiveMode is null");
+        }
+
+        this.receiveMode = receiveMode;
+    }
+
+    @Override
+    public int getSpinIterations() {
+        return spinIterations;
+    }
+
+    public void setSpinIterations(int spinIterations) {
+        if (spinIterations < 0) {
+            throw new IllegalArgumentException("spinIterations is negative");
+        }
+
+        this.spinIterations = spinIterations;
+    }
+
+    @Override
+    public long getParkNanos() {
+        return parkNanos;
+    }
+
+    public void setParkNanos(long parkNanos) {
+        if (parkNanos <= 0) {
+            throw new IllegalArgumentException("parkNanos must be positive");
+        }
+
+        this.parkNanos = parkNanos;
+    }
+
+    @Override
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * Sets the factory creating the threads of the websockets, e.g. {@link ThreadFactories#virtual(String)} in
+     * order to run the receive loops on virtual threads. Besides the receivers it creates the threads of
+     * asynchronous connects and reconnects, which are renamed after their purpose ({@link #CONNECT_THREAD_NAME},
+     * {@link #RECONNECT_THREAD_NAME}).
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("threadFactory is null");
+        }
+
+        this.threadFactory = threadFactory;
+    }
 }
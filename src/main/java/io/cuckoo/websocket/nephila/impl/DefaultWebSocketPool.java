@@ -0,0 +1,363 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocket;
+import io.cuckoo.websocket.nephila.WebSocketClient;
+import io.cuckoo.websocket.nephila.WebSocketException;
+import io.cuckoo.websocket.nephila.WebSocketListener;
+import io.cuckoo.websocket.nephila.WebSocketPool;
+import io.cuckoo.websocket.nephila.util.ConsoleLogger;
+import io.cuckoo.websocket.nephila.util.Logger;
+
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link WebSocketPool} whose websockets are created by a {@link WebSocketClient}, so that they share its I/O
+ * threads, buffers and caches. A single daemon thread connects replacements one by one and pings the idle
+ * websockets every {@link #PING_INTERVAL_MILLIS}; an idle websocket that has not answered the previous ping
+ * by then is closed and replaced.
+ */
+public class DefaultWebSocketPool implements WebSocketPool {
+
+    public static final long PING_INTERVAL_MILLIS   = 30000;
+
+    public static final long RETRY_DELAY_MILLIS     = 1000;
+
+    private final WebSocketClient                   client;
+    private final URI                               uri;
+    private final String[]                          acceptingSubProtocols;
+    private final int                               size;
+    private final long                              pingIntervalNanos;
+    private final Logger                            log;
+    private final BlockingQueue<IdleWebSocket>      idle;
+    private final ReentrantLock                     lock;
+    private final Condition                         replenish;
+    private final Thread                            maintainer;
+    private volatile boolean                        shutdown;
+
+    public DefaultWebSocketPool(WebSocketClient client, URI uri, int size) {
+        this(client, uri, new String[0], size, PING_INTERVAL_MILLIS);
+    }
+
+    public DefaultWebSocketPool(WebSocketClient client, URI uri, String[] acceptingSubProtocols, int size,
+                                long pingIntervalMillis) {
+        if (client == null) {
+            throw new IllegalArgumentException("client is null");
+        }
+
+        if (uri == null) {
+            throw new IllegalArgumentException("uri is null");
+        }
+
+        if (acceptingSubProtocols == null) {
+            throw new IllegalArgumentException("acceptingSubProtocols is null");
+        }
+
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+
+        if (pingIntervalMillis <= 0) {
+            throw new IllegalArgumentException("pingIntervalMillis must be positive");
+        }
+
+        this.client                 = client;
+        this.uri                    = uri;
+        this.acceptingSubProtocols  = acceptingSubProtocols;
+        this.size                   = size;
+        this.pingIntervalNanos      = TimeUnit.MILLISECONDS.toNanos(pingIntervalMillis);
+        this.log                    = new ConsoleLogger(client.getWebSocketConfig());
+        this.idle                   = new LinkedBlockingQueue<IdleWebSocket>();
+        this.lock                   = new ReentrantLock();
+        this.replenish              = lock.newCondition();
+        this.shutdown               = false;
+
+        this.maintainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                maintain();
+            }
+        }, DefaultWebSocketPool.class.getSimpleName() + "-Thread");
+        this.maintainer.setDaemon(true);
+        this.maintainer.start();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public WebSocket acquire(WebSocketListener webSocketListener) throws WebSocketException {
+        if (shutdown) {
+            throw new IllegalStateException("pool has been shut down");
+        }
+
+        IdleWebSocket candidate;
+        while ((candidate = idle.poll()) != null) {
+            if (candidate.webSocket.isConnected()) {
+                signalReplenish();
+                candidate.webSocket.setWebSocketListener(webSocketListener);
+                if (webSocketListener != null) {
+                    webSocketListener.onConnect();
+                }
+                return candidate.webSocket;
+            }
+
+            // lost while idle
+            client.removeWebSocket(candidate.webSocket);
+        }
+
+        signalReplenish();
+
+        WebSocket webSocket = client.createWebSocket(webSocketListener, acceptingSubProtocols);
+        webSocket.connect(uri);
+        return webSocket;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        maintainer.interrupt();
+
+        IdleWebSocket candidate;
+        while ((candidate = idle.poll()) != null) {
+            discard(candidate);
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void maintain() {
+        long nextPing = System.nanoTime() + pingIntervalNanos;
+
+        while (!shutdown) {
+            try {
+                if (idle.size() < size) {
+                    connectIdle();
+                }
+                else {
+                    awaitReplenish(nextPing - System.nanoTime());
+                }
+
+                if (System.nanoTime() - nextPing >= 0) {
+                    pingIdle();
+                    nextPing = System.nanoTime() + pingIntervalNanos;
+                }
+            }
+            catch (InterruptedException ie) {
+                // shut down
+            }
+        }
+
+        // a websocket connected concurrently to shutdown() must not be left behind
+        IdleWebSocket candidate;
+        while ((candidate = idle.poll()) != null) {
+            discard(candidate);
+        }
+    }
+
+    private void connectIdle() throws InterruptedException {
+        IdleWebSocket candidate = new IdleWebSocket();
+
+        try {
+            candidate.webSocket = client.createWebSocket(candidate, acceptingSubProtocols);
+            candidate.webSocket.connect(uri);
+            idle.add(candidate);
+        }
+        catch (WebSocketException wse) {
+            log.warn(getClass(), "error while connecting pooled websocket to " + uri + ": " + wse.getMessage());
+            if (candidate.webSocket != null) {
+                client.removeWebSocket(candidate.webSocket);
+            }
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        }
+        catch (IllegalStateException ise) {
+            // the client has been shut down
+            shutdown = true;
+        }
+    }
+
+    private void pingIdle() {
+        // a snapshot, because the candidates are put back at the tail
+        for (IdleWebSocket candidate : idle.toArray(new IdleWebSocket[0])) {
+            // claimed first, so that acquire() cannot hand out a websocket that is being pinged or discarded
+            if (!idle.remove(candidate)) {
+                continue;
+            }
+
+            if (candidate.awaitingPong) {
+                log.warn(getClass(), "discarding pooled websocket that has not answered a ping: " + uri);
+                discard(candidate);
+                continue;
+            }
+
+            try {
+                candidate.awaitingPong = true;
+                candidate.webSocket.ping();
+            }
+            catch (WebSocketException wse) {
+                discard(candidate);
+                continue;
+            }
+            catch (IllegalStateException ise) {
+                // closed concurrently
+                discard(candidate);
+                continue;
+            }
+
+            idle.add(candidate);
+
+            // onClose() has not found it in the pool while it was claimed
+            if (candidate.closed && idle.remove(candidate)) {
+                discard(candidate);
+                signalReplenish();
+            }
+        }
+    }
+
+    private void awaitReplenish(long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            if (nanos > 0 && idle.size() >= size && !shutdown) {
+                replenish.awaitNanos(nanos);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalReplenish() {
+        lock.lock();
+        try {
+            replenish.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void discard(IdleWebSocket candidate) {
+        WebSocket webSocket = candidate.webSocket;
+
+        try {
+            // closing a reconnecting websocket stops the reconnect
+            if (webSocket.isConnected()
+                    || (webSocket instanceof DefaultWebSocket && ((DefaultWebSocket) webSocket).isReconnecting())) {
+                webSocket.close();
+            }
+        }
+        catch (WebSocketException ignored) {
+        }
+        catch (IllegalStateException ignored) {
+        }
+
+        client.removeWebSocket(webSocket);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * The listener of a websocket while it is idle in the pool.
+     */
+    private class IdleWebSocket implements WebSocketListener {
+        private volatile WebSocket  webSocket;
+        private volatile boolean    awaitingPong;
+        private volatile boolean    closed;
+
+        @Override
+        public void onConnect() {
+        }
+
+        @Override
+        public void onClose() {
+            closed = true;
+
+            // removed from the pool right away, a reconnect policy must not keep it alive in the background
+            if (idle.remove(this)) {
+                discard(this);
+                signalReplenish();
+            }
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onMessage(byte[] message) {
+        }
+
+        @Override
+        public void onMessageChunk(String messageChunk, boolean isFinalChunk) {
+        }
+
+        @Override
+        public void onMessageChunk(byte[] messageChunk, boolean isFinalChunk) {
+        }
+
+        @Override
+        public void onPing() {
+        }
+
+        @Override
+        public void onPing(byte[] data) {
+        }
+
+        @Override
+        public void onPong() {
+            awaitingPong = false;
+        }
+
+        @Override
+        public void onPong(byte[] data) {
+            awaitingPong = false;
+        }
+    }
+}
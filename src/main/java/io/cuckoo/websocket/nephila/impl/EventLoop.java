@@ -0,0 +1,214 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single selector thread that hosts many {@link SelectorTransport}s. All connections of an event loop
+ * share one direct read buffer, so an idle connection costs no more than its selection key and the
+ * state of its frame decoder.
+ *
+ * The loop thread only reads and decodes. Listener callbacks and everything that takes the lock of a
+ * websocket (e.g. the automatic pong) run on a {@link #newDispatcher() dispatcher} of the connection, as a
+ * single application thread blocked in a send would otherwise stall every connection of the loop.
+ */
+public class EventLoop implements Runnable {
+
+    private final Selector          selector;
+    private final Thread            thread;
+    private final Queue<Runnable>   tasks;
+    private final ByteBuffer        readBuffer;
+    private final Executor          dispatchExecutor;
+    private final AtomicInteger     registered;
+    private final Logger            log;
+    private volatile boolean        shutdown;
+
+    /**
+     * @param dispatchExecutor runs the callbacks of the connections, one task per connection at a time
+     */
+    public EventLoop(String name, int readBufferSize, Executor dispatchExecutor, Logger log) throws IOException {
+        if (dispatchExecutor == null) {
+            throw new IllegalArgumentException("dispatchExecutor is null");
+        }
+
+        this.selector           = Selector.open();
+        this.tasks              = new ConcurrentLinkedQueue<Runnable>();
+        this.readBuffer         = ByteBuffer.allocateDirect(readBufferSize);
+        this.dispatchExecutor   = dispatchExecutor;
+        this.registered         = new AtomicInteger();
+        this.log                = log;
+        this.shutdown           = false;
+        this.thread             = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public void start() {
+        thread.start();
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    public void wakeup() {
+        selector.wakeup();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task is null");
+        }
+
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    public void register(final SelectorTransport transport) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SelectionKey key = transport.getChannel().register(selector, SelectionKey.OP_READ, transport);
+                    registered.incrementAndGet();
+                    transport.onRegistered(key);
+                }
+                catch (IOException ioe) {
+                    transport.onFailure(ioe);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by a transport whose key has been cancelled, exactly once per registration.
+     */
+    void onDeregistered() {
+        registered.decrementAndGet();
+    }
+
+    /**
+     * @return the number of connections registered with this loop; the key set of the selector must not be read
+     * by other threads
+     */
+    public int getRegisteredCount() {
+        return registered.get();
+    }
+
+    /**
+     * @return a dispatcher for the callbacks of a new connection
+     */
+    public SerialExecutor newDispatcher() {
+        return new SerialExecutor(dispatchExecutor);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!shutdown) {
+                selector.select();
+                runTasks();
+                processSelectedKeys();
+            }
+        }
+        catch (IOException ioe) {
+            log.error(getClass(), "event loop terminated: " + ioe.getMessage());
+        }
+        catch (ClosedSelectorException ignored) {
+        }
+        finally {
+            closeSelector();
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            }
+            catch (RuntimeException re) {
+                log.error(getClass(), "error while running event loop task: " + re);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        SelectionKey key;
+        while (it.hasNext()) {
+            key = it.next();
+            it.remove();
+
+            SelectorTransport transport = (SelectorTransport) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    transport.onReadable(readBuffer);
+                }
+            }
+            catch (RuntimeException re) {
+                // e.g. a listener callback has thrown an exception, which must not kill the event loop
+                transport.onFailure(re);
+            }
+        }
+    }
+
+    private void closeSelector() {
+        for (SelectionKey key : selector.keys()) {
+            ((SelectorTransport) key.attachment()).onFailure(new IOException("event loop has been shut down"));
+        }
+
+        try {
+            selector.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.util.ConsoleLogger;
+import io.cuckoo.websocket.nephila.util.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed group of {@link EventLoop}s. New connections are assigned to the event loops round robin. The
+ * callbacks of all connections run on a pool of dispatcher threads owned by the group, which grows only while
+ * listeners block and shrinks again once they are idle.
+ */
+public class EventLoopGroup {
+
+    public static final int READ_BUFFER_SIZE = 65536;
+
+    public static final long DISPATCHER_KEEP_ALIVE_MILLIS = 60000;
+
+    public static final String DISPATCHER_THREAD_NAME = "WebSocketDispatcher-Thread";
+
+    private static EventLoopGroup defaultGroup;
+
+    private final EventLoop[]       eventLoops;
+    private final ExecutorService   dispatchExecutor;
+    private final AtomicInteger     next;
+
+    /**
+     * Creates a group with one event loop per available processor.
+     */
+    public EventLoopGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EventLoopGroup(int threads) throws IOException {
+        this(threads, READ_BUFFER_SIZE, new ConsoleLogger(new DefaultWebSocketConfig()));
+    }
+
+    public EventLoopGroup(int threads, int readBufferSize, Logger log) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+
+        if (readBufferSize <= 0) {
+            throw new IllegalArgumentException("readBufferSize must be positive");
+        }
+
+        eventLoops  = new EventLoop[threads];
+        next        = new AtomicInteger();
+
+        dispatchExecutor = newDispatchExecutor();
+
+        for (int i = 0; i < threads; i++) {
+            eventLoops[i] = new EventLoop(EventLoop.class.getSimpleName() + "-" + i, readBufferSize, dispatchExecutor, log);
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+    }
+
+    /**
+     * @return the lazily created group that is shared by all websockets without an explicitly assigned group
+     */
+    public static synchronized EventLoopGroup getDefault() throws IOException {
+        if (defaultGroup == null) {
+            defaultGroup = new EventLoopGroup();
+        }
+
+        return defaultGroup;
+    }
+
+    /**
+     * @return a pool of daemon dispatcher threads, which grows only while callbacks block and shrinks again once
+     * they are idle
+     */
+    static ExecutorService newDispatchExecutor() {
+        // a direct hand-off, so that a callback never waits behind a blocked one of another connection
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, DISPATCHER_KEEP_ALIVE_MILLIS,
+                TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, DISPATCHER_THREAD_NAME);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public EventLoop next() {
+        return eventLoops[(next.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+    }
+
+    public int getEventLoopCount() {
+        return eventLoops.length;
+    }
+
+    public int getRegisteredCount() {
+        int count = 0;
+        for (EventLoop eventLoop : eventLoops) {
+            count += eventLoop.getRegisteredCount();
+        }
+
+        return count;
+    }
+
+    public void shutdown() {
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+
+        // the callbacks already dispatched are still delivered
+        dispatchExecutor.shutdown();
+    }
+}
@@ -0,0 +1,375 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.util.ConsoleLogger;
+import io.cuckoo.websocket.nephila.util.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A {@link WebSocketTimer} for many connections: the timeouts are hashed into the buckets of a wheel that a
+ * single thread advances tick by tick. Scheduling and cancelling are O(1) and only push the timeout onto a
+ * lock-free list for the timer thread, which moves it into or out of its bucket on the next tick, so rescheduling
+ * a deadline (e.g. a heartbeat) costs little more than allocating the timeout. In exchange a task runs up to one
+ * tick late.
+ */
+public class HashedWheelTimer implements WebSocketTimer {
+
+    public static final long TICK_MILLIS    = 10;
+
+    public static final int WHEEL_SIZE      = 512;
+
+    private static final AtomicReferenceFieldUpdater<HashedWheelTimer, WheelTimeout> SCHEDULED =
+            AtomicReferenceFieldUpdater.newUpdater(HashedWheelTimer.class, WheelTimeout.class, "scheduled");
+
+    private static final AtomicReferenceFieldUpdater<HashedWheelTimer, WheelTimeout> CANCELLED =
+            AtomicReferenceFieldUpdater.newUpdater(HashedWheelTimer.class, WheelTimeout.class, "cancelled");
+
+    private static HashedWheelTimer defaultTimer;
+
+    private final long                          tickNanos;
+    private final Bucket[]                      wheel;
+    private final int                           mask;
+    private volatile WheelTimeout               scheduled;  // head of the timeouts to be put into a bucket
+    private volatile WheelTimeout               cancelled;  // head of the timeouts to be removed from their bucket
+    private final long                          startNanos;
+    private final Thread                        worker;
+    private final Logger                        log;
+    private volatile boolean                    stopped;
+    private long                                tick;       // only accessed by the worker thread
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public HashedWheelTimer() {
+        this(TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE, new ConsoleLogger(new DefaultWebSocketConfig()));
+    }
+
+    /**
+     * @param tickDuration the resolution of the timer
+     * @param wheelSize    the number of buckets, rounded up to a power of two; a wheel covering the usual
+     *                     deadlines in a single round keeps the buckets short
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize, Logger log) {
+        if (unit == null) {
+            throw new IllegalArgumentException("unit is null");
+        }
+
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive");
+        }
+
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("wheelSize must be between 1 and 2^30");
+        }
+
+        if (log == null) {
+            throw new IllegalArgumentException("log is null");
+        }
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
+        this.tickNanos  = unit.toNanos(tickDuration);
+        this.wheel      = new Bucket[size];
+        this.mask       = size - 1;
+        this.startNanos = System.nanoTime();
+        this.log        = log;
+
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        }, HashedWheelTimer.class.getSimpleName() + "-Thread");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * @return the lazily created timer that is shared by all websockets without an explicitly assigned timer
+     */
+    public static synchronized HashedWheelTimer getDefault() {
+        if (defaultTimer == null) {
+            defaultTimer = new HashedWheelTimer();
+        }
+
+        return defaultTimer;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public WebSocketTimeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("task is null");
+        }
+
+        if (unit == null) {
+            throw new IllegalArgumentException("unit is null");
+        }
+
+        if (stopped) {
+            throw new IllegalStateException("timer has been stopped");
+        }
+
+        WheelTimeout timeout = new WheelTimeout(this, task, System.nanoTime() - startNanos + unit.toNanos(Math.max(delay, 0)));
+
+        // the timeouts are their own list nodes, so scheduling allocates nothing else
+        WheelTimeout head;
+        do {
+            head = scheduled;
+            timeout.nextScheduled = head;
+        } while (!SCHEDULED.compareAndSet(this, head, timeout));
+
+        return timeout;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void runWorker() {
+        while (!stopped) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                break;
+            }
+
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+
+        scheduled = null;
+        cancelled = null;
+    }
+
+    /**
+     * @return the time of the current tick relative to the start of the timer, or -1 if the timer has been stopped
+     */
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+
+        while (true) {
+            long current = System.nanoTime() - startNanos;
+            long sleepMillis = (deadline - current + 999999) / 1000000;
+            if (sleepMillis <= 0) {
+                return current;
+            }
+
+            try {
+                Thread.sleep(sleepMillis);
+            }
+            catch (InterruptedException ie) {
+                if (stopped) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        WheelTimeout timeout = SCHEDULED.getAndSet(this, null);
+        while (timeout != null) {
+            WheelTimeout next = timeout.nextScheduled;
+            timeout.nextScheduled = null;
+
+            // a timeout cancelled before it has been put into a bucket is just dropped
+            if (WheelTimeout.STATE.compareAndSet(timeout, WheelTimeout.SCHEDULED, WheelTimeout.PENDING)) {
+                long expirationTick = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+
+                // a deadline that has already passed goes into the current bucket
+                wheel[(int) (Math.max(expirationTick, tick) & mask)].add(timeout);
+            }
+
+            timeout = next;
+        }
+    }
+
+    private void removeCancelled() {
+        WheelTimeout timeout = CANCELLED.getAndSet(this, null);
+        while (timeout != null) {
+            WheelTimeout next = timeout.nextCancelled;
+            timeout.nextCancelled = null;
+
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+
+            timeout = next;
+        }
+    }
+
+    private void pushCancelled(WheelTimeout timeout) {
+        WheelTimeout head;
+        do {
+            head = cancelled;
+            timeout.nextCancelled = head;
+        } while (!CANCELLED.compareAndSet(this, head, timeout));
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * A doubly linked list of timeouts, only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        private void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            }
+            else {
+                tail.next       = timeout;
+                timeout.prev    = tail;
+                tail            = timeout;
+            }
+        }
+
+        private void remove(WheelTimeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            }
+            else {
+                head = timeout.next;
+            }
+
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            else {
+                tail = timeout.prev;
+            }
+
+            timeout.prev    = null;
+            timeout.next    = null;
+            timeout.bucket  = null;
+        }
+
+        private void expire(long deadline) {
+            WheelTimeout timeout = head;
+            while (timeout != null) {
+                WheelTimeout next = timeout.next;
+
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    timeout.expire();
+                }
+                else {
+                    timeout.remainingRounds--;
+                }
+
+                timeout = next;
+            }
+        }
+    }
+
+    private static final class WheelTimeout implements WebSocketTimeout {
+        private static final int SCHEDULED  = 0;    // not yet in a bucket
+        private static final int PENDING    = 1;
+        private static final int CANCELLED  = 2;
+        private static final int EXPIRED    = 3;
+
+        // an updater instead of an AtomicInteger per timeout, there may be one per connection and deadline
+        private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(WheelTimeout.class, "state");
+
+        private final HashedWheelTimer  timer;
+        private final Runnable          task;
+        private final long              deadline;   // relative to the start of the timer
+        private volatile int            state;
+        private long                    remainingRounds;
+        private Bucket                  bucket;
+        private WheelTimeout            prev;
+        private WheelTimeout            next;
+        private WheelTimeout            nextScheduled;
+        private WheelTimeout            nextCancelled;
+
+        private WheelTimeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer      = timer;
+            this.task       = task;
+            this.deadline   = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, SCHEDULED, CANCELLED)) {
+                return true;
+            }
+
+            if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                // removed from its bucket by the worker thread
+                timer.pushCancelled(this);
+                return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+
+            try {
+                task.run();
+            }
+            catch (Throwable t) {
+                // must not kill the worker thread, the other timeouts would never expire
+                timer.log.error(HashedWheelTimer.class, "error while running timer task: " + t);
+            }
+        }
+    }
+}
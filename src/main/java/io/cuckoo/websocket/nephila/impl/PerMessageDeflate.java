@@ -0,0 +1,587 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.CompressionPolicy;
+import io.cuckoo.websocket.nephila.WebSocketException;
+import io.cuckoo.websocket.nephila.util.CompressorPool;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The permessage-deflate extension (RFC 7692), or the custom x-deflate-dictionary extension, as negotiated for one
+ * connection. The latter is permessage-deflate without context takeover in both directions, whose deflater and
+ * inflater are primed with a preset dictionary for every message; it is identified by its Adler-32 checksum, which
+ * the server has to confirm.
+ *
+ * Messages are compressed with {@link Deflater#SYNC_FLUSH} and the trailing empty block is stripped, the receiving
+ * side appends it again. Without context takeover the deflater and inflater are only borrowed from the
+ * {@link CompressorPool} for a single message, so idle connections hold no zlib state.
+ *
+ * Whether a message is worth compressing is decided by {@link #shouldCompress(byte, int)}, from its size and the
+ * ratio recently achieved for its type. Sending a message uncompressed is allowed by the RFC at any time.
+ */
+public class PerMessageDeflate {
+
+    public static final String EXTENSION_NAME   = "permessage-deflate";
+
+    public static final String DICTIONARY_EXTENSION_NAME = "x-deflate-dictionary";
+
+    private static final byte[] TAIL            = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+
+    private static final int BUFFER_SIZE        = 1024;
+
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_ARRAY_SIZE     = Integer.MAX_VALUE - 8;
+
+    private static final double RATIO_WEIGHT    = 0.25;    // of a new sample in the moving average
+
+    private final String            extensionName;
+    private final CompressorPool    pool;
+    private final int               level;
+    private final boolean           compressing;
+    private final boolean           clientNoContextTakeover;
+    private final boolean           serverNoContextTakeover;
+    private final int               minCompressionSize;
+    private final double            maxCompressionRatio;
+    private final int               probeInterval;
+    private final int               maxMessageSize;
+    private final RatioSampler      textSampler;
+    private final RatioSampler      binarySampler;
+    private final byte[]            dictionary;     // null for plain permessage-deflate
+    private final ReentrantLock     inflateLock;    // the connection may be closed by another thread while the
+                                                    // receiver is still decompressing
+    private Deflater                deflater;       // only kept between messages with context takeover
+    private Inflater                inflater;       // ditto
+    private byte[]                  compressed;
+    private byte[]                  decompressed;
+    private long                    inflatedSize;   // of the frames received so far of the current message
+    private boolean                 released;
+
+    private PerMessageDeflate(CompressorPool pool, CompressionPolicy policy, boolean compressing,
+                              boolean clientNoContextTakeover, boolean serverNoContextTakeover, byte[] dictionary) {
+        this.extensionName              = dictionary != null ? DICTIONARY_EXTENSION_NAME : EXTENSION_NAME;
+        this.pool                       = pool;
+        this.level                      = policy.getLevel();
+        this.compressing                = compressing;
+        this.clientNoContextTakeover    = clientNoContextTakeover;
+        this.serverNoContextTakeover    = serverNoContextTakeover;
+        this.minCompressionSize         = policy.getMinCompressionSize();
+        this.maxCompressionRatio        = policy.getMaxCompressionRatio();
+        this.probeInterval              = policy.getProbeInterval();
+        this.maxMessageSize             = policy.getMaxMessageSize();
+        this.textSampler                = new RatioSampler();
+        this.binarySampler              = new RatioSampler();
+        this.dictionary                 = dictionary;
+        this.inflateLock                = new ReentrantLock();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @return the value of the Sec-WebSocket-Extensions request header that offers the extension as configured,
+     * x-deflate-dictionary first if the policy has a dictionary
+     */
+    public static String getOffer(CompressionPolicy policy) {
+        StringBuilder sb = new StringBuilder();
+        if (policy.getDictionary() != null) {
+            sb.append(DICTIONARY_EXTENSION_NAME)
+              .append("; dictionary_id=").append(getDictionaryId(policy.getDictionary()))
+              .append(", ");
+        }
+
+        sb.append(EXTENSION_NAME).append("; client_max_window_bits");
+
+        if (policy.getServerMaxWindowBits() < CompressionPolicy.MAX_WINDOW_BITS) {
+            sb.append("; server_max_window_bits=").append(policy.getServerMaxWindowBits());
+        }
+        if (policy.isClientNoContextTakeover()) {
+            sb.append("; client_no_context_takeover");
+        }
+        if (policy.isServerNoContextTakeover()) {
+            sb.append("; server_no_context_takeover");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @param policy the policy the offer has been made for, or null if no extension has been offered
+     * @param extensions the value of the Sec-WebSocket-Extensions response header, or null if it is missing
+     * @return the negotiated extension, or null if the server has declined the offer
+     * @throws WebSocketException if the server has accepted something that has not been offered
+     */
+    public static PerMessageDeflate negotiate(CompressionPolicy policy, String extensions, CompressorPool pool)
+            throws WebSocketException {
+        if (extensions == null || extensions.trim().length() == 0) {
+            return null;
+        }
+
+        if (policy == null || extensions.indexOf(',') >= 0) {
+            throw new WebSocketException("server has accepted extensions the client has not offered: " + extensions);
+        }
+
+        String[] params = extensions.split(";");
+        if (params[0].trim().equalsIgnoreCase(DICTIONARY_EXTENSION_NAME) && policy.getDictionary() != null) {
+            return negotiateDictionary(policy, params, extensions, pool);
+        }
+        if (!params[0].trim().equalsIgnoreCase(EXTENSION_NAME)) {
+            throw new WebSocketException("server has accepted an extension the client has not offered: " + extensions);
+        }
+
+        boolean clientNoContextTakeover = policy.isClientNoContextTakeover();
+        boolean serverNoContextTakeover = false;
+        int clientMaxWindowBits         = CompressionPolicy.MAX_WINDOW_BITS;
+        boolean[] seen                  = new boolean[4];
+
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            String value = null;
+
+            int eq = param.indexOf('=');
+            if (eq >= 0) {
+                value = unquote(param.substring(eq + 1).trim());
+                param = param.substring(0, eq).trim();
+            }
+
+            int index;
+            if (param.equalsIgnoreCase("client_no_context_takeover") && value == null) {
+                index = 0;
+                clientNoContextTakeover = true;
+            }
+            else if (param.equalsIgnoreCase("server_no_context_takeover") && value == null) {
+                index = 1;
+                serverNoContextTakeover = true;
+            }
+            else if (param.equalsIgnoreCase("client_max_window_bits")) {
+                index = 2;
+                clientMaxWindowBits = parseWindowBits(value, extensions);
+            }
+            else if (param.equalsIgnoreCase("server_max_window_bits")) {
+                index = 3;
+                if (parseWindowBits(value, extensions) > policy.getServerMaxWindowBits()) {
+                    throw new WebSocketException("server has accepted a larger window than offered: " + extensions);
+                }
+            }
+            else {
+                throw new WebSocketException("invalid permessage-deflate parameter: " + extensions);
+            }
+
+            if (seen[index]) {
+                throw new WebSocketException("duplicate permessage-deflate parameter: " + extensions);
+            }
+            seen[index] = true;
+        }
+
+        // java.util.zip always deflates with a 32 KB window, a smaller one can only be honoured by not compressing
+        boolean compressing = clientMaxWindowBits == CompressionPolicy.MAX_WINDOW_BITS;
+
+        return new PerMessageDeflate(pool, policy, compressing, clientNoContextTakeover, serverNoContextTakeover,
+                                     null);
+    }
+
+    private static PerMessageDeflate negotiateDictionary(CompressionPolicy policy, String[] params, String extensions,
+                                                         CompressorPool pool) throws WebSocketException {
+        String dictionaryId = null;
+
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            int eq = param.indexOf('=');
+            if (eq < 0 || !param.substring(0, eq).trim().equalsIgnoreCase("dictionary_id") || dictionaryId != null) {
+                throw new WebSocketException("invalid x-deflate-dictionary parameters: " + extensions);
+            }
+            dictionaryId = unquote(param.substring(eq + 1).trim());
+        }
+
+        // compressing with a different dictionary would produce garbage on either side
+        if (!getDictionaryId(policy.getDictionary()).equalsIgnoreCase(dictionaryId)) {
+            throw new WebSocketException("server has accepted a different dictionary than offered: " + extensions);
+        }
+
+        return new PerMessageDeflate(pool, policy, true, true, true, policy.getDictionary());
+    }
+
+    private static String unquote(String value) {
+        if (value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+            return value.substring(1, value.length() - 1);
+        }
+
+        return value;
+    }
+
+    /**
+     * @return the Adler-32 checksum of the dictionary as 8 hex digits, as zlib identifies preset dictionaries
+     */
+    public static String getDictionaryId(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+
+        String id = Long.toHexString(adler32.getValue());
+        return "00000000".substring(id.length()) + id;
+    }
+
+    private static int parseWindowBits(String value, String extensions) throws WebSocketException {
+        try {
+            int bits = Integer.parseInt(value);
+            if (bits >= 8 && bits <= CompressionPolicy.MAX_WINDOW_BITS) {
+                return bits;
+            }
+        }
+        catch (NumberFormatException ignored) {
+        }
+
+        throw new WebSocketException("invalid window bits in permessage-deflate parameters: " + extensions);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @return permessage-deflate or x-deflate-dictionary
+     */
+    public String getExtensionName() {
+        return extensionName;
+    }
+
+    /**
+     * @return false if sent messages are not compressed, because the server restricted the window of the client
+     */
+    public boolean isCompressing() {
+        return compressing;
+    }
+
+    public boolean isClientNoContextTakeover() {
+        return clientNoContextTakeover;
+    }
+
+    public boolean isServerNoContextTakeover() {
+        return serverNoContextTakeover;
+    }
+
+    /**
+     * @return the moving average of the compressed to uncompressed size of sent text messages, or 1 if none has
+     * been compressed yet
+     */
+    public double getTextCompressionRatio() {
+        return textSampler.ratio;
+    }
+
+    /**
+     * @return ditto for binary messages
+     */
+    public double getBinaryCompressionRatio() {
+        return binarySampler.ratio;
+    }
+
+    /**
+     * @return true if text messages are sent uncompressed (apart from probes) as they did not shrink enough
+     */
+    public boolean isTextCompressionPaused() {
+        return textSampler.paused;
+    }
+
+    /**
+     * @return ditto for binary messages
+     */
+    public boolean isBinaryCompressionPaused() {
+        return binarySampler.paused;
+    }
+
+    /**
+     * Decides whether a whole message is compressed. Messages below the minimum size are not, and neither are
+     * messages of a type whose compression is paused, except for every probe interval-th one. Must not be called
+     * concurrently, like {@link #compress(byte[], byte)}.
+     *
+     * @param opCode 0x1 for a text message, 0x2 for a binary one
+     * @param length the uncompressed size of the message
+     */
+    public boolean shouldCompress(byte opCode, int length) {
+        if (!compressing || length < minCompressionSize) {
+            return false;
+        }
+
+        RatioSampler sampler = getSampler(opCode);
+        if (!sampler.paused) {
+            return true;
+        }
+
+        if (++sampler.skipped < probeInterval) {
+            return false;
+        }
+
+        sampler.skipped = 0;
+        return true;
+    }
+
+    private RatioSampler getSampler(byte opCode) {
+        return opCode == 0x2 ? binarySampler : textSampler;
+    }
+
+    /**
+     * Compresses a whole message into the buffer returned by {@link #getCompressed()} and records the achieved
+     * ratio for its type. Must not be called concurrently (the websocket calls it while holding its lock).
+     *
+     * @param opCode 0x1 for a text message, 0x2 for a binary one
+     * @return the number of compressed bytes
+     */
+    public int compress(byte[] data, byte opCode) {
+        Deflater d = deflater;
+        if (d == null) {
+            d = pool.acquireDeflater(level);
+            if (dictionary != null) {
+                d.setDictionary(dictionary);
+            }
+        }
+
+        if (compressed == null || compressed.length > MAX_RETAINED_BUFFER_SIZE) {
+            compressed = new byte[BUFFER_SIZE];
+        }
+
+        d.setInput(data);
+
+        // SYNC_FLUSH output is complete as soon as it leaves room in the buffer
+        int length = 0;
+        while (true) {
+            length += d.deflate(compressed, length, compressed.length - length, Deflater.SYNC_FLUSH);
+            if (length < compressed.length) {
+                break;
+            }
+            compressed = Arrays.copyOf(compressed, compressed.length * 2);
+        }
+
+        if (clientNoContextTakeover) {
+            pool.releaseDeflater(d);
+            deflater = null;
+        }
+        else {
+            deflater = d;
+        }
+
+        if (endsWithTail(compressed, length)) {
+            length -= TAIL.length;
+        }
+
+        // a flush without new input may produce nothing, the empty message is an empty stored block then
+        if (length == 0) {
+            compressed[0] = 0x00;
+            length = 1;
+        }
+
+        if (data.length > 0) {
+            getSampler(opCode).sample((double) length / data.length, maxCompressionRatio);
+        }
+
+        return length;
+    }
+
+    private static boolean endsWithTail(byte[] data, int length) {
+        if (length < TAIL.length) {
+            return false;
+        }
+
+        for (int i = 0; i < TAIL.length; i++) {
+            if (data[length - TAIL.length + i] != TAIL[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public byte[] getCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Decompresses the payload of a frame of a compressed message into the buffer returned by
+     * {@link #getDecompressed()}, which is reused by the next call.
+     *
+     * @param fin true if the frame is the last one of the message
+     * @return the number of decompressed bytes
+     * @throws MessageTooLargeException if the message inflates to more than
+     * {@link CompressionPolicy#getMaxMessageSize()} bytes
+     * @throws ZipException if the payload is not valid deflate data or the connection has been closed
+     */
+    public int decompress(byte[] payload, boolean fin) throws ZipException {
+        inflateLock.lock();
+        try {
+            if (released) {
+                throw new ZipException("connection has been closed");
+            }
+
+            Inflater i = inflater;
+            if (i == null) {
+                i = inflater = pool.acquireInflater();
+                if (dictionary != null) {
+                    // a raw inflater does not ask for the dictionary, it has to be set before the first input
+                    i.setDictionary(dictionary);
+                }
+            }
+
+            if (decompressed == null || decompressed.length > MAX_RETAINED_BUFFER_SIZE) {
+                decompressed = new byte[BUFFER_SIZE];
+            }
+
+            // the limit is checked while inflating, a bomb is stopped before its output is allocated
+            int limit  = (int) (maxMessageSize - inflatedSize);
+            int length = inflate(i, payload, 0, limit);
+            if (fin) {
+                length = inflate(i, TAIL, length, limit);
+                inflatedSize = 0;
+
+                // a final deflate block ends the context as well
+                if (serverNoContextTakeover || i.finished()) {
+                    pool.releaseInflater(i);
+                    inflater = null;
+                }
+            }
+            else {
+                inflatedSize += length;
+            }
+
+            return length;
+        }
+        catch (DataFormatException dfe) {
+            throw new ZipException("invalid compressed data: " + dfe.getMessage());
+        }
+        finally {
+            inflateLock.unlock();
+        }
+    }
+
+    public byte[] getDecompressed() {
+        return decompressed;
+    }
+
+    private int inflate(Inflater i, byte[] input, int length, int limit)
+            throws DataFormatException, MessageTooLargeException {
+        i.setInput(input);
+
+        // inflate() only stops short of filling the buffer once it has produced all output of the input
+        while (true) {
+            if (length == decompressed.length) {
+                if (length == MAX_ARRAY_SIZE) {
+                    throw new MessageTooLargeException("message inflates to more than " + MAX_ARRAY_SIZE + " bytes");
+                }
+
+                // one byte beyond the limit is enough to tell that it has been exceeded
+                long capacity = Math.min(length * 2L, limit + 1L);
+                decompressed  = Arrays.copyOf(decompressed, (int) Math.min(capacity, MAX_ARRAY_SIZE));
+            }
+
+            length += i.inflate(decompressed, length, decompressed.length - length);
+            if (length > limit) {
+                throw new MessageTooLargeException("message inflates to more than " + maxMessageSize + " bytes");
+            }
+            if (length < decompressed.length) {
+                if (i.needsDictionary()) {
+                    throw new DataFormatException("preset dictionary has not been negotiated");
+                }
+                return length;
+            }
+        }
+    }
+
+    /**
+     * Returns the deflater and inflater to the pool. Called once the connection has been closed.
+     */
+    public void release() {
+        pool.releaseDeflater(deflater);
+        deflater = null;
+
+        inflateLock.lock();
+        try {
+            released = true;
+            pool.releaseInflater(inflater);
+            inflater = null;
+        }
+        finally {
+            inflateLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return extensionName
+                + (compressing ? "" : " (not compressing)")
+                + (clientNoContextTakeover ? "; client_no_context_takeover" : "")
+                + (serverNoContextTakeover ? "; server_no_context_takeover" : "")
+                + (textSampler.paused ? " (text paused)" : "")
+                + (binarySampler.paused ? " (binary paused)" : "");
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * Thrown by {@link #decompress(byte[], boolean)} if a message exceeds the maximum message size, which fails the
+     * connection with close code 1009 rather than as a protocol error.
+     */
+    public static class MessageTooLargeException extends ZipException {
+
+        public MessageTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * The compression ratio achieved for one message type. Only updated while the websocket's lock is held, the
+     * volatile fields may be read by any thread.
+     */
+    private static class RatioSampler {
+
+        private volatile double     ratio   = 1;
+        private volatile boolean    paused;
+        private boolean             sampled;
+        private int                 skipped;    // messages sent uncompressed since the last probe
+
+        private void sample(double sample, double maxRatio) {
+            if (!sampled || paused) {
+                // a probe judges by itself, otherwise a long paused average would hardly ever recover
+                ratio   = sample;
+                sampled = true;
+            }
+            else {
+                ratio += (sample - ratio) * RATIO_WEIGHT;
+            }
+
+            paused = ratio > maxRatio;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link WebSocketTimer} backed by a single threaded {@link ScheduledThreadPoolExecutor}.
+ */
+public class ScheduledExecutorTimer implements WebSocketTimer {
+
+    private static ScheduledExecutorTimer defaultTimer;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public ScheduledExecutorTimer() {
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, ScheduledExecutorTimer.class.getSimpleName() + "-Thread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return the lazily created timer that is shared by all websockets without an explicitly assigned timer
+     */
+    public static synchronized ScheduledExecutorTimer getDefault() {
+        if (defaultTimer == null) {
+            defaultTimer = new ScheduledExecutorTimer();
+        }
+
+        return defaultTimer;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public WebSocketTimeout schedule(Runnable task, long delay, TimeUnit unit) {
+        final ScheduledFuture<?> future = executor.schedule(task, delay, unit);
+
+        return new WebSocketTimeout() {
+            @Override
+            public boolean cancel() {
+                return future.cancel(false);
+            }
+
+            @Override
+            public boolean isExpired() {
+                return future.isDone() && !future.isCancelled();
+            }
+        };
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdownNow();
+    }
+}
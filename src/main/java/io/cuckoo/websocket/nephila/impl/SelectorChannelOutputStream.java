@@ -0,0 +1,128 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A blocking output stream on top of a socket channel that may be in non-blocking mode.
+ *
+ * If the socket send buffer is full, the writing thread waits on a temporary registration with a
+ * selector of its own instead of the event loop's selector. Waiting for the event loop would deadlock
+ * as soon as the event loop itself waits for the websocket's monitor (e.g. while dispatching a close frame).
+ * The selector is opened by the first wait of a write and closed when the write returns, so that the many
+ * short-lived threads that may send (connect, reconnect and heartbeat threads, virtual threads) leak no
+ * file descriptors.
+ */
+public class SelectorChannelOutputStream extends OutputStream {
+
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    private final SocketChannel         channel;
+    private final WritableByteChannel   target;
+    private final byte[]                singleByte;
+
+    public SelectorChannelOutputStream(SocketChannel channel) {
+        this(channel, channel);
+    }
+
+    /**
+     * @param target the channel the bytes are written to, e.g. a {@link TlsChannel} on top of the socket channel
+     */
+    public SelectorChannelOutputStream(SocketChannel channel, WritableByteChannel target) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel is null");
+        }
+
+        if (target == null) {
+            throw new IllegalArgumentException("target is null");
+        }
+
+        this.channel    = channel;
+        this.target     = target;
+        this.singleByte = new byte[1];
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(b, off, len);
+        Selector selector = null;
+        try {
+            while (src.hasRemaining()) {
+                if (target.write(src) == 0) {
+                    if (selector == null) {
+                        selector = Selector.open();
+                    }
+                    awaitWritable(selector);
+                }
+            }
+        }
+        finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        target.close();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void awaitWritable(Selector selector) throws IOException {
+        SelectionKey key = channel.register(selector, SelectionKey.OP_WRITE);
+        try {
+            while (selector.select(SELECT_TIMEOUT_MILLIS) == 0) {
+                if (!channel.isOpen()) {
+                    throw new ClosedChannelException();
+                }
+            }
+        }
+        finally {
+            key.cancel();
+            selector.selectNow();   // flush the cancelled key so that the channel can be registered again
+        }
+    }
+}
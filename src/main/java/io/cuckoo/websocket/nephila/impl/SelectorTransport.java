@@ -0,0 +1,250 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketConfig;
+import io.cuckoo.websocket.nephila.WebSocketException;
+import io.cuckoo.websocket.nephila.util.ByteBufferPool;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A transport that multiplexes many connections over the selector threads of an {@link EventLoopGroup}
+ * instead of dedicating a receiver thread to each connection.
+ *
+ * Incoming data is decoded on the event loop thread, the listener callbacks run on a dispatcher of the
+ * connection, so that they may block without stalling the other connections of the loop. Outgoing frames
+ * are still written synchronously by the calling thread. For wss the event loop decrypts the data it has
+ * read through a {@link TlsChannel}.
+ */
+public class SelectorTransport implements WebSocketTransport {
+
+    private final WebSocketConfig       webSocketConfig;
+    private final TcpConnector          tcpConnector;
+    private final EventLoop             eventLoop;
+    private final ByteBufferPool        bufferPool;
+    private SocketChannel               channel;
+    private TlsChannel                  tlsChannel;     // null for ws
+    private TimestampingInputStream     input;
+    private OutputStream                output;
+    private volatile WebSocketReceiver  receiver;
+    private volatile SelectionKey       key;
+    private final AtomicBoolean         deregistered;
+    private volatile boolean            closed;
+    private byte[]                      readAhead;
+    private long                        readAheadArrivalNanos;
+
+    public SelectorTransport(WebSocketConfig webSocketConfig, TcpConnector tcpConnector, EventLoop eventLoop,
+                             ByteBufferPool bufferPool) {
+        if (eventLoop == null) {
+            throw new IllegalArgumentException("eventLoop is null");
+        }
+
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool is null");
+        }
+
+        this.webSocketConfig    = webSocketConfig;
+        this.tcpConnector       = tcpConnector;
+        this.eventLoop          = eventLoop;
+        this.bufferPool         = bufferPool;
+        this.deregistered       = new AtomicBoolean(false);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void connect(URI uri) throws WebSocketException, IOException {
+        // the channel stays in blocking mode until the opening handshake has been completed
+        channel = tcpConnector.connectChannel(uri);
+
+        if (uri.getScheme().equals("wss")) {
+            tlsChannel  = new TlsChannel(channel, channel, tcpConnector.createSslEngine(uri), bufferPool);
+            input       = new TimestampingInputStream(Channels.newInputStream(tlsChannel), webSocketConfig.getInputBufferSize());
+            output      = new SelectorChannelOutputStream(channel, tlsChannel);
+        }
+        else {
+            input       = new TimestampingInputStream(Channels.newInputStream(channel), webSocketConfig.getInputBufferSize());
+            output      = new SelectorChannelOutputStream(channel);
+        }
+    }
+
+    @Override
+    public TimestampingInputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public void startReceiving(WebSocketReceiver receiver) {
+        receiver.setDispatcher(eventLoop.newDispatcher());
+        this.receiver = receiver;
+
+        try {
+            // frames the server has sent right after its opening handshake may already be buffered
+            int buffered = input.getBufferedByteCount();
+            readAheadArrivalNanos = input.getLastArrivalNanos();
+            if (buffered > 0) {
+                readAhead = new byte[buffered];
+                input.read(readAhead, 0, buffered);
+            }
+            input = null;   // the handshake stream is not needed anymore
+
+            channel.configureBlocking(false);
+            eventLoop.register(this);
+        }
+        catch (IOException ioe) {
+            onFailure(ioe);
+        }
+    }
+
+    @Override
+    public boolean isOutputOpen() {
+        return TcpConnector.isOutputOpen(channel);
+    }
+
+    @Override
+    public SSLSession getTlsSession() {
+        return tlsChannel != null ? tlsChannel.getSession() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        cancelKey();
+
+        if (tlsChannel != null) {
+            tlsChannel.close();
+        }
+        else if (channel != null) {
+            channel.close();
+        }
+
+        // let the event loop release the cancelled key (and the file descriptor) right away
+        eventLoop.wakeup();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Called by the event loop once the channel has been registered with its selector.
+     */
+    void onRegistered(SelectionKey key) {
+        this.key = key;
+
+        if (closed) {
+            cancelKey();
+            return;
+        }
+
+        if (readAhead != null) {
+            byte[] data = readAhead;
+            readAhead = null;
+            receiver.onData(data, 0, data.length, readAheadArrivalNanos);
+        }
+
+        if (tlsChannel != null) {
+            // records that have been read, but not yet decrypted or consumed by the handshake stream
+            try {
+                tlsChannel.unwrap(ByteBuffer.allocate(0), receiver, readAheadArrivalNanos);
+            }
+            catch (IOException ioe) {
+                onFailure(ioe);
+            }
+        }
+    }
+
+    /**
+     * Called by the event loop whenever the channel is readable.
+     */
+    void onReadable(ByteBuffer readBuffer) {
+        readBuffer.clear();
+
+        int n;
+        try {
+            n = channel.read(readBuffer);
+        }
+        catch (IOException ioe) {
+            onFailure(ioe);
+            return;
+        }
+
+        if (n == -1) {
+            cancelKey();
+            if (!closed) {
+                receiver.onEndOfStream();
+            }
+        }
+        else if (n > 0) {
+            readBuffer.flip();
+            if (tlsChannel != null) {
+                try {
+                    tlsChannel.unwrap(readBuffer, receiver, System.nanoTime());
+                }
+                catch (IOException ioe) {
+                    onFailure(ioe);
+                }
+            }
+            else {
+                receiver.onData(readBuffer, System.nanoTime());
+            }
+        }
+    }
+
+    void onFailure(Throwable t) {
+        cancelKey();
+
+        if (!closed && receiver != null) {
+            receiver.onError(t);
+        }
+    }
+
+    private void cancelKey() {
+        SelectionKey key = this.key;
+        if (key != null && deregistered.compareAndSet(false, true)) {
+            key.cancel();
+            eventLoop.onDeregistered();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the tasks of one connection one at a time and in submission order on a shared executor, so that a
+ * listener blocking in a callback holds up its own connection only, and never the thread that decodes the
+ * frames of all the others.
+ */
+public class SerialExecutor implements Executor {
+
+    private final Executor          executor;
+    private final Queue<Runnable>   tasks;
+    private final AtomicBoolean     scheduled;
+    private final Runnable          drain;
+
+    public SerialExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+
+        this.executor   = executor;
+        this.tasks      = new ConcurrentLinkedQueue<Runnable>();
+        this.scheduled  = new AtomicBoolean(false);
+        this.drain      = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task is null");
+        }
+
+        tasks.add(task);
+        schedule();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drain);
+            }
+            catch (RejectedExecutionException ree) {
+                // the executor has been shut down, e.g. along with an event loop that is failing its connections
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+        finally {
+            scheduled.set(false);
+
+            // a task added after the last poll, but before the flag has been cleared
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketConfig;
+import io.cuckoo.websocket.nephila.WebSocketException;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+
+/**
+ * The classic transport: a plain old blocking {@link Socket} (or SSL socket for wss)
+ * with a dedicated receiver thread.
+ */
+public class SocketTransport extends ThreadedTransport {
+
+    private final TcpConnector      tcpConnector;
+    private Socket                  socket;
+    private TimestampingInputStream input;
+    private OutputStream            output;
+
+    public SocketTransport(WebSocketConfig webSocketConfig, TcpConnector tcpConnector) {
+        super(webSocketConfig);
+        this.tcpConnector = tcpConnector;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void connect(URI uri) throws WebSocketException, IOException {
+        socket  = tcpConnector.connectSocket(uri);
+        input   = new TimestampingInputStream(socket.getInputStream(), webSocketConfig.getInputBufferSize());
+        output  = socket.getOutputStream();
+    }
+
+    @Override
+    public TimestampingInputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public boolean isOutputOpen() {
+        return socket != null && socket.isConnected() && !socket.isOutputShutdown();
+    }
+
+    @Override
+    public SSLSession getTlsSession() {
+        return socket instanceof SSLSocket ? ((SSLSocket) socket).getSession() : null;
+    }
+
+    @Override
+    protected void closeResources() throws IOException {
+        if (input != null) {
+            input.close();
+        }
+
+        if (output != null) {
+            output.close();
+        }
+
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.SocketProfile;
+import io.cuckoo.websocket.nephila.util.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * Applies a {@link SocketProfile} to unconnected sockets and channels. The extended options are resolved
+ * reflectively from jdk.net.ExtendedSocketOptions, so that the library still runs on JVMs without them. An
+ * extended option the jvm or the socket doesn't support keeps its system default, which is logged at debug level.
+ */
+public final class SocketTuning {
+
+    private static final SocketOption<?>    TCP_KEEPIDLE        = extendedOption("TCP_KEEPIDLE");
+    private static final SocketOption<?>    TCP_KEEPINTERVAL    = extendedOption("TCP_KEEPINTERVAL");
+    private static final SocketOption<?>    TCP_KEEPCOUNT       = extendedOption("TCP_KEEPCOUNT");
+    private static final SocketOption<?>    TCP_QUICKACK        = extendedOption("TCP_QUICKACK");
+
+    // Socket.setOption exists since Java 9, jdk.net.Sockets.setOption covers Java 8
+    private static final Method             SOCKET_SET_OPTION   = socketSetOption();
+
+    private SocketTuning() {
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public static void apply(SocketProfile profile, Socket socket, Logger log) throws IOException {
+        socket.setTcpNoDelay(profile.isTcpNoDelay());
+        socket.setKeepAlive(profile.isKeepAlive());
+
+        if (profile.getSendBufferSize() != SocketProfile.SYSTEM_DEFAULT) {
+            socket.setSendBufferSize(profile.getSendBufferSize());
+        }
+
+        if (profile.getReceiveBufferSize() != SocketProfile.SYSTEM_DEFAULT) {
+            socket.setReceiveBufferSize(profile.getReceiveBufferSize());
+        }
+
+        if (profile.isKeepAlive()) {
+            setExtendedOption(socket, "TCP_KEEPIDLE", TCP_KEEPIDLE, profile.getKeepAliveIdle(), log);
+            setExtendedOption(socket, "TCP_KEEPINTERVAL", TCP_KEEPINTERVAL, profile.getKeepAliveInterval(), log);
+            setExtendedOption(socket, "TCP_KEEPCOUNT", TCP_KEEPCOUNT, profile.getKeepAliveCount(), log);
+        }
+
+        if (profile.isQuickAck()) {
+            setExtendedOption(socket, "TCP_QUICKACK", TCP_QUICKACK, Boolean.TRUE, log);
+        }
+    }
+
+    /**
+     * Applies the profile to a socket channel or an asynchronous socket channel.
+     */
+    public static void apply(SocketProfile profile, NetworkChannel channel, Logger log) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, profile.isTcpNoDelay());
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, profile.isKeepAlive());
+
+        if (profile.getSendBufferSize() != SocketProfile.SYSTEM_DEFAULT) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, profile.getSendBufferSize());
+        }
+
+        if (profile.getReceiveBufferSize() != SocketProfile.SYSTEM_DEFAULT) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, profile.getReceiveBufferSize());
+        }
+
+        if (profile.isKeepAlive()) {
+            setExtendedOption(channel, "TCP_KEEPIDLE", TCP_KEEPIDLE, profile.getKeepAliveIdle(), log);
+            setExtendedOption(channel, "TCP_KEEPINTERVAL", TCP_KEEPINTERVAL, profile.getKeepAliveInterval(), log);
+            setExtendedOption(channel, "TCP_KEEPCOUNT", TCP_KEEPCOUNT, profile.getKeepAliveCount(), log);
+        }
+
+        if (profile.isQuickAck()) {
+            setExtendedOption(channel, "TCP_QUICKACK", TCP_QUICKACK, Boolean.TRUE, log);
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @SuppressWarnings("unchecked")
+    private static void setExtendedOption(NetworkChannel channel, String name, SocketOption<?> option, Object value,
+                                          Logger log) throws IOException {
+        if (value.equals(SocketProfile.SYSTEM_DEFAULT)) {
+            return;
+        }
+
+        if (option == null) {
+            skipped(name, "not supported by this jvm", log);
+        }
+        else if (!channel.supportedOptions().contains(option)) {
+            skipped(name, "not supported by " + channel.getClass().getSimpleName(), log);
+        }
+        else {
+            channel.setOption((SocketOption<Object>) option, value);
+        }
+    }
+
+    private static void setExtendedOption(Socket socket, String name, SocketOption<?> option, Object value,
+                                          Logger log) throws IOException {
+        if (value.equals(SocketProfile.SYSTEM_DEFAULT)) {
+            return;
+        }
+
+        if (option == null || SOCKET_SET_OPTION == null) {
+            skipped(name, "not supported by this jvm", log);
+            return;
+        }
+
+        try {
+            if (SOCKET_SET_OPTION.getDeclaringClass() == Socket.class) {
+                SOCKET_SET_OPTION.invoke(socket, option, value);
+            }
+            else {
+                SOCKET_SET_OPTION.invoke(null, socket, option, value);
+            }
+        }
+        catch (IllegalAccessException e) {
+            skipped(name, "not accessible on this platform", log);
+        }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            // UnsupportedOperationException: the option is not available for this socket type
+            skipped(name, "not supported by " + socket.getClass().getSimpleName() + ": " + e.getCause(), log);
+        }
+    }
+
+    private static void skipped(String name, String reason, Logger log) {
+        log.debug(SocketTuning.class, name + " keeps the system default, it is " + reason);
+    }
+
+    private static SocketOption<?> extendedOption(String name) {
+        try {
+            Class<?> optionsClass = Class.forName("jdk.net.ExtendedSocketOptions");
+            return (SocketOption<?>) optionsClass.getField(name).get(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Method socketSetOption() {
+        try {
+            return Socket.class.getMethod("setOption", SocketOption.class, Object.class);
+        }
+        catch (NoSuchMethodException e) {
+            try {
+                Class<?> socketsClass = Class.forName("jdk.net.Sockets");
+                return socketsClass.getMethod("setOption", Socket.class, SocketOption.class, Object.class);
+            }
+            catch (ReflectiveOperationException roe) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketReceiveMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An input stream on top of a non-blocking channel (a socket channel or a {@link TlsChannel} on top of one)
+ * that polls the channel instead of blocking in the kernel. Depending on the receive mode it either spins
+ * forever or parks for a short period after a number of empty polls.
+ */
+public class SpinningChannelInputStream extends InputStream {
+
+    private final ReadableByteChannel   channel;
+    private final WebSocketReceiveMode  receiveMode;
+    private final int                   spinIterations;
+    private final long                  parkNanos;
+    private final byte[]                singleByte;
+
+    public SpinningChannelInputStream(ReadableByteChannel channel, WebSocketReceiveMode receiveMode,
+                                      int spinIterations, long parkNanos) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel is null");
+        }
+
+        if (channel instanceof SelectableChannel && ((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalArgumentException("channel must be in non-blocking mode");
+        }
+
+        if (receiveMode == null || receiveMode == WebSocketReceiveMode.BLOCKING) {
+            throw new IllegalArgumentException("receiveMode must be a spinning mode");
+        }
+
+        this.channel        = channel;
+        this.receiveMode    = receiveMode;
+        this.spinIterations = spinIterations;
+        this.parkNanos      = parkNanos;
+        this.singleByte     = new byte[1];
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public int read() throws IOException {
+        int n = read(singleByte, 0, 1);
+        return n == -1 ? -1 : singleByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+        int emptyPolls = 0;
+        int n;
+        while ((n = channel.read(dst)) == 0) {
+            if (receiveMode == WebSocketReceiveMode.SPIN_THEN_PARK && ++emptyPolls >= spinIterations) {
+                LockSupport.parkNanos(parkNanos);
+            }
+        }
+
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketConfig;
+import io.cuckoo.websocket.nephila.WebSocketException;
+import io.cuckoo.websocket.nephila.util.ByteBufferPool;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A transport for the spinning receive modes: a non-blocking {@link SocketChannel} that a dedicated
+ * receiver thread polls instead of blocking in the kernel. For wss the channel is wrapped by a {@link TlsChannel}.
+ */
+public class SpinningChannelTransport extends ThreadedTransport {
+
+    private final TcpConnector      tcpConnector;
+    private final ByteBufferPool    bufferPool;
+    private SocketChannel           channel;
+    private ByteChannel             byteChannel;
+    private TimestampingInputStream input;
+    private OutputStream            output;
+
+    public SpinningChannelTransport(WebSocketConfig webSocketConfig, TcpConnector tcpConnector,
+                                    ByteBufferPool bufferPool) {
+        super(webSocketConfig);
+
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool is null");
+        }
+
+        this.tcpConnector   = tcpConnector;
+        this.bufferPool     = bufferPool;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void connect(URI uri) throws WebSocketException, IOException {
+        channel = tcpConnector.connectChannel(uri);
+        channel.configureBlocking(false);
+
+        byteChannel = channel;
+        if (uri.getScheme().equals("wss")) {
+            byteChannel = new TlsChannel(channel, channel, tcpConnector.createSslEngine(uri), bufferPool);
+        }
+
+        input   = new TimestampingInputStream(
+                new SpinningChannelInputStream(
+                        byteChannel,
+                        webSocketConfig.getReceiveMode(),
+                        webSocketConfig.getSpinIterations(),
+                        webSocketConfig.getParkNanos()
+                ),
+                webSocketConfig.getInputBufferSize()
+        );
+        output  = new SpinningChannelOutputStream(byteChannel);
+    }
+
+    @Override
+    public TimestampingInputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public boolean isOutputOpen() {
+        return TcpConnector.isOutputOpen(channel);
+    }
+
+    @Override
+    public SSLSession getTlsSession() {
+        return byteChannel instanceof TlsChannel ? ((TlsChannel) byteChannel).getSession() : null;
+    }
+
+    @Override
+    protected void closeResources() throws IOException {
+        if (byteChannel != null) {
+            byteChannel.close();
+        }
+        else if (channel != null) {
+            channel.close();
+        }
+    }
+}
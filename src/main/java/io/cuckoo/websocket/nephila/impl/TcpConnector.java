@@ -0,0 +1,553 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketConfig;
+import io.cuckoo.websocket.nephila.WebSocketException;
+import io.cuckoo.websocket.nephila.util.ConsoleLogger;
+import io.cuckoo.websocket.nephila.util.Logger;
+
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Establishes the tcp connections of the transports. Host names are resolved through a {@link HostResolver}
+ * and TLS sessions are created from a {@link TlsContext}, both of which may be shared by many websockets.
+ * <p/>
+ * If a host has several addresses they are connected to in the "Happy Eyeballs" fashion of RFC 8305: the
+ * address families are interleaved and a new attempt is started whenever the previous one failed or has not
+ * succeeded within {@link #CONNECTION_ATTEMPT_DELAY_MILLIS}. The first established connection wins, so a dead
+ * address costs at most that delay instead of the full socket timeout.
+ */
+public class TcpConnector {
+
+    public static final long CONNECTION_ATTEMPT_DELAY_MILLIS = 250;
+
+    private final WebSocketConfig   webSocketConfig;
+    private final HostResolver      hostResolver;
+    private final TlsContext        tlsContext;
+    private final Logger            log;
+    private long                    resolvedNanos;      // System.nanoTime() of the last completed resolve
+    private long                    connectedNanos;     // System.nanoTime() of the last established connection
+
+    /**
+     * @param tlsContext the context of wss connections, or null for the {@link TlsContext#getDefault() default context}
+     */
+    public TcpConnector(WebSocketConfig webSocketConfig, HostResolver hostResolver, TlsContext tlsContext) {
+        if (webSocketConfig == null) {
+            throw new IllegalArgumentException("webSocketConfig is null");
+        }
+
+        if (hostResolver == null) {
+            throw new IllegalArgumentException("hostResolver is null");
+        }
+
+        this.webSocketConfig    = webSocketConfig;
+        this.hostResolver       = hostResolver;
+        this.tlsContext         = tlsContext;
+        this.log                = new ConsoleLogger(webSocketConfig);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @return the port of the given uri, or the default port of its scheme
+     */
+    public static int getPort(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+
+        return "wss".equals(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * Rejects schemes other than ws and wss, which would otherwise silently be connected to port 80.
+     */
+    private static void checkScheme(String scheme) throws WebSocketException {
+        if (!"ws".equals(scheme) && !"wss".equals(scheme)) {
+            throw new WebSocketException("unsupported protocol: " + scheme);
+        }
+    }
+
+    /**
+     * Resolves the host of the given uri.
+     *
+     * @return the addresses of the host in the order they are connected to
+     */
+    public List<InetAddress> resolve(URI uri) throws WebSocketException {
+        final String host = uri.getHost();
+
+        try {
+            List<InetAddress> addresses = interleave(hostResolver.resolve(host));
+            resolvedNanos = System.nanoTime();
+            return addresses;
+        }
+        catch (UnknownHostException uhe) {
+            throw new WebSocketException("unknown host: " + host);
+        }
+    }
+
+    /**
+     * Opens a blocking socket (an SSL socket for wss) connected to the host and port of the given uri.
+     */
+    public Socket connectSocket(URI uri) throws WebSocketException {
+        final String scheme = uri.getScheme();
+        final String host   = uri.getHost();
+        final int port      = getPort(uri);
+
+        checkScheme(scheme);
+
+        final List<InetAddress> addresses = resolve(uri);
+        final TlsContext tls = scheme.equals("wss") ? getTlsContext() : null;
+        Socket socket = null;
+
+        try {
+            if (addresses.size() == 1) {
+                socket = new Socket();
+                SocketTuning.apply(webSocketConfig.getSocketProfile(), socket, log);
+                socket.connect(new InetSocketAddress(addresses.get(0), port), webSocketConfig.getSocketTimeout());
+            }
+            else {
+                // raced on non-blocking channels, the winner is used through the socket of its (blocking) channel
+                socket = race(addresses, port).socket();
+            }
+            connectedNanos = System.nanoTime();
+
+            if (tls != null) {
+                // layered on the connected socket so that the connect timeout applies to wss as well
+                socket = tls.createSocket(socket, host, port);
+            }
+
+            return socket;
+        }
+        catch (SocketTimeoutException ste) {
+            closeQuietly(socket);
+            throw new WebSocketException("socket timeout while connecting to " + host + ":" + port);
+        }
+        catch (IOException ioe) {
+            closeQuietly(socket);
+            throw new WebSocketException("error while creating tcp connection to " + host + ":" + port, ioe);
+        }
+    }
+
+    /**
+     * Opens a blocking socket channel connected to the host and port of the given uri, or to the socket file
+     * of a {@link UnixDomainSockets ws+unix} uri.
+     */
+    public SocketChannel connectChannel(URI uri) throws WebSocketException {
+        if (UnixDomainSockets.isUnixDomain(uri)) {
+            final String path = UnixDomainSockets.getSocketPath(uri);
+
+            try {
+                resolvedNanos = System.nanoTime();
+                SocketChannel channel = UnixDomainSockets.connect(path);
+                connectedNanos = System.nanoTime();
+                return channel;
+            }
+            catch (IOException ioe) {
+                throw new WebSocketException("error while connecting to unix domain socket " + path, ioe);
+            }
+        }
+
+        checkScheme(uri.getScheme());
+
+        final String host   = uri.getHost();
+        final int port      = getPort(uri);
+
+        try {
+            SocketChannel channel = race(resolve(uri), port);
+            connectedNanos = System.nanoTime();
+            return channel;
+        }
+        catch (SocketTimeoutException ste) {
+            throw new WebSocketException("socket timeout while connecting to " + host + ":" + port);
+        }
+        catch (IOException ioe) {
+            throw new WebSocketException("error while creating tcp connection to " + host + ":" + port, ioe);
+        }
+    }
+
+    /**
+     * Opens an asynchronous socket channel of the given group connected to the host and port of the given uri.
+     */
+    public AsynchronousSocketChannel connectAsynchronousChannel(URI uri, AsynchronousChannelGroup channelGroup)
+            throws WebSocketException, IOException {
+        checkScheme(uri.getScheme());
+
+        final String host   = uri.getHost();
+        final int port      = getPort(uri);
+
+        try {
+            AsynchronousSocketChannel channel = race(resolve(uri), port, channelGroup);
+            connectedNanos = System.nanoTime();
+            return channel;
+        }
+        catch (SocketTimeoutException ste) {
+            throw new WebSocketException("socket timeout while connecting to " + host + ":" + port);
+        }
+        catch (InterruptedIOException iioe) {
+            throw new InterruptedIOException("interrupted while connecting to " + host + ":" + port);
+        }
+        catch (IOException ioe) {
+            throw new WebSocketException("error while creating tcp connection to " + host + ":" + port, ioe);
+        }
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the last resolve of this connector has completed
+     */
+    public long getResolvedNanos() {
+        return resolvedNanos;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the last connection of this connector has been established
+     */
+    public long getConnectedNanos() {
+        return connectedNanos;
+    }
+
+    /**
+     * @return true if the given channel is connected and its output has not been shut down
+     */
+    public static boolean isOutputOpen(SocketChannel channel) {
+        if (channel == null || !channel.isConnected()) {
+            return false;
+        }
+
+        try {
+            return !channel.socket().isOutputShutdown();
+        }
+        catch (UnsupportedOperationException uoe) {
+            // unix domain channels have no socket adaptor
+            return true;
+        }
+    }
+
+    /**
+     * Applies the socket profile of the configuration to a channel that is about to connect.
+     */
+    public void configure(NetworkChannel channel) throws IOException {
+        SocketTuning.apply(webSocketConfig.getSocketProfile(), channel, log);
+    }
+
+    /**
+     * Creates a client mode engine for a TLS connection to the host and port of the given uri.
+     */
+    public SSLEngine createSslEngine(URI uri) throws WebSocketException {
+        return getTlsContext().createEngine(uri.getHost(), getPort(uri));
+    }
+
+    public TlsContext getTlsContext() throws WebSocketException {
+        return tlsContext != null ? tlsContext : TlsContext.getDefault();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * Orders the addresses as RFC 8305 suggests: alternating between IPv6 and IPv4, starting with the family
+     * of the first address the resolver returned.
+     */
+    static List<InetAddress> interleave(InetAddress[] addresses) {
+        final boolean firstIsV6 = addresses[0] instanceof Inet6Address;
+        List<InetAddress> preferred = new ArrayList<InetAddress>();
+        List<InetAddress> other     = new ArrayList<InetAddress>();
+
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == firstIsV6) {
+                preferred.add(address);
+            }
+            else {
+                other.add(address);
+            }
+        }
+
+        List<InetAddress> ordered = new ArrayList<InetAddress>(addresses.length);
+        for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+            if (i < preferred.size()) {
+                ordered.add(preferred.get(i));
+            }
+            if (i < other.size()) {
+                ordered.add(other.get(i));
+            }
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Races non-blocking connects to the given addresses on a private selector.
+     *
+     * @return the first connected channel, switched to blocking mode
+     */
+    private SocketChannel race(List<InetAddress> addresses, int port) throws IOException {
+        final long attemptDelayNanos    = TimeUnit.MILLISECONDS.toNanos(CONNECTION_ATTEMPT_DELAY_MILLIS);
+        final long timeoutNanos         = TimeUnit.MILLISECONDS.toNanos(webSocketConfig.getSocketTimeout());
+        final long start                = System.nanoTime();
+
+        List<SocketChannel> attempts = new ArrayList<SocketChannel>();
+        SocketChannel winner = null;
+        IOException failure = null;
+        int next = 0;
+        int pending = 0;
+        long nextAttemptAt = start;
+
+        Selector selector = Selector.open();
+        try {
+            while (winner == null) {
+                long now = System.nanoTime();
+
+                if (next < addresses.size() && (pending == 0 || now - nextAttemptAt >= 0)) {
+                    SocketChannel channel = SocketChannel.open();
+                    attempts.add(channel);
+                    channel.configureBlocking(false);
+                    configure(channel);
+
+                    try {
+                        if (channel.connect(new InetSocketAddress(addresses.get(next), port))) {
+                            winner = channel;
+                        }
+                        else {
+                            channel.register(selector, SelectionKey.OP_CONNECT);
+                            pending++;
+                        }
+                    }
+                    catch (IOException ioe) {
+                        // e.g. an unreachable network of the address family
+                        failure = ioe;
+                        closeQuietly(channel);
+                    }
+
+                    next++;
+                    nextAttemptAt = now + attemptDelayNanos;
+                    continue;
+                }
+
+                if (pending == 0) {
+                    throw failure;
+                }
+
+                long waitNanos = timeoutNanos > 0 ? timeoutNanos - (now - start) : Long.MAX_VALUE;
+                if (waitNanos <= 0) {
+                    throw new SocketTimeoutException("connect timed out");
+                }
+                if (next < addresses.size()) {
+                    waitNanos = Math.min(waitNanos, nextAttemptAt - now);
+                }
+
+                // rounded up, as select(0) would block indefinitely
+                selector.select(waitNanos == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            winner = channel;
+                            break;
+                        }
+                    }
+                    catch (IOException ioe) {
+                        failure = ioe;
+                        pending--;
+                        key.cancel();
+                        closeQuietly(channel);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+        finally {
+            for (SocketChannel channel : attempts) {
+                if (channel != winner) {
+                    closeQuietly(channel);
+                }
+            }
+
+            // deregisters the winner, which is required before switching it to blocking mode
+            selector.close();
+        }
+
+        try {
+            winner.configureBlocking(true);
+            return winner;
+        }
+        catch (IOException ioe) {
+            closeQuietly(winner);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Races connects of asynchronous channels to the given addresses.
+     *
+     * @return the first connected channel
+     */
+    private AsynchronousSocketChannel race(List<InetAddress> addresses, int port, AsynchronousChannelGroup channelGroup)
+            throws IOException {
+        final long attemptDelayNanos    = TimeUnit.MILLISECONDS.toNanos(CONNECTION_ATTEMPT_DELAY_MILLIS);
+        final long timeoutNanos         = TimeUnit.MILLISECONDS.toNanos(webSocketConfig.getSocketTimeout());
+        final long start                = System.nanoTime();
+        final BlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+
+        List<AsynchronousSocketChannel> attempts = new ArrayList<AsynchronousSocketChannel>();
+        AsynchronousSocketChannel winner = null;
+        IOException failure = null;
+        int next = 0;
+        int pending = 0;
+        long nextAttemptAt = start;
+
+        try {
+            while (winner == null) {
+                long now = System.nanoTime();
+
+                if (next < addresses.size() && (pending == 0 || now - nextAttemptAt >= 0)) {
+                    final AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(channelGroup);
+                    attempts.add(channel);
+                    configure(channel);
+
+                    channel.connect(new InetSocketAddress(addresses.get(next), port), null, new CompletionHandler<Void, Void>() {
+                        @Override
+                        public void completed(Void result, Void attachment) {
+                            completed.add(new Attempt(channel, null));
+                        }
+
+                        @Override
+                        public void failed(Throwable t, Void attachment) {
+                            completed.add(new Attempt(channel, t));
+                        }
+                    });
+
+                    pending++;
+                    next++;
+                    nextAttemptAt = now + attemptDelayNanos;
+                    continue;
+                }
+
+                if (pending == 0) {
+                    throw failure;
+                }
+
+                long waitNanos = timeoutNanos > 0 ? timeoutNanos - (now - start) : Long.MAX_VALUE;
+                if (waitNanos <= 0) {
+                    throw new SocketTimeoutException("connect timed out");
+                }
+                if (next < addresses.size()) {
+                    waitNanos = Math.min(waitNanos, nextAttemptAt - now);
+                }
+
+                Attempt attempt;
+                try {
+                    attempt = completed.poll(waitNanos, TimeUnit.NANOSECONDS);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while connecting");
+                }
+
+                if (attempt == null) {
+                    continue;
+                }
+
+                pending--;
+                if (attempt.failure == null) {
+                    winner = attempt.channel;
+                }
+                else if (attempt.failure instanceof IOException) {
+                    failure = (IOException) attempt.failure;
+                }
+                else {
+                    failure = new IOException(attempt.failure);
+                }
+            }
+
+            return winner;
+        }
+        finally {
+            for (AsynchronousSocketChannel channel : attempts) {
+                if (channel != winner) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void closeQuietly(NetworkChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static class Attempt {
+        private final AsynchronousSocketChannel channel;
+        private final Throwable                 failure;
+
+        private Attempt(AsynchronousSocketChannel channel, Throwable failure) {
+            this.channel = channel;
+            this.failure = failure;
+        }
+    }
+}
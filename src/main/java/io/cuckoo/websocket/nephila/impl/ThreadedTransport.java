@@ -0,0 +1,86 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketConfig;
+
+import java.io.IOException;
+
+/**
+ * Base class for transports that dedicate a receiver thread to each connection. The thread is created by
+ * the configured thread factory, reads from the transport's input stream and hands every chunk to the
+ * {@link WebSocketReceiver}.
+ */
+public abstract class ThreadedTransport implements WebSocketTransport, Runnable {
+
+    protected final WebSocketConfig     webSocketConfig;
+    private volatile WebSocketReceiver  receiver;
+    private volatile boolean            closed;
+
+    protected ThreadedTransport(WebSocketConfig webSocketConfig) {
+        this.webSocketConfig = webSocketConfig;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void startReceiving(WebSocketReceiver receiver) {
+        this.receiver = receiver;
+        webSocketConfig.getThreadFactory().newThread(this).start();
+    }
+
+    @Override
+    public void run() {
+        final TimestampingInputStream input = getInputStream();
+        int n;
+
+        try {
+            while (!closed && !receiver.isStopped()) {
+                // the receiver parses the stream's own buffer, there is no need to copy the chunk
+                n = input.readChunk();
+                if (n == -1) {
+                    receiver.onEndOfStream();
+                    break;
+                }
+
+                receiver.onData(input.getBuffer(), input.getChunkOffset(), n, input.getLastArrivalNanos());
+            }
+        }
+        catch (IOException ioe) {
+            if (!closed) {
+                receiver.onError(ioe);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        closeResources();
+    }
+
+    protected abstract void closeResources() throws IOException;
+}
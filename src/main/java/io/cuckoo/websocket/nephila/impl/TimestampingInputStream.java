@@ -0,0 +1,149 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffering input stream that remembers when the most recent chunk of data has been returned by the
+ * underlying stream. The receiver uses this timestamp to measure the read-to-callback latency.
+ *
+ * Java offers no kernel receive timestamps, so the stamp is taken as soon as the read returns. It therefore does
+ * not include the time the data waited in the socket before a blocked or parked thread woke up; the heartbeat round
+ * trip times do include it and show the benefit of the spinning receive modes.
+ */
+public class TimestampingInputStream extends InputStream {
+
+    private final InputStream   in;
+    private final byte[]        buffer;
+    private int                 position;
+    private int                 limit;
+    private int                 chunkOffset;
+    private volatile long       lastArrivalNanos;
+
+    public TimestampingInputStream(InputStream in, int bufferSize) {
+        if (in == null) {
+            throw new IllegalArgumentException("in is null");
+        }
+
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+
+        this.in     = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public long getLastArrivalNanos() {
+        return lastArrivalNanos;
+    }
+
+    /**
+     * Reads the next chunk into the internal buffer, or takes the bytes still buffered, and consumes it, so that
+     * it can be processed in place instead of being copied. The chunk is valid until the next read.
+     *
+     * @return the number of bytes of the chunk at {@link #getChunkOffset()} of {@link #getBuffer()}, or -1 at the
+     * end of the stream
+     */
+    public int readChunk() throws IOException {
+        if (position == limit && fill() == -1) {
+            return -1;
+        }
+
+        chunkOffset = position;
+        position = limit;
+        return limit - chunkOffset;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getChunkOffset() {
+        return chunkOffset;
+    }
+
+    /**
+     * @return the number of bytes that can be read without touching the underlying stream
+     */
+    public int getBufferedByteCount() {
+        return limit - position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && fill() == -1) {
+            return -1;
+        }
+
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (position == limit && fill() == -1) {
+            return -1;
+        }
+
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - position) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private int fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n > 0) {
+            // as close to the arrival as possible, before anything else is done with the data
+            lastArrivalNanos = System.nanoTime();
+            position = 0;
+            limit = n;
+        }
+
+        return n;
+    }
+}
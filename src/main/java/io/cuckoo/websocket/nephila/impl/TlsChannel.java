@@ -0,0 +1,700 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.util.ByteBufferPool;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import static javax.net.ssl.SSLEngineResult.Status;
+
+/**
+ * A TLS layer on top of an {@link SSLEngine} that wraps and unwraps directly between pooled network and
+ * application buffers. The underlying channels may be blocking or non-blocking. The TLS handshake happens
+ * implicitly on the first read or write and blocks the calling thread (on a non-blocking channel it waits for
+ * the channel to become ready).
+ *
+ * Only a partial record that is still being received keeps a network buffer for the life of the connection. The
+ * buffers for outgoing records and decrypted bytes are taken from the pool per operation and returned as soon as
+ * they have been drained, so that an idle connection holds none of them.
+ *
+ * Transports that read the network data themselves (e.g. on an event loop) pass it to
+ * {@link #unwrap(ByteBuffer, WebSocketReceiver, long)} instead of calling {@link #read(ByteBuffer)}.
+ *
+ * Unlike a socket channel, a non-blocking {@link #write(ByteBuffer)} that could not hand the complete TLS record
+ * to the network returns 0 and must be retried with the same bytes, which is what every write loop does anyway.
+ */
+public class TlsChannel implements ByteChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // bounds the wait for readiness, so that a handshake notices a concurrent close
+    private static final long HANDSHAKE_SELECT_MILLIS = 100;
+
+    private final ReadableByteChannel   in;
+    private final WritableByteChannel   out;
+    private final SSLEngine             engine;
+    private final ByteBufferPool        bufferPool;
+    private final ReentrantLock         readLock;
+    private final ReentrantLock         writeLock;
+    private ByteBuffer                  netIn;              // encrypted bytes read from the network (write mode)
+    private ByteBuffer                  appIn;              // decrypted bytes not yet consumed (read mode), or null
+    private ByteBuffer                  netOut;             // encrypted bytes not yet written (read mode), or null
+    private Selector                    selector;           // waits for a non-blocking channel during the handshake
+    private int                         pendingConsumed;    // plaintext bytes the pending record was produced from
+    private boolean                     inboundDone;
+    private volatile boolean            handshakeComplete;
+    private volatile boolean            closed;
+
+    public TlsChannel(ReadableByteChannel in, WritableByteChannel out, SSLEngine engine, ByteBufferPool bufferPool) {
+        if (in == null) {
+            throw new IllegalArgumentException("in is null");
+        }
+
+        if (out == null) {
+            throw new IllegalArgumentException("out is null");
+        }
+
+        if (engine == null) {
+            throw new IllegalArgumentException("engine is null");
+        }
+
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool is null");
+        }
+
+        this.in         = in;
+        this.out        = out;
+        this.engine     = engine;
+        this.bufferPool = bufferPool;
+        this.readLock   = new ReentrantLock();
+        this.writeLock  = new ReentrantLock();
+        this.netIn      = acquire(engine.getSession().getPacketBufferSize());
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureHandshake();
+
+        readLock.lock();
+        try {
+            checkOpen();
+
+            while (true) {
+                if (appIn != null && appIn.hasRemaining()) {
+                    return transfer(appIn, dst);
+                }
+
+                if (inboundDone) {
+                    return -1;
+                }
+
+                if (netIn.position() > 0) {
+                    SSLEngineResult result = unwrapRecord();
+                    if (result.getStatus() == Status.CLOSED) {
+                        inboundDone = true;
+                        continue;
+                    }
+                    if (result.getStatus() != Status.BUFFER_UNDERFLOW) {
+                        handlePostHandshake(result);
+                        continue;
+                    }
+                }
+
+                int n = in.read(netIn);
+                if (n == -1) {
+                    inboundDone = true;
+                }
+                else if (n == 0) {
+                    return 0;
+                }
+            }
+        }
+        finally {
+            releaseAppInIfConsumed();
+            unlockRead();
+        }
+    }
+
+    /**
+     * Decrypts the given network data and hands the plaintext to the receiver. Incomplete records are kept until
+     * the rest of them is passed with a later call. Plaintext left over from {@link #read(ByteBuffer)} is handed
+     * to the receiver first, so an empty buffer can be passed to drain the channel when switching to this method.
+     */
+    public void unwrap(ByteBuffer netData, WebSocketReceiver receiver, long arrivalNanos) throws IOException {
+        readLock.lock();
+        try {
+            while (!closed) {
+                if (appIn != null && appIn.hasRemaining()) {
+                    receiver.onData(appIn, arrivalNanos);
+                    if (closed) {
+                        return;     // the buffers may have been released by a listener closing the websocket
+                    }
+                    appIn.position(appIn.limit());
+                }
+
+                if (inboundDone) {
+                    netData.position(netData.limit());
+                    return;
+                }
+
+                // decrypt straight from the caller's buffer unless a partial record is waiting in netIn
+                final boolean direct = netIn.position() == 0;
+                ByteBuffer src;
+                if (direct) {
+                    src = netData;
+                }
+                else {
+                    transfer(netData, netIn);
+                    netIn.flip();
+                    src = netIn;
+                }
+
+                SSLEngineResult result;
+                acquireAppIn().compact();
+                try {
+                    result = engine.unwrap(src, appIn);
+                }
+                finally {
+                    appIn.flip();
+                    if (!direct) {
+                        netIn.compact();
+                    }
+                }
+
+                switch (result.getStatus()) {
+                    case OK:
+                        handlePostHandshake(result);
+                        break;
+                    case CLOSED:
+                        inboundDone = true;
+                        break;
+                    case BUFFER_UNDERFLOW:
+                        if (direct) {
+                            transfer(netData, netIn);
+                        }
+                        if (!netData.hasRemaining()) {
+                            return;
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("unexpected result while unwrapping: " + result.getStatus());
+                }
+            }
+        }
+        finally {
+            releaseAppInIfConsumed();
+            unlockRead();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureHandshake();
+
+        writeLock.lock();
+        try {
+            checkOpen();
+
+            if (netOut != null && netOut.hasRemaining()) {
+                out.write(netOut);
+                if (netOut.hasRemaining()) {
+                    return 0;
+                }
+
+                // the record that has just been completed was produced from the next bytes of src
+                int n = pendingConsumed;
+                pendingConsumed = 0;
+                if (n > 0) {
+                    if (src.remaining() < n) {
+                        throw new IllegalStateException("write has not been retried with the same bytes");
+                    }
+                    src.position(src.position() + n);
+                    return n;
+                }
+            }
+
+            if (!src.hasRemaining()) {
+                return 0;
+            }
+
+            final int start = src.position();
+            clearNetOut();
+            SSLEngineResult result;
+            try {
+                result = engine.wrap(src, netOut);
+            }
+            finally {
+                netOut.flip();
+            }
+            checkWrapResult(result);
+
+            out.write(netOut);
+            if (netOut.hasRemaining()) {
+                src.position(start);
+                pendingConsumed = result.bytesConsumed();
+                return 0;
+            }
+
+            return result.bytesConsumed();
+        }
+        finally {
+            releaseNetOutIfDrained();
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Encrypts bytes of src into dst (at most one TLS record) for transports that write the network data
+     * themselves. The calling thread must hold no other pending output of this channel.
+     * @return the number of plaintext bytes consumed
+     */
+    public int wrap(ByteBuffer src, ByteBuffer dst) throws IOException {
+        ensureHandshake();
+
+        writeLock.lock();
+        try {
+            checkOpen();
+
+            SSLEngineResult result = engine.wrap(src, dst);
+            if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+                throw new IllegalArgumentException("dst is smaller than a TLS record");
+            }
+            checkWrapResult(result);
+
+            return result.bytesConsumed();
+        }
+        finally {
+            unlockWrite();
+        }
+    }
+
+    public SSLEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return the session once the TLS handshake has been completed, otherwise null
+     */
+    public SSLSession getSession() {
+        return handshakeComplete ? engine.getSession() : null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Sends a close_notify alert if possible without blocking and closes the underlying channels.
+     * The pooled buffers are returned as soon as no other thread uses them anymore.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        sendCloseNotify();
+        closed = true;
+
+        try {
+            in.close();
+        }
+        finally {
+            try {
+                if (out != in) {
+                    out.close();
+                }
+            }
+            finally {
+                tryReleaseBuffers();
+            }
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void ensureHandshake() throws IOException {
+        if (handshakeComplete) {
+            return;
+        }
+
+        readLock.lock();
+        try {
+            writeLock.lock();
+            try {
+                if (!handshakeComplete) {
+                    checkOpen();
+                    try {
+                        handshake();
+                    }
+                    finally {
+                        closeSelector();
+                        releaseNetOutIfDrained();
+                        releaseAppInIfConsumed();
+                    }
+                    handshakeComplete = true;
+                }
+            }
+            finally {
+                unlockWrite();
+            }
+        }
+        finally {
+            unlockRead();
+        }
+    }
+
+    private void handshake() throws IOException {
+        engine.beginHandshake();
+
+        HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != HandshakeStatus.FINISHED && status != HandshakeStatus.NOT_HANDSHAKING) {
+            SSLEngineResult result;
+
+            switch (status) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    status = engine.getHandshakeStatus();
+                    break;
+
+                case NEED_WRAP:
+                    clearNetOut();
+                    try {
+                        result = engine.wrap(EMPTY, netOut);
+                    }
+                    finally {
+                        netOut.flip();
+                    }
+                    checkWrapResult(result);
+                    flushBlocking();
+                    status = result.getHandshakeStatus();
+                    break;
+
+                default:
+                    result = unwrapRecord();
+                    if (result.getStatus() == Status.CLOSED) {
+                        throw new SSLException("TLS connection has been closed during the handshake");
+                    }
+                    if (result.getStatus() == Status.BUFFER_UNDERFLOW) {
+                        int n = in.read(netIn);
+                        if (n == -1) {
+                            throw new EOFException("connection has been closed during the TLS handshake");
+                        }
+                        else if (n == 0) {
+                            awaitReady(in, SelectionKey.OP_READ);
+                        }
+                        status = engine.getHandshakeStatus();
+                    }
+                    else {
+                        status = result.getHandshakeStatus();
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Unwraps a single record from netIn into appIn.
+     */
+    private SSLEngineResult unwrapRecord() throws SSLException {
+        netIn.flip();
+        acquireAppIn().compact();
+        try {
+            return engine.unwrap(netIn, appIn);
+        }
+        finally {
+            netIn.compact();
+            appIn.flip();
+        }
+    }
+
+    /**
+     * Handles the handshake messages that TLS may exchange after the handshake (session tickets, key updates).
+     */
+    private void handlePostHandshake(SSLEngineResult result) throws IOException {
+        HandshakeStatus status = result.getHandshakeStatus();
+
+        if (status == HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+            status = engine.getHandshakeStatus();
+        }
+
+        if (status == HandshakeStatus.NEED_WRAP) {
+            writeLock.lock();
+            try {
+                if (!closed) {
+                    if (netOut != null && netOut.hasRemaining()) {
+                        out.write(netOut);
+                    }
+                    // otherwise the engine produces the message on the next write
+                    if ((netOut == null || !netOut.hasRemaining()) && pendingConsumed == 0) {
+                        clearNetOut();
+                        try {
+                            checkWrapResult(engine.wrap(EMPTY, netOut));
+                        }
+                        finally {
+                            netOut.flip();
+                        }
+                        out.write(netOut);
+                    }
+                }
+            }
+            finally {
+                releaseNetOutIfDrained();
+                unlockWrite();
+            }
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private void checkWrapResult(SSLEngineResult result) throws IOException {
+        if (result.getStatus() == Status.CLOSED) {
+            throw new ClosedChannelException();
+        }
+
+        if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+        }
+    }
+
+    private void flushBlocking() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (out.write(netOut) == 0) {
+                awaitReady(out, SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Waits until a non-blocking channel is ready for the given operation (or at most
+     * {@link #HANDSHAKE_SELECT_MILLIS}), instead of polling it.
+     */
+    private void awaitReady(Object channel, int op) throws IOException {
+        if (!(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking()) {
+            Thread.yield();
+            return;
+        }
+
+        SelectableChannel selectable = (SelectableChannel) channel;
+        if (selector == null) {
+            selector = Selector.open();
+        }
+
+        SelectionKey key = selectable.keyFor(selector);
+        if (key == null) {
+            selectable.register(selector, op);
+        }
+        else {
+            key.interestOps(op);
+        }
+
+        selector.select(HANDSHAKE_SELECT_MILLIS);
+        selector.selectedKeys().clear();
+        checkOpen();
+    }
+
+    private void closeSelector() {
+        if (selector != null) {
+            try {
+                selector.close();
+            }
+            catch (IOException ignored) {
+            }
+            selector = null;
+        }
+    }
+
+    private void sendCloseNotify() {
+        if (!handshakeComplete || !writeLock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (!closed && (netOut == null || !netOut.hasRemaining())) {
+                engine.closeOutbound();
+                clearNetOut();
+                try {
+                    engine.wrap(EMPTY, netOut);
+                }
+                finally {
+                    netOut.flip();
+                }
+                out.write(netOut);  // best effort, a single attempt
+            }
+        }
+        catch (IOException ignored) {
+        }
+        finally {
+            releaseNetOutIfDrained();
+            writeLock.unlock();
+        }
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void unlockRead() {
+        readLock.unlock();
+        if (closed) {
+            tryReleaseBuffers();
+        }
+    }
+
+    private void unlockWrite() {
+        writeLock.unlock();
+        if (closed) {
+            tryReleaseBuffers();
+        }
+    }
+
+    /**
+     * Returns the buffers to the pool unless another thread is still using them, in which case that thread
+     * returns them once it is done.
+     */
+    private void tryReleaseBuffers() {
+        if (readLock.tryLock()) {
+            try {
+                if (writeLock.tryLock()) {
+                    try {
+                        bufferPool.release(netIn);
+                        bufferPool.release(appIn);
+                        bufferPool.release(netOut);
+                        netIn   = null;
+                        appIn   = null;
+                        netOut  = null;
+                    }
+                    finally {
+                        writeLock.unlock();
+                    }
+                }
+            }
+            finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Prepares netOut for the next record, taking a buffer from the pool if none is held.
+     */
+    private void clearNetOut() {
+        if (netOut == null) {
+            netOut = acquire(engine.getSession().getPacketBufferSize());
+        }
+        netOut.clear();
+    }
+
+    /**
+     * Returns netOut to the pool once its record has been written completely.
+     */
+    private void releaseNetOutIfDrained() {
+        if (netOut != null && !netOut.hasRemaining() && isPooled(netOut)) {
+            bufferPool.release(netOut);
+            netOut = null;
+        }
+    }
+
+    /**
+     * @return appIn, taken from the pool (and empty) if none is held
+     */
+    private ByteBuffer acquireAppIn() {
+        if (appIn == null) {
+            appIn = acquire(engine.getSession().getApplicationBufferSize());
+            appIn.flip();
+        }
+
+        return appIn;
+    }
+
+    /**
+     * Returns appIn to the pool once all decrypted bytes have been consumed.
+     */
+    private void releaseAppInIfConsumed() {
+        if (appIn != null && !appIn.hasRemaining() && isPooled(appIn)) {
+            bufferPool.release(appIn);
+            appIn = null;
+        }
+    }
+
+    // a buffer larger than those of the pool is kept, rather than allocated again by every operation
+    private boolean isPooled(ByteBuffer buffer) {
+        return buffer.capacity() == bufferPool.getBufferSize();
+    }
+
+    private ByteBuffer acquire(int size) {
+        if (size <= bufferPool.getBufferSize()) {
+            return bufferPool.acquire();
+        }
+
+        // the pool's buffers are too small for the negotiated record size, these buffers aren't pooled
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private static int transfer(ByteBuffer src, ByteBuffer dst) {
+        int n = Math.min(src.remaining(), dst.remaining());
+        if (n == src.remaining()) {
+            dst.put(src);
+        }
+        else {
+            int limit = src.limit();
+            src.limit(src.position() + n);
+            dst.put(src);
+            src.limit(limit);
+        }
+
+        return n;
+    }
+}
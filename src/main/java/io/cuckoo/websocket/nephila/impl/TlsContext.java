@@ -0,0 +1,232 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The client side TLS state shared by many websockets: an {@link SSLContext} whose session cache allows
+ * reconnects to resume a previous session (keyed by host and port) instead of performing a full handshake,
+ * and counters of full and resumed handshakes.
+ */
+public class TlsContext {
+
+    public static final int SESSION_CACHE_SIZE      = 10000;
+
+    public static final int SESSION_TIMEOUT_SECONDS = 3600;
+
+    /**
+     * The maximum number of plaintext bytes in a TLS record (2^14).
+     */
+    public static final int MAX_RECORD_PLAINTEXT    = 16384;
+
+    // the content type byte and the 16 bytes of padding the JDK reserves within a TLS 1.3 record
+    private static final int TLS13_RECORD_OVERHEAD  = 17;
+
+    private static TlsContext defaultContext;
+
+    private final int           sessionCacheSize;
+    private final int           sessionTimeoutSeconds;
+    private final AtomicLong    fullHandshakes;
+    private final AtomicLong    resumedHandshakes;
+    private volatile SSLContext sslContext;     // null until the first TLS connection of a default context
+
+    /**
+     * Creates a context with the default key and trust managers of the jvm. Initializing them (e.g. loading the
+     * trusted certificates) is deferred until the first TLS connection, so that it costs nothing to create a
+     * context that is only ever used for ws:// connections.
+     */
+    public TlsContext() throws WebSocketException {
+        this.sessionCacheSize       = SESSION_CACHE_SIZE;
+        this.sessionTimeoutSeconds  = SESSION_TIMEOUT_SECONDS;
+        this.fullHandshakes         = new AtomicLong();
+        this.resumedHandshakes      = new AtomicLong();
+    }
+
+    /**
+     * @param sessionCacheSize the maximum number of cached sessions, 0 for no limit
+     * @param sessionTimeoutSeconds the time a cached session may be resumed, 0 for no limit
+     */
+    public TlsContext(SSLContext sslContext, int sessionCacheSize, int sessionTimeoutSeconds) {
+        if (sslContext == null) {
+            throw new IllegalArgumentException("sslContext is null");
+        }
+
+        if (sessionCacheSize < 0) {
+            throw new IllegalArgumentException("sessionCacheSize is negative");
+        }
+
+        if (sessionTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("sessionTimeoutSeconds is negative");
+        }
+
+        this.sessionCacheSize       = sessionCacheSize;
+        this.sessionTimeoutSeconds  = sessionTimeoutSeconds;
+        this.fullHandshakes         = new AtomicLong();
+        this.resumedHandshakes      = new AtomicLong();
+        this.sslContext             = configure(sslContext);
+    }
+
+    /**
+     * @return the lazily created context that is shared by all websockets without an explicitly assigned context
+     */
+    public static synchronized TlsContext getDefault() throws WebSocketException {
+        if (defaultContext == null) {
+            defaultContext = new TlsContext();
+        }
+
+        return defaultContext;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * Creates a client mode engine that verifies the server's certificate against the host and may
+     * resume a cached session of the same host and port.
+     */
+    public SSLEngine createEngine(String host, int port) {
+        SSLEngine engine = getSslContext().createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setSSLParameters(verifyingHost(engine.getSSLParameters()));
+        return engine;
+    }
+
+    /**
+     * Layers a client mode SSL socket on top of the given connected socket, see {@link #createEngine(String, int)}.
+     */
+    public SSLSocket createSocket(Socket socket, String host, int port) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) getSslContext().getSocketFactory().createSocket(socket, host, port, true);
+        sslSocket.setSSLParameters(verifyingHost(sslSocket.getSSLParameters()));
+        return sslSocket;
+    }
+
+    /**
+     * Counts a completed handshake.
+     * @param connectStartMillis the {@link System#currentTimeMillis()} before the tcp connection was established
+     * @return true if a cached session has been resumed
+     */
+    public boolean onHandshakeCompleted(SSLSession session, long connectStartMillis) {
+        // a resumed session keeps the creation time of the session it has been resumed from
+        boolean resumed = session.getCreationTime() < connectStartMillis;
+
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+        }
+        else {
+            fullHandshakes.incrementAndGet();
+        }
+
+        return resumed;
+    }
+
+    /**
+     * @return the number of plaintext bytes that fill exactly one record of the given session
+     */
+    public static int getRecordPlaintextSize(SSLSession session) {
+        if ("TLSv1.3".equals(session.getProtocol())) {
+            return MAX_RECORD_PLAINTEXT - TLS13_RECORD_OVERHEAD;
+        }
+
+        return MAX_RECORD_PLAINTEXT;
+    }
+
+    /**
+     * @return the ssl context, which is initialized by the first call if this is a default context
+     * @throws IllegalStateException if the jvm doesn't support TLS, which every Java SE platform is required to
+     */
+    public SSLContext getSslContext() {
+        SSLContext context = sslContext;
+        if (context == null) {
+            synchronized (this) {
+                context = sslContext;
+                if (context == null) {
+                    try {
+                        context = configure(createSslContext());
+                    }
+                    catch (WebSocketException wse) {
+                        throw new IllegalStateException(wse.getMessage(), wse.getCause());
+                    }
+                    sslContext = context;
+                }
+            }
+        }
+
+        return context;
+    }
+
+    /**
+     * @return true once the ssl context has been initialized
+     */
+    public boolean isInitialized() {
+        return sslContext != null;
+    }
+
+    public long getFullHandshakeCount() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private SSLContext configure(SSLContext sslContext) {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+        return sslContext;
+    }
+
+    private static SSLContext createSslContext() throws WebSocketException {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            return sslContext;
+        }
+        catch (GeneralSecurityException gse) {
+            throw new WebSocketException("TLS is not supported by this jvm", gse);
+        }
+    }
+
+    private static SSLParameters verifyingHost(SSLParameters parameters) {
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        return parameters;
+    }
+}
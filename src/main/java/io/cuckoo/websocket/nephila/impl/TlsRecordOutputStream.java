@@ -0,0 +1,125 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered output stream for TLS connections that cuts the byte stream into chunks of exactly one TLS record's
+ * plaintext. A frame header therefore shares its record with the payload and only the last record of a frame,
+ * written on {@link #flush()}, is partial. A plain {@link java.io.BufferedOutputStream} flushes its partial
+ * buffer before every large write instead, which produces a tiny record per frame header.
+ */
+public class TlsRecordOutputStream extends OutputStream {
+
+    private final OutputStream  out;
+    private final byte[]        buffer;
+    private int                 recordSize;
+    private int                 count;
+
+    public TlsRecordOutputStream(OutputStream out) {
+        if (out == null) {
+            throw new IllegalArgumentException("out is null");
+        }
+
+        this.out        = out;
+        this.buffer     = new byte[TlsContext.MAX_RECORD_PLAINTEXT];
+        this.recordSize = TlsContext.MAX_RECORD_PLAINTEXT;
+        this.count      = 0;
+    }
+
+    /**
+     * Adjusts the chunk size to the record size of the negotiated session, see
+     * {@link TlsContext#getRecordPlaintextSize(javax.net.ssl.SSLSession)}. Must be called while nothing is buffered.
+     */
+    public void setRecordSize(int recordSize) {
+        if (recordSize <= 0 || recordSize > buffer.length) {
+            throw new IllegalArgumentException("recordSize must be between 1 and " + buffer.length);
+        }
+
+        if (count > 0) {
+            throw new IllegalStateException("stream has not been flushed");
+        }
+
+        this.recordSize = recordSize;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[count++] = (byte) b;
+        if (count == recordSize) {
+            writeRecord();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == 0 && len >= recordSize) {
+                // a whole record straight from the caller's array
+                out.write(b, off, recordSize);
+                off += recordSize;
+                len -= recordSize;
+                continue;
+            }
+
+            int n = Math.min(len, recordSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+
+            if (count == recordSize) {
+                writeRecord();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeRecord();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void writeRecord() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+}
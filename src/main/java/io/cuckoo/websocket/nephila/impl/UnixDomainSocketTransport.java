@@ -0,0 +1,127 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketConfig;
+import io.cuckoo.websocket.nephila.WebSocketException;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The transport of ws+unix connections in {@link io.cuckoo.websocket.nephila.WebSocketReceiveMode#BLOCKING} mode:
+ * a blocking unix domain socket channel with a dedicated receiver thread. The streams access the channel
+ * directly, because the streams of {@link java.nio.channels.Channels} serialize reads and writes on older JVMs.
+ */
+public class UnixDomainSocketTransport extends ThreadedTransport {
+
+    private final TcpConnector      tcpConnector;
+    private SocketChannel           channel;
+    private TimestampingInputStream input;
+    private OutputStream            output;
+
+    public UnixDomainSocketTransport(WebSocketConfig webSocketConfig, TcpConnector tcpConnector) {
+        super(webSocketConfig);
+        this.tcpConnector = tcpConnector;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    @Override
+    public void connect(URI uri) throws WebSocketException, IOException {
+        channel = tcpConnector.connectChannel(uri);
+
+        input = new TimestampingInputStream(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        }, webSocketConfig.getInputBufferSize());
+
+        output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer src = ByteBuffer.wrap(b, off, len);
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    @Override
+    public TimestampingInputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public boolean isOutputOpen() {
+        return channel != null && channel.isConnected();
+    }
+
+    @Override
+    public SSLSession getTlsSession() {
+        return null;
+    }
+
+    @Override
+    protected void closeResources() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
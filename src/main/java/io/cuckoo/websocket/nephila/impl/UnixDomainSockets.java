@@ -0,0 +1,166 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketException;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Support for websockets over unix domain sockets (Java 16+), addressed by uris of the form
+ * <code>ws+unix:///path/to/server.sock:/resource?query</code>: everything up to the first colon of the path
+ * denotes the socket file, the rest the requested resource. The channel API is resolved reflectively, so
+ * that the library still runs on older JVMs.
+ */
+public final class UnixDomainSockets {
+
+    public static final String SCHEME = "ws+unix";
+
+    private static final ProtocolFamily UNIX        = unixProtocolFamily();
+    private static final Method         OPEN        = method("java.nio.channels.SocketChannel", "open", ProtocolFamily.class);
+    private static final Method         ADDRESS_OF  = method("java.net.UnixDomainSocketAddress", "of", String.class);
+
+    private UnixDomainSockets() {
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @return true if the running JVM supports unix domain socket channels
+     */
+    public static boolean isSupported() {
+        return UNIX != null && OPEN != null && ADDRESS_OF != null;
+    }
+
+    public static boolean isUnixDomain(URI uri) {
+        return SCHEME.equals(uri.getScheme());
+    }
+
+    /**
+     * @return the path of the socket file the given ws+unix uri refers to
+     */
+    public static String getSocketPath(URI uri) throws WebSocketException {
+        String path = uri.getPath();
+        if (path == null || path.length() == 0) {
+            throw new WebSocketException("invalid uri: socket path is missing in " + uri);
+        }
+
+        int colon = path.indexOf(':');
+        return colon == -1 ? path : path.substring(0, colon);
+    }
+
+    /**
+     * @return the uri of the resource the given ws+unix uri refers to, as used in the opening handshake
+     */
+    public static URI getHandshakeUri(URI uri) throws WebSocketException {
+        String path = uri.getPath();
+        int colon = path == null ? -1 : path.indexOf(':');
+        String resource = colon == -1 ? "/" : path.substring(colon + 1);
+
+        try {
+            return new URI("ws", null, "localhost", -1, resource, uri.getQuery(), null);
+        }
+        catch (URISyntaxException use) {
+            throw new WebSocketException("invalid uri: " + uri + " (" + use.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Opens a blocking socket channel connected to the socket file of the given path.
+     */
+    public static SocketChannel connect(String path) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("unix domain sockets are not supported on this platform (Java 16+ required)");
+        }
+
+        SocketChannel channel;
+        try {
+            channel = (SocketChannel) OPEN.invoke(null, UNIX);
+        }
+        catch (IllegalAccessException e) {
+            throw new IOException("unix domain sockets are not accessible: " + e.getMessage());
+        }
+        catch (InvocationTargetException e) {
+            throw toIOException(e);
+        }
+
+        try {
+            channel.connect((SocketAddress) ADDRESS_OF.invoke(null, path));
+            return channel;
+        }
+        catch (IllegalAccessException e) {
+            channel.close();
+            throw new IOException("unix domain sockets are not accessible: " + e.getMessage());
+        }
+        catch (InvocationTargetException e) {
+            // e.g. an invalid path
+            channel.close();
+            throw toIOException(e);
+        }
+        catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static IOException toIOException(InvocationTargetException e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+
+        return new IOException(e.getCause());
+    }
+
+    private static ProtocolFamily unixProtocolFamily() {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        }
+        catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    private static Method method(String className, String name, Class<?> parameterType) {
+        try {
+            return Class.forName(className).getMethod(name, parameterType);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -29,96 +29,86 @@ import io.cuckoo.websocket.nephila.crypto.SHA1;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.regex.Pattern;
 
 
 public class WebSocketHandshake {	
-	private final String key;
+	private final byte[] keyBytes;
 	private final byte[] expectedSecWebSocketAcceptValue;
 	
 	private final URI url;
 
 	private static final String CRLF = "\r\n";
-	private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final byte[] GUID = {
+            '2', '5', '8', 'E', 'A', 'F', 'A', '5', '-', 'E', '9', '1', '4', '-', '4', '7', 'D', 'A', '-',
+            '9', '5', 'C', 'A', '-', 'C', '5', 'A', 'B', '0', 'D', 'C', '8', '5', 'B', '1', '1'
+    };
+
+    private static final int KEY_SIZE = 16;
+
+    // the nonce of RFC 6455 must be randomly selected for each connection; the default SecureRandom of some
+    // platforms reads the os entropy source under a global lock on every call, so a single generator that seeds
+    // itself once is shared by all connects (SecureRandom is thread-safe)
+    private static final SecureRandom RANDOM = createRandom();
 
 
 	
 	public WebSocketHandshake(URI url) throws WebSocketException {
 		this.url = url;
-		KeyGenerationResult keyGenerationResult = generateKeys();
-        this.key = keyGenerationResult.getKey();
-        this.expectedSecWebSocketAcceptValue = keyGenerationResult.getExpectedSecWebSocketAcceptValue();
+
+        byte[] nonce = new byte[KEY_SIZE];
+        RANDOM.nextBytes(nonce);
+        this.keyBytes = Base64.encodeToByte(nonce, false);
+        this.expectedSecWebSocketAcceptValue = computeSecWebSocketAccept(keyBytes);
 	}
 
 	public byte[] getHandshakeBytes(String acceptingSubProtocolsCSV) throws WebSocketException {
-		String path = url.getPath();
-        if (path == null || path.trim().length() == 0) {
-            path = "/";
-        }
-
-        String query = url.getQuery();
-        if (query == null) {
-            query = "";
-        }
-
-		String host = url.getHost();
-
-        int port = url.getPort();
-        if (port == -1) {
-            if (url.getScheme().equalsIgnoreCase("wss")) {
-                port = 443;
-            }
-            else {
-                port = 80;
-            }
-        }
-		
-		StringBuilder sb = new StringBuilder();
-		
-		sb.append("GET ").append(path).append(query.length() > 0 ? "?" : "").append(query).append(" HTTP/1.1").append(CRLF);
-		sb.append("Host: ").append(host).append(":").append(port)       .append(CRLF);
-		sb.append("Upgrade: websocket")								    .append(CRLF);
-		sb.append("Connection: Upgrade")							    .append(CRLF);
-		sb.append("Sec-WebSocket-Key: ").append(key)				    .append(CRLF);
-		
-		if (acceptingSubProtocolsCSV != null ) {
-			sb.append("Sec-WebSocket-Protocol: ").append(acceptingSubProtocolsCSV).append(CRLF);
-		}
-		
-		sb.append("Sec-WebSocket-Version: 13")						    .append(CRLF);
-		sb.append(CRLF);
-				
-		try {
-			return sb.toString().getBytes("ISO-8859-1");
-		}
-        catch (UnsupportedEncodingException e) {
-            throw new WebSocketException("iso-8859-1 is not supported on this platform");
-		}
+		return getHandshakeBytes(new Template(url, acceptingSubProtocolsCSV, null));
 	}
+
+    /**
+     * @return the opening handshake request, the template with the key of this handshake spliced in
+     */
+    public byte[] getHandshakeBytes(Template template) {
+        byte[] out = new byte[template.prefix.length + keyBytes.length + template.suffix.length];
+        System.arraycopy(template.prefix, 0, out, 0, template.prefix.length);
+        System.arraycopy(keyBytes, 0, out, template.prefix.length, keyBytes.length);
+        System.arraycopy(template.suffix, 0, out, template.prefix.length + keyBytes.length, template.suffix.length);
+        return out;
+    }
 	
 	
 	public void verifySecWebSocketAccept(String secWebSocketAccept) throws WebSocketException {
-		String[] segs = secWebSocketAccept.split( Pattern.quote( ":" ) );
-		
-		if (segs.length != 2) {
+		int colon = secWebSocketAccept.indexOf(':');
+		if (colon < 0 || secWebSocketAccept.indexOf(':', colon + 1) >= 0) {
             throw new WebSocketException("invalid server opening handshake: bad 'sec-websocket-accept' header");
 		}
-		
-		String serverKey = segs[1].trim();
 
-        try {
-            String expectedSecWebSocketAcceptValueString = new String(expectedSecWebSocketAcceptValue, "ISO-8859-1");
-            if (!expectedSecWebSocketAcceptValueString.equals(serverKey)) {
-                throw new WebSocketException(
-                        "invalid server opening handshake:" +
-                                " unexpected 'sec-websocket-accept' header value (got: " + serverKey + " " +
-                                "expected: " + expectedSecWebSocketAcceptValueString + ")");
-            }
+        // the value is compared in place, a string of it is only built for the error message
+        int begin = colon + 1;
+        int end = secWebSocketAccept.length();
+        while (begin < end && secWebSocketAccept.charAt(begin) <= ' ') {
+            begin++;
         }
-        catch (UnsupportedEncodingException e) {
-            throw new WebSocketException("utf-8 is not supported on this platform");
+        while (end > begin && secWebSocketAccept.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        boolean matches = end - begin == expectedSecWebSocketAcceptValue.length;
+        for (int i = 0; matches && i < expectedSecWebSocketAcceptValue.length; i++) {
+            matches = secWebSocketAccept.charAt(begin + i) == expectedSecWebSocketAcceptValue[i];
+        }
+
+        if (!matches) {
+            throw new WebSocketException(
+                    "invalid server opening handshake:" +
+                            " unexpected 'sec-websocket-accept' header value (got: " +
+                            secWebSocketAccept.substring(begin, end) + " " +
+                            "expected: " + toAsciiString(expectedSecWebSocketAcceptValue) + ")");
         }
 	}
 
@@ -216,26 +206,43 @@ public class WebSocketHandshake {
 		*/
 	}
 	
-	private KeyGenerationResult generateKeys() throws WebSocketException {
+	private static byte[] computeSecWebSocketAccept(byte[] keyBytes) throws WebSocketException {
+        MessageDigest sha1;
 		try {
-            final long time = System.nanoTime();
-            Random r = new Random(time);
-            String timeString = String.valueOf(time) + r.nextInt(10)  + r.nextInt(10);
-			final String key = Base64.encodeToString(timeString.getBytes("UTF-8"), false);
-            final String exp = key + GUID;
-            byte[] sha1Hash = SHA1.encode(exp);
-            byte[] expectedSecWebSocketAcceptValue = Base64.encodeToByte(sha1Hash, false);
-
-            return new KeyGenerationResult(key, expectedSecWebSocketAcceptValue);
-		}
-        catch (UnsupportedEncodingException e) {
-            throw new WebSocketException("utf-8 is not supported on this platform");
+            sha1 = SHA1.acquireDigest();
 		}
         catch (NoSuchAlgorithmException e) {
             throw new WebSocketException("sha-1 is not supported on this platform");
         }
+
+        try {
+            sha1.update(keyBytes);
+            sha1.update(GUID);
+            return Base64.encodeToByte(sha1.digest(), false);
+        }
+        finally {
+            SHA1.releaseDigest(sha1);
+        }
 	}
 
+    private static SecureRandom createRandom() {
+        try {
+            return SecureRandom.getInstance("SHA1PRNG");
+        }
+        catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+    private static String toAsciiString(byte[] bytes) {
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i] = (char) bytes[i];
+        }
+
+        return new String(chars);
+    }
+
     private <T> boolean arrayContains(T[] array, T object) {
         for(T elem : array) {
             if (elem.equals(object)) {
@@ -250,21 +257,87 @@ public class WebSocketHandshake {
     /* ######################################################################## */
     /* ######################################################################## */
 
-    private class KeyGenerationResult {
-        private final String key;
-        private final byte[] expectedSecWebSocketAcceptValue;
+    /**
+     * The opening handshake request for an uri, a set of subprotocols and an extension offer, encoded once:
+     * everything but the Sec-WebSocket-Key, which differs from connect to connect.
+     */
+    public static final class Template {
+        private final URI       uri;
+        private final String    extensions;
+        private final byte[]    prefix;     // up to the value of Sec-WebSocket-Key
+        private final byte[]    suffix;
+
+        /**
+         * @param extensions the value of the Sec-WebSocket-Extensions header, or null to offer no extension
+         */
+        public Template(URI uri, String acceptingSubProtocolsCSV, String extensions) throws WebSocketException {
+            if (uri == null) {
+                throw new IllegalArgumentException("uri is null");
+            }
+
+            String path = uri.getPath();
+            if (path == null || path.trim().length() == 0) {
+                path = "/";
+            }
+
+            String query = uri.getQuery();
+            if (query == null) {
+                query = "";
+            }
+
+            String host = uri.getHost();
+
+            int port = uri.getPort();
+            if (port == -1) {
+                if (uri.getScheme().equalsIgnoreCase("wss")) {
+                    port = 443;
+                }
+                else {
+                    port = 80;
+                }
+            }
+
+            StringBuilder sb = new StringBuilder();
+
+            sb.append("GET ").append(path).append(query.length() > 0 ? "?" : "").append(query).append(" HTTP/1.1").append(CRLF);
+            sb.append("Host: ").append(host).append(":").append(port)       .append(CRLF);
+            sb.append("Upgrade: websocket")								    .append(CRLF);
+            sb.append("Connection: Upgrade")							    .append(CRLF);
+            sb.append("Sec-WebSocket-Key: ");
+            String prefixString = sb.toString();
+            sb.setLength(0);
+
+            sb.append(CRLF);
+
+            if (acceptingSubProtocolsCSV != null ) {
+                sb.append("Sec-WebSocket-Protocol: ").append(acceptingSubProtocolsCSV).append(CRLF);
+            }
+
+            if (extensions != null) {
+                sb.append("Sec-WebSocket-Extensions: ").append(extensions).append(CRLF);
+            }
+
+            sb.append("Sec-WebSocket-Version: 13")						    .append(CRLF);
+            sb.append(CRLF);
+
+            try {
+                this.prefix = prefixString.getBytes("ISO-8859-1");
+                this.suffix = sb.toString().getBytes("ISO-8859-1");
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new WebSocketException("iso-8859-1 is not supported on this platform");
+            }
 
-        private KeyGenerationResult(String key, byte[] expectedSecWebSocketAcceptValue) {
-            this.key = key;
-            this.expectedSecWebSocketAcceptValue = expectedSecWebSocketAcceptValue;
+            this.uri        = uri;
+            this.extensions = extensions;
         }
 
-        public String getKey() {
-            return key;
+        public URI getUri() {
+            return uri;
         }
 
-        public byte[] getExpectedSecWebSocketAcceptValue() {
-            return expectedSecWebSocketAcceptValue;
+        public String getExtensions() {
+            return extensions;
         }
     }
 }
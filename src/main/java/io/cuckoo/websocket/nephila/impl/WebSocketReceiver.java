@@ -20,39 +20,71 @@
  *
  */
 
+
 package io.cuckoo.websocket.nephila.impl;
 
+import io.cuckoo.websocket.nephila.WebSocketClosureStatusCode;
 import io.cuckoo.websocket.nephila.WebSocketListener;
+import io.cuckoo.websocket.nephila.WebSocketStats;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Decodes the incoming byte stream into frames and dispatches them to the {@link WebSocketListener}.
+ *
+ * The decoder is incremental: a transport hands over whatever it has read and the receiver keeps
+ * the state of a partially received frame until the rest arrives. Therefore it can be driven by a
+ * dedicated receiver thread as well as by a shared event loop. A transport that must not block in the
+ * callbacks, e.g. an event loop, assigns a {@link #setDispatcher(Executor) dispatcher}, which runs them
+ * in order on another thread while the decoding stays on the thread driving the receiver.
+ */
+public class WebSocketReceiver {
 
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
 
-public class WebSocketReceiver extends Thread {
+    private static final int RSV_BITS   = 0x70;
+
+    private static final int RSV1       = 0x40;
 
     private final DefaultWebSocket  ws;
-    private final InputStream       is;
-	private final WebSocketListener webSocketListener;
+    private final WebSocketStats    stats;
+    private final PerMessageDeflate deflate;    // null if the extension has not been negotiated
+    private volatile Executor       dispatcher; // null to run the callbacks on the thread driving the receiver
 	private volatile boolean        stop;
 	private volatile boolean        waitingForServerClosingHandshake;
     private boolean                 inStream;
     private byte                    initialFrameOpCode;
+    private boolean                 compressedMessage;
+    private byte[]                  utf8Remainder;      // incomplete character at the end of a compressed text chunk
+
+    private DecoderState            state;
+    private int                     firstByte;
+    private int                     lengthBytesRemaining;
+    private long                    payloadSize;
+    private byte[]                  payload;
+    private int                     payloadOffset;
+    private long                    arrivalNanos;
 
     /*
-     * inStream and initialFrameOpCode don't have to be 'volatile'
-     * because the WebSocketReceiver exclusively accesses this property
+     * inStream, initialFrameOpCode and the decoder state don't have to be 'volatile'
+     * because only the thread driving the receiver accesses these properties
      *
      */
 
-	public WebSocketReceiver(DefaultWebSocket ws, InputStream is) {
-        super(WebSocketReceiver.class.getSimpleName() + "-Thread");
+	public WebSocketReceiver(DefaultWebSocket ws, WebSocketStats stats, PerMessageDeflate deflate) {
         this.ws                             = ws;
-        this.is                             = is;
-		webSocketListener                   = ws.getWebSocketListener();
+        this.stats                          = stats;
+        this.deflate                        = deflate;
         stop                                = false;
         waitingForServerClosingHandshake    = false;
         inStream                            = false;
         initialFrameOpCode                  = -1;
+        utf8Remainder                       = EMPTY_PAYLOAD;
+        state                               = DecoderState.FIRST_BYTE;
 	}
 
 	
@@ -85,70 +117,197 @@ public class WebSocketReceiver extends Thread {
 	
 	
 
-	public void run() {
-		int b;
-		while (!stop) {
-			try {
-				b = is.read();
-
-                //log.debug(getClass(), "!! Read a byte: " + b);
-				if (b == -1) {
-					handleEndOfStream();
-				}
-                else if (b >= 128 && b <= 255) {
-                    // FIN bit set to 1 -> unfragmented message / last messages of a streaming sequence
-                    handleUnfragmentedMessage(b);
-                }
-                else if (b >= 0 && b < 128) {
-                    // FIN bit set to 0 -> fragmented message
-                    handleFragmentedMessage(b);
-                }
-				else {
-                    handleProtocolError("server is not compliant to the websocket protocol");
-				}
-			}
-			catch (IOException ioe) {
-				handleError(ioe);
-			}
-		}
-
-        //log.debug(getClass(), getClass().getSimpleName() + " killed!");
-	}
-	
+    public void onData(byte[] data, int offset, int length, long arrivalNanos) {
+        onData(ByteBuffer.wrap(data, offset, length), arrivalNanos);
+    }
+
+    /**
+     * Consumes all remaining bytes of the given buffer.
+     * @param arrivalNanos the {@link System#nanoTime()} at which the data has been read from the network
+     */
+    public void onData(ByteBuffer data, long arrivalNanos) {
+        this.arrivalNanos = arrivalNanos;
+        stats.onBytesReceived(data.remaining());
+
+        while (!stop && data.hasRemaining()) {
+            switch (state) {
+                case FIRST_BYTE:
+                    // FIN (1), RSV1 (1), RSV2 (1), RSV3 (1) and OP_CODE (4)
+                    firstByte = data.get() & 0xFF;
+                    state = DecoderState.PAYLOAD_LENGTH;
+                    break;
+
+                case PAYLOAD_LENGTH:
+                    int m = data.get() & 0xFF;
+                    if (m >= 128) {
+                        // payload is masked
+                        handleProtocolError("server has unexpectedly sent masked data");
+                    }
+                    else if (m <= 125) {
+                        // 7 bit payload length
+                        beginPayload(m);
+                    }
+                    else {
+                        // following 2 bytes (16 bit) or 8 bytes (64 bit) determine the payload length
+                        payloadSize = 0;
+                        lengthBytesRemaining = (m == 126) ? 2 : 8;
+                        state = DecoderState.EXTENDED_PAYLOAD_LENGTH;
+                    }
+                    break;
+
+                case EXTENDED_PAYLOAD_LENGTH:
+                    payloadSize = (payloadSize << 8) | (data.get() & 0xFF);
+                    if (--lengthBytesRemaining == 0) {
+                        if (payloadSize > Integer.MAX_VALUE || payloadSize < 0) {
+                            handleProtocolError("data with payload length > " + Integer.MAX_VALUE + " bytes is not supported yet");
+                        }
+                        else {
+                            beginPayload(payloadSize);
+                        }
+                    }
+                    break;
+
+                case PAYLOAD:
+                    int n = Math.min(data.remaining(), payload.length - payloadOffset);
+                    data.get(payload, payloadOffset, n);
+                    payloadOffset += n;
+                    if (payloadOffset == payload.length) {
+                        completeFrame();
+                    }
+                    break;
+            }
+        }
+
+        if (stop) {
+            // discard whatever follows once the connection is being closed
+            data.position(data.limit());
+        }
+    }
+
+    public void onEndOfStream() {
+        if (!stop) {
+            handleEndOfStream();
+        }
+    }
+
+    public void onError(Throwable throwable) {
+        if (!stop) {
+            handleError(throwable);
+        }
+    }
 	
 	public void stopIt() {
 		stop = true;
 	}
 
+    public boolean isStopped() {
+        return stop;
+    }
+
     public void enableWaitingForServerClosingHandshake() {
         waitingForServerClosingHandshake = true;
     }
 
-    /*
-     public boolean isRunning() {
-         return !stop;
-     }
+    /**
+     * @param dispatcher runs the callbacks one at a time and in order, must be assigned before the first data
      */
+    public void setDispatcher(Executor dispatcher) {
+        this.dispatcher = dispatcher;
+    }
 	
 	
 	private void handleError(Throwable throwable) {
 		stopIt();
-		ws.handleReceiverError(throwable.getMessage());
+        final String reason = throwable.getMessage();
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                ws.handleReceiverError(reason);
+            }
+        });
 	}
 
+    private void dispatch(final Runnable callback) {
+        Executor dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            callback.run();
+            return;
+        }
+
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.run();
+                }
+                catch (RuntimeException re) {
+                    // e.g. a listener callback has thrown an exception, as on the thread driving the receiver
+                    if (!stop) {
+                        stopIt();
+                        ws.handleReceiverError(re.toString());
+                    }
+                }
+            }
+        });
+    }
+
     private void handleEndOfStream() {
         handleCloseFrame();
     }
 
+    private void beginPayload(long size) {
+        payload         = (size == 0) ? EMPTY_PAYLOAD : new byte[(int) size];
+        payloadOffset   = 0;
+        state           = DecoderState.PAYLOAD;
+
+        if (size == 0) {
+            completeFrame();
+        }
+    }
+
+    private void completeFrame() {
+        int b = firstByte;
+        final byte[] framePayload = payload;
+
+        payload = null;
+        state   = DecoderState.FIRST_BYTE;
+        stats.onFrameReceived();
+
+        int opCode = b & 0x0F;
+        if ((b & RSV_BITS) != 0) {
+            // RSV1 marks the first frame of a compressed message (RFC 7692), no extension uses the other bits
+            if ((b & RSV_BITS) != RSV1 || deflate == null || (opCode != 0x1 && opCode != 0x2)) {
+                handleProtocolError("received a frame with unexpected reserved bits: " + Integer.toHexString(b));
+                return;
+            }
+
+            compressedMessage = true;
+            utf8Remainder = EMPTY_PAYLOAD;
+            b &= ~RSV1;
+        }
+        else if (opCode == 0x1 || opCode == 0x2) {
+            compressedMessage = false;
+        }
+
+        if (b >= 128) {
+            // FIN bit set to 1 -> unfragmented message / last messages of a streaming sequence
+            handleUnfragmentedMessage(b, framePayload);
+        }
+        else {
+            // FIN bit set to 0 -> fragmented message
+            handleFragmentedMessage(b, framePayload);
+        }
+    }
+
     /**
      * This method is called when a received frame has the FIN bit set to 0.
      * @param b an integer containing the first 8 bits [FIN (1), RSV1 (1), RSV2 (1), RSV3 (1), OP_CODE (4)] of the frame
      */
-    private void handleFragmentedMessage(int b) {
+    private void handleFragmentedMessage(int b, byte[] payload) {
         if (b == 0x0) {
             // intermediate continuation frame
             if (inStream) {
-                handleContinuationFrame(false);
+                handleContinuationFrame(false, payload);
             }
             else {
                 handleProtocolError("received a continuation frame without being in a streaming sequence");
@@ -162,7 +321,7 @@ public class WebSocketReceiver extends Thread {
             else {
                 inStream = true;
                 initialFrameOpCode = 0x1;
-                handleTextFrame(false);
+                handleTextFrame(false, payload);
             }
         }
         else if (b == 0x2) {
@@ -173,7 +332,7 @@ public class WebSocketReceiver extends Thread {
             else {
                 inStream = true;
                 initialFrameOpCode = 0x2;
-                handleBinaryFrame(false);
+                handleBinaryFrame(false, payload);
             }
         }
         else {
@@ -186,11 +345,11 @@ public class WebSocketReceiver extends Thread {
      * message or the final chunk of a fragmented message.
      * @param b an integer containing the first 8 bits [FIN (1), RSV1 (1), RSV2 (1), RSV3 (1), OP_CODE (4)] of the frame
      */
-    private void handleUnfragmentedMessage(int b) {
+    private void handleUnfragmentedMessage(int b, byte[] payload) {
         if (b == 0x80) {
             if (inStream) {
                 // last continuation frame of a streaming sequence received
-                handleContinuationFrame(true);
+                handleContinuationFrame(true, payload);
 
                 // leave streaming mode
                 inStream = false;
@@ -206,7 +365,7 @@ public class WebSocketReceiver extends Thread {
             }
             else {
                 // op code == %x1 -> text frame
-                handleTextFrame(true);
+                handleTextFrame(true, payload);
             }
         }
         else if (b == 0x82) {
@@ -215,7 +374,7 @@ public class WebSocketReceiver extends Thread {
             }
             else {
                 // op code == %x2 -> binary frame
-                handleBinaryFrame(true);
+                handleBinaryFrame(true, payload);
             }
         }
         /*
@@ -226,8 +385,14 @@ public class WebSocketReceiver extends Thread {
         else if (b == 0x88) {
             // op code == %x8 -> connection close
             if (waitingForServerClosingHandshake) {
-                ws.onServerClosingHandshake();
                 waitingForServerClosingHandshake = false;
+                stopIt();
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        ws.onServerClosingHandshake();
+                    }
+                });
             }
             else {
                 // server initiating connection close
@@ -236,189 +401,221 @@ public class WebSocketReceiver extends Thread {
         }
         else if (b == 0x89) {
             // op code == %x9 -> ping frame
-            handlePingFrame();
+            handlePingFrame(payload);
         }
         else if (b == 0x8A) {
             // op code == %xA -> pong frame
-            handlePongFrame();
+            handlePongFrame(payload);
         }
         else {
             handleProtocolError("unsupported op code: " + (b & 0x7F));
         }
     }
 
-    private void handleContinuationFrame(final boolean isFinalChunk) {
+    private void handleContinuationFrame(final boolean isFinalChunk, byte[] payload) {
         if (initialFrameOpCode == 0x1) {
-            handleTextFrame(isFinalChunk);
+            handleTextFrame(isFinalChunk, payload);
         }
         else if (initialFrameOpCode == 0x2) {
-            handleBinaryFrame(isFinalChunk);
+            handleBinaryFrame(isFinalChunk, payload);
         }
         else {
             throw new IllegalStateException("being in a streaming sequence an initialFrameOpCode must be either 0x1 or 0x2");
         }
     }
 	
-	private void handleTextFrame(final boolean isFinalChunk) {
-		handlePayload(true, isFinalChunk, PayloadOrigin.DATA_FRAME);
+	private void handleTextFrame(final boolean isFinalChunk, byte[] payload) {
+		handlePayload(true, isFinalChunk, PayloadOrigin.DATA_FRAME, payload);
 	}
 
-    private void handleBinaryFrame(final boolean isFinalChunk) {
-        handlePayload(false, isFinalChunk, PayloadOrigin.DATA_FRAME);
+    private void handleBinaryFrame(final boolean isFinalChunk, byte[] payload) {
+        handlePayload(false, isFinalChunk, PayloadOrigin.DATA_FRAME, payload);
     }
 
-    private void handlePayload(final boolean textFrame, final boolean isFinalChunk, final PayloadOrigin payloadOrigin) {
-        //log.debug(getClass(), "### ### ### handlePayload()");
-        long payloadSize = 0;
+    private void handlePayload(final boolean textFrame, final boolean isFinalChunk, final PayloadOrigin payloadOrigin,
+                               final byte[] payload) {
+        final long frameArrivalNanos = arrivalNanos;
 
         try {
-            int m = is.read();
-
-            if (m >= 128) {
-                // payload is masked
-                handleProtocolError("server has unexpectedly sent masked data");
-            }
-            else {
-                // payload is NOT masked
-
-                if (m <= 125) {
-                    // 7 bit payload length
-                    payloadSize = m;
-                    //log.debug(getClass(), "handlePayload() # payloadSize -> " + payloadSize);
-                }
-                else if (m == 126) {
-                    // following 2 bytes (16 bit) determine the payload length
-                    int p1 = is.read();
-                    int p2 = is.read();
-
-                    payloadSize = (p1 << 8) | p2;
-                    //log.debug(getClass(), "handlePayload() # payloadSize -> " + payloadSize);
-                }
-                else if (m == 127) {
-                    // following 8 bytes (64 bit) determine the payload length
-                    int p1 = is.read();
-                    int p2 = is.read();
-                    int p3 = is.read();
-                    int p4 = is.read();
-                    int p5 = is.read();
-                    int p6 = is.read();
-                    int p7 = is.read();
-                    int p8 = is.read();
-
-                    payloadSize = (p1 << 8) | p2;
-                    payloadSize = (payloadSize << 8) | p3;
-                    payloadSize = (payloadSize << 8) | p4;
-                    payloadSize = (payloadSize << 8) | p5;
-                    payloadSize = (payloadSize << 8) | p6;
-                    payloadSize = (payloadSize << 8) | p7;
-                    payloadSize = (payloadSize << 8) | p8;
-
-                    //log.debug(getClass(), "handlePayload() # payloadSize -> " + payloadSize);
-                }
-
-
-                if (payloadSize > Integer.MAX_VALUE) {
-                    handleProtocolError("data with payload length > " + Integer.MAX_VALUE + " bytes is not supported yet");
-                }
-                else {
-                    byte[] payload = new byte[ (int) payloadSize];
-                    int bytesRead       = 0;
-                    int totalBytesRead  = 0;
-                    while (totalBytesRead < payloadSize) {
-                        bytesRead = is.read(payload, totalBytesRead, payload.length-totalBytesRead);
-                        //log.debug(getClass(), "### ### ### bytesRead -> " + bytesRead);
-                        if (bytesRead == -1) {
-                            break;
-                        }
-                        else {
-                            totalBytesRead += bytesRead;
-                        }
-                    }
-
-                    //log.debug(getClass(), "### ### ### totalBytesRead -> " + totalBytesRead);
-                    //log.debug(getClass(), "### ### ### ### payloadOrigin: " + payloadOrigin + " # isFinalChunk: " + isFinalChunk + " # inStream: " + inStream + " # textFrame: " + textFrame);
-
-                    if (bytesRead == -1) {
-                        handleEndOfStream();
-                    }
-                    else {
-                        if (payloadOrigin == PayloadOrigin.PING_FRAME) {
+            if (payloadOrigin == PayloadOrigin.PING_FRAME) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        WebSocketListener webSocketListener = recordLatency(frameArrivalNanos);
+                        ws.onPing(payload);
+
+                        if (webSocketListener != null) {
                             if (payload.length > 0) {
-                                if (webSocketListener != null) {
-                                    webSocketListener.onPing(payload);
-                                }
+                                webSocketListener.onPing(payload);
                             }
                             else {
-                                if (webSocketListener != null) {
-                                    webSocketListener.onPing();
-                                }
+                                webSocketListener.onPing();
                             }
                         }
-                        else if (payloadOrigin == PayloadOrigin.PONG_FRAME) {
+                    }
+                });
+            }
+            else if (payloadOrigin == PayloadOrigin.PONG_FRAME) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        WebSocketListener webSocketListener = recordLatency(frameArrivalNanos);
+                        ws.onPong(payload);
+
+                        if (webSocketListener != null) {
                             if (payload.length > 0) {
-                                if (webSocketListener != null) {
-                                    webSocketListener.onPong(payload);
-                                }
+                                webSocketListener.onPong(payload);
                             }
                             else {
-                                if (webSocketListener != null) {
-                                    webSocketListener.onPong();
-                                }
+                                webSocketListener.onPong();
                             }
                         }
-                        else if (payloadOrigin == PayloadOrigin.DATA_FRAME) {
-                            if (inStream) {
-                                if (textFrame) {
-                                    if (webSocketListener != null) {
-                                        webSocketListener.onMessageChunk(new String(payload, "UTF-8"), isFinalChunk);
-                                    }
-                                }
-                                else {
-                                    if (webSocketListener != null) {
-                                        webSocketListener.onMessageChunk(payload, isFinalChunk);
-                                    }
-                                }
+                    }
+                });
+            }
+            else if (payloadOrigin == PayloadOrigin.DATA_FRAME) {
+                // a compressed frame is inflated into the buffer of the extension, only binary data is copied out
+                byte[] data = payload;
+                int length  = payload.length;
+                if (compressedMessage) {
+                    length  = deflate.decompress(payload, isFinalChunk);
+                    data    = textFrame ? deflate.getDecompressed() : Arrays.copyOf(deflate.getDecompressed(), length);
+                }
+
+                // decoded here, as the buffer of the extension is reused by the next frame
+                final boolean chunk = inStream;
+                final String text   = !textFrame ? null
+                                                 : chunk && compressedMessage ? decodeTextChunk(data, length, isFinalChunk)
+                                                 : new String(data, 0, length, "UTF-8");
+                final byte[] binary = data;
+
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        WebSocketListener webSocketListener = recordLatency(frameArrivalNanos);
+                        if (webSocketListener == null) {
+                            return;
+                        }
+
+                        if (chunk) {
+                            if (textFrame) {
+                                webSocketListener.onMessageChunk(text, isFinalChunk);
                             }
                             else {
-                                if (textFrame) {
-                                    if (webSocketListener != null) {
-                                        webSocketListener.onMessage(new String(payload, "UTF-8"));
-                                    }
-                                }
-                                else {
-                                    if (webSocketListener != null) {
-                                        webSocketListener.onMessage(payload);
-                                    }
-                                }
+                                webSocketListener.onMessageChunk(binary, isFinalChunk);
                             }
                         }
                         else {
-                            throw new RuntimeException("invalid payloadOrigin");
+                            if (textFrame) {
+                                webSocketListener.onMessage(text);
+                            }
+                            else {
+                                webSocketListener.onMessage(binary);
+                            }
                         }
                     }
-                }
+                });
+            }
+            else {
+                throw new RuntimeException("invalid payloadOrigin");
             }
-            //log.debug(getClass(), "handlePayload() # END");
+        }
+        catch (PerMessageDeflate.MessageTooLargeException mtle) {
+            handleMessageTooLarge(mtle.getMessage());
         }
         catch (IOException ioe) {
             handleError(ioe);
         }
     }
 
-    private void handlePingFrame() {
-        handlePayload(false, true, PayloadOrigin.PING_FRAME);
+    /**
+     * Records the time between the arrival of the last chunk of a frame and its callback.
+     * @return the listener to notify, looked up per frame, as the listener of a connected websocket may be
+     * replaced (e.g. by a pool)
+     */
+    private WebSocketListener recordLatency(long frameArrivalNanos) {
+        stats.getReceiveLatency().record(System.nanoTime() - frameArrivalNanos);
+        return ws.getWebSocketListener();
+    }
+
+    /**
+     * Decodes a chunk of a compressed text message. The frame boundaries fall anywhere in the decompressed text,
+     * so a character split by them is kept back and completed by the next chunk.
+     */
+    private String decodeTextChunk(byte[] data, int length, boolean isFinalChunk) throws IOException {
+        if (utf8Remainder.length > 0) {
+            byte[] joined = new byte[utf8Remainder.length + length];
+            System.arraycopy(utf8Remainder, 0, joined, 0, utf8Remainder.length);
+            System.arraycopy(data, 0, joined, utf8Remainder.length, length);
+            data    = joined;
+            length  = joined.length;
+        }
+
+        int complete    = isFinalChunk ? length : getCompleteUtf8Length(data, length);
+        utf8Remainder   = complete == length ? EMPTY_PAYLOAD : Arrays.copyOfRange(data, complete, length);
+
+        return new String(data, 0, complete, "UTF-8");
+    }
+
+    /**
+     * @return the length of the longest prefix that does not end with an incomplete UTF-8 sequence
+     */
+    private static int getCompleteUtf8Length(byte[] data, int length) {
+        // a sequence has at most 4 bytes, so only the last 3 bytes can belong to an incomplete one
+        for (int i = length - 1; i >= 0 && i >= length - 3; i--) {
+            int b = data[i] & 0xFF;
+            if (b < 0x80) {
+                return length;
+            }
+            if (b >= 0xC0) {
+                // lead byte of a sequence of 2, 3 or 4 bytes
+                int size = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+                return i + size > length ? i : length;
+            }
+        }
+
+        return length;
+    }
+
+    private void handlePingFrame(byte[] payload) {
+        handlePayload(false, true, PayloadOrigin.PING_FRAME, payload);
     }
 
-    private void handlePongFrame() {
-        handlePayload(false, true, PayloadOrigin.PONG_FRAME);
+    private void handlePongFrame(byte[] payload) {
+        handlePayload(false, true, PayloadOrigin.PONG_FRAME, payload);
     }
 	
 	private void handleCloseFrame() {
-		ws.closeSilently();
+        // nothing follows a close frame, the data read behind it is discarded right away
+        stopIt();
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                ws.closeSilently();
+            }
+        });
 	}
 
-    private void handleProtocolError(String reason) {
-        ws.handleReceiverError(reason);
+    private void handleProtocolError(final String reason) {
+        // the decoder cannot resynchronize with the byte stream after a protocol error
+        stopIt();
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                ws.handleReceiverError(reason);
+            }
+        });
+    }
+
+    private void handleMessageTooLarge(final String reason) {
+        // the rest of the message is not read, so the decoder cannot go on either
+        stopIt();
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                ws.handleReceiverError(WebSocketClosureStatusCode.MESSAGE_TOO_LARGE, reason);
+            }
+        });
     }
 
     /* ######################################################################## */
@@ -428,4 +625,8 @@ public class WebSocketReceiver extends Thread {
     private enum PayloadOrigin {
         DATA_FRAME, PING_FRAME, PONG_FRAME
     }
+
+    private enum DecoderState {
+        FIRST_BYTE, PAYLOAD_LENGTH, EXTENDED_PAYLOAD_LENGTH, PAYLOAD
+    }
 }
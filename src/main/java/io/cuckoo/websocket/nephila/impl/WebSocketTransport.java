@@ -0,0 +1,70 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketException;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * A transport is the byte pipe a {@link DefaultWebSocket} talks through. The opening handshake is
+ * always done synchronously through the blocking streams of the transport, afterwards the
+ * transport delivers all incoming data to a {@link WebSocketReceiver} in its own way
+ * (dedicated thread, shared event loop, ...).
+ */
+public interface WebSocketTransport {
+
+    /**
+     * Establishes the underlying connection. Blocks until the connection is ready for the opening handshake.
+     */
+    void connect(URI uri) throws WebSocketException, IOException;
+
+    /**
+     * @return a blocking input stream that is used to read the server opening handshake
+     */
+    TimestampingInputStream getInputStream();
+
+    /**
+     * @return a blocking output stream that is used to write the opening handshake and all subsequent frames
+     */
+    OutputStream getOutputStream();
+
+    /**
+     * Starts delivering incoming data (including data that has already been buffered by the input stream)
+     * to the given receiver.
+     */
+    void startReceiving(WebSocketReceiver receiver);
+
+    boolean isOutputOpen();
+
+    /**
+     * @return the session of a wss connection once the TLS handshake has been completed, otherwise null
+     */
+    SSLSession getTlsSession();
+
+    void close() throws IOException;
+}
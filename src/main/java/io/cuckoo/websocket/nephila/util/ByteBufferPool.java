@@ -0,0 +1,132 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized direct byte buffers. Allocating direct buffers is expensive and their
+ * memory is only reclaimed lazily, so transports borrow them from a pool that can be shared by many connections.
+ */
+public class ByteBufferPool {
+
+    public static final int BUFFER_SIZE         = 17 * 1024;   // large enough for a TLS record (16 KB plus overhead)
+
+    public static final int MAX_POOLED_BUFFERS  = 1024;
+
+    private static ByteBufferPool defaultPool;
+
+    private final int               bufferSize;
+    private final int               maxPooledBuffers;
+    private final Queue<ByteBuffer> buffers;
+    private final AtomicInteger     pooledBuffers;
+    private final AtomicInteger     allocatedBuffers;
+
+    public ByteBufferPool() {
+        this(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    }
+
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+
+        if (maxPooledBuffers < 0) {
+            throw new IllegalArgumentException("maxPooledBuffers is negative");
+        }
+
+        this.bufferSize         = bufferSize;
+        this.maxPooledBuffers   = maxPooledBuffers;
+        this.buffers            = new ConcurrentLinkedQueue<ByteBuffer>();
+        this.pooledBuffers      = new AtomicInteger();
+        this.allocatedBuffers   = new AtomicInteger();
+    }
+
+    /**
+     * @return the lazily created pool that is shared by all websockets without an explicitly assigned pool
+     */
+    public static synchronized ByteBufferPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new ByteBufferPool();
+        }
+
+        return defaultPool;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @return a cleared direct buffer, either taken from the pool or newly allocated
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooledBuffers.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+
+        allocatedBuffers.incrementAndGet();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            return;
+        }
+
+        if (pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+            buffers.add(buffer);
+        }
+        else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the number of buffers currently available in the pool
+     */
+    public int getPooledCount() {
+        return pooledBuffers.get();
+    }
+
+    /**
+     * @return the number of buffers this pool has allocated so far
+     */
+    public int getAllocatedCount() {
+        return allocatedBuffers.get();
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of raw (nowrap) {@link Deflater}s and {@link Inflater}s. Each of them holds native zlib state of
+ * up to a few hundred kilobytes that is only freed by {@code end()} or the garbage collector, so connections that
+ * compress borrow them from a pool that can be shared by many connections.
+ */
+public class CompressorPool {
+
+    public static final int MAX_POOLED_COMPRESSORS  = 256;
+
+    private static CompressorPool defaultPool;
+
+    private final int               maxPooledCompressors;
+    private final Queue<Deflater>   deflaters;
+    private final Queue<Inflater>   inflaters;
+    private final AtomicInteger     pooledDeflaters;
+    private final AtomicInteger     pooledInflaters;
+
+    public CompressorPool() {
+        this(MAX_POOLED_COMPRESSORS);
+    }
+
+    /**
+     * @param maxPooledCompressors the maximum number of idle deflaters and of idle inflaters each
+     */
+    public CompressorPool(int maxPooledCompressors) {
+        if (maxPooledCompressors < 0) {
+            throw new IllegalArgumentException("maxPooledCompressors is negative");
+        }
+
+        this.maxPooledCompressors   = maxPooledCompressors;
+        this.deflaters              = new ConcurrentLinkedQueue<Deflater>();
+        this.inflaters              = new ConcurrentLinkedQueue<Inflater>();
+        this.pooledDeflaters        = new AtomicInteger();
+        this.pooledInflaters        = new AtomicInteger();
+    }
+
+    /**
+     * @return the lazily created pool that is shared by all websockets without an explicitly assigned pool
+     */
+    public static synchronized CompressorPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new CompressorPool();
+        }
+
+        return defaultPool;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @return a reset deflater of the given level, either taken from the pool or newly created
+     */
+    public Deflater acquireDeflater(int level) {
+        Deflater deflater = deflaters.poll();
+        if (deflater != null) {
+            pooledDeflaters.decrementAndGet();
+            deflater.setLevel(level);
+            return deflater;
+        }
+
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Returns a deflater to the pool. The deflater must not be used by the caller afterwards.
+     */
+    public void releaseDeflater(Deflater deflater) {
+        if (deflater == null) {
+            return;
+        }
+
+        deflater.reset();
+        if (pooledDeflaters.incrementAndGet() <= maxPooledCompressors) {
+            deflaters.add(deflater);
+        }
+        else {
+            pooledDeflaters.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return a reset inflater, either taken from the pool or newly created
+     */
+    public Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        if (inflater != null) {
+            pooledInflaters.decrementAndGet();
+            return inflater;
+        }
+
+        return new Inflater(true);
+    }
+
+    /**
+     * Returns an inflater to the pool. The inflater must not be used by the caller afterwards.
+     */
+    public void releaseInflater(Inflater inflater) {
+        if (inflater == null) {
+            return;
+        }
+
+        inflater.reset();
+        if (pooledInflaters.incrementAndGet() <= maxPooledCompressors) {
+            inflaters.add(inflater);
+        }
+        else {
+            pooledInflaters.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the number of deflaters currently available in the pool
+     */
+    public int getPooledDeflaterCount() {
+        return pooledDeflaters.get();
+    }
+
+    /**
+     * @return the number of inflaters currently available in the pool
+     */
+    public int getPooledInflaterCount() {
+        return pooledInflaters.get();
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.cuckoo.websocket.nephila.util;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a preset dictionary for {@link io.cuckoo.websocket.nephila.CompressionPolicy#setDictionary(byte[])} from
+ * sample messages. Deflate only profits from long contiguous matches, so the dictionary is made of segments of the
+ * samples rather than of single strings: the samples are split into one epoch per segment, and of each epoch the
+ * segment is chosen whose 8 byte substrings occur in the most messages, not counting substrings of segments chosen
+ * before (a simplified form of the cover algorithm of zstd). The best segments are placed at the end of the
+ * dictionary, where matches are closest and cheapest to encode.
+ *
+ * Run with a corpus of recorded text messages, one per line, e.g.
+ * {@code java ... DictionaryBuilder messages.txt messages.dict 4096}.
+ */
+public class DictionaryBuilder {
+
+    public static final int MAX_SIZE            = 4096;
+
+    public static final int MAX_SAMPLE_SIZE     = 1024 * 1024;
+
+    private static final int SUBSTRING_LENGTH   = 8;
+
+    private static final int SEGMENT_LENGTH     = 64;
+
+    private static final String CHARSET         = "ISO-8859-1";    // maps every byte to one char and back
+
+    private final StringBuilder         samples;
+    private final Map<String, int[]>    counts;     // of the messages containing a substring
+    private int                         maxSize;
+    private int                         messages;
+
+    public DictionaryBuilder() {
+        this.samples    = new StringBuilder();
+        this.counts     = new HashMap<String, int[]>();
+        this.maxSize    = MAX_SIZE;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize the maximum size of the dictionary, at most 32 KB; a larger dictionary finds more matches but
+     *                costs more cpu, as it is loaded into the deflater and inflater of every message
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < SEGMENT_LENGTH || maxSize > 32 * 1024) {
+            throw new IllegalArgumentException("maxSize must be between 64 bytes and 32 KB");
+        }
+
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the number of messages that have been sampled
+     */
+    public int getMessages() {
+        return messages;
+    }
+
+    /**
+     * Samples a message. Messages beyond the first megabyte are ignored, as the counts take a multiple of that
+     * memory.
+     *
+     * @return false if the message has been ignored
+     */
+    public boolean add(byte[] message) {
+        if (message == null) {
+            throw new IllegalArgumentException("message is null");
+        }
+
+        if (samples.length() + message.length > MAX_SAMPLE_SIZE) {
+            return false;
+        }
+
+        String s = toString(message);
+        samples.append(s);
+        messages++;
+
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i + SUBSTRING_LENGTH <= s.length(); i++) {
+            String substring = s.substring(i, i + SUBSTRING_LENGTH);
+            if (seen.add(substring)) {
+                int[] count = counts.get(substring);
+                if (count == null) {
+                    counts.put(substring, new int[] { 1 });
+                }
+                else {
+                    count[0]++;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the dictionary, smaller than the maximum size if the samples are, or empty if there are none
+     */
+    public byte[] build() {
+        int segments = Math.min(maxSize, samples.length()) / SEGMENT_LENGTH;
+        if (segments == 0) {
+            return new byte[0];
+        }
+
+        int epochLength = samples.length() / segments;
+        final Map<String, Long> scores = new HashMap<String, Long>();
+        List<String> chosen = new ArrayList<String>();
+
+        for (int epoch = 0; epoch < segments; epoch++) {
+            int begin = epoch * epochLength;
+            int end = Math.min(begin + Math.max(epochLength, SEGMENT_LENGTH), samples.length());
+
+            String best = null;
+            long bestScore = 0;
+            for (int i = begin; i + SEGMENT_LENGTH <= end; i++) {
+                long score = getScore(i);
+                if (score > bestScore) {
+                    best = samples.substring(i, i + SEGMENT_LENGTH);
+                    bestScore = score;
+                }
+            }
+
+            if (best == null) {
+                continue;
+            }
+
+            // the substrings of a chosen segment are already covered by the dictionary
+            for (int i = 0; i + SUBSTRING_LENGTH <= best.length(); i++) {
+                counts.remove(best.substring(i, i + SUBSTRING_LENGTH));
+            }
+
+            chosen.add(best);
+            scores.put(best, bestScore);
+        }
+
+        Collections.sort(chosen, new Comparator<String>() {
+            @Override
+            public int compare(String s1, String s2) {
+                return scores.get(s1).compareTo(scores.get(s2));
+            }
+        });
+
+        StringBuilder dictionary = new StringBuilder(chosen.size() * SEGMENT_LENGTH);
+        for (String segment : chosen) {
+            dictionary.append(segment);
+        }
+
+        try {
+            return dictionary.toString().getBytes(CHARSET);
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    /**
+     * @return the number of messages containing each of the substrings of the segment at the index, substrings
+     * that only occur in a single message do not count
+     */
+    private long getScore(int index) {
+        long score = 0;
+        for (int i = index; i + SUBSTRING_LENGTH <= index + SEGMENT_LENGTH; i++) {
+            int[] count = counts.get(samples.substring(i, i + SUBSTRING_LENGTH));
+            if (count != null && count[0] > 1) {
+                score += count[0];
+            }
+        }
+
+        return score;
+    }
+
+    private static String toString(byte[] message) {
+        try {
+            return new String(message, CHARSET);
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @param args the corpus file of UTF-8 text messages, one per line, the dictionary file to write and optionally
+     *             the maximum size of the dictionary
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: DictionaryBuilder <corpus file> <dictionary file> [max size]");
+            System.exit(1);
+        }
+
+        DictionaryBuilder builder = new DictionaryBuilder();
+        if (args.length > 2) {
+            builder.setMaxSize(Integer.parseInt(args[2]));
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null && builder.add(line.getBytes("UTF-8"))) {
+                // sample until the end of the corpus or the maximum sample size
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        byte[] dictionary = builder.build();
+        OutputStream out = new FileOutputStream(args[1]);
+        try {
+            out.write(dictionary);
+        }
+        finally {
+            out.close();
+        }
+
+        System.out.println("built a dictionary of " + dictionary.length + " bytes from " + builder.getMessages()
+                           + " messages");
+    }
+}
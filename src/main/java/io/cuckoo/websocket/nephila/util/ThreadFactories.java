@@ -0,0 +1,96 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factories for the threads that run the receive loops.
+ */
+public final class ThreadFactories {
+
+    private ThreadFactories() {
+    }
+
+    /**
+     * @return a factory creating conventional platform threads with the given name
+     */
+    public static ThreadFactory platform(final String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, name);
+            }
+        };
+    }
+
+    /**
+     * @return a factory creating virtual threads, named with the given prefix and a counter
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads (Java 21+)
+     */
+    public static ThreadFactory virtual(String namePrefix) {
+        if (namePrefix == null) {
+            throw new IllegalArgumentException("namePrefix is null");
+        }
+
+        // resolved reflectively, so that the library still runs on older JVMs and Android
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (ClassNotFoundException e) {
+            throw new UnsupportedOperationException("virtual threads are not supported on this platform");
+        }
+        catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("virtual threads are not supported on this platform");
+        }
+        catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("virtual threads are not accessible: " + e.getMessage());
+        }
+        catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("virtual threads are not available: " + e.getCause());
+        }
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            return ofVirtual != null;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingHostResolverTest {
+
+    @Test
+    public void testResolvedAddressesAreCachedWithinTtl() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingHostResolver resolver = new CachingHostResolver(delegate, 60000, 60000);
+
+        InetAddress[] first = resolver.resolve("localhost");
+        InetAddress[] second = resolver.resolve("LOCALHOST");
+
+        assertEquals(1, delegate.lookups.get());
+        assertArrayEquals(first, second);
+        assertEquals(1, resolver.size());
+
+        // callers get their own copy of the cached addresses
+        second[0] = null;
+        assertNotNull(resolver.resolve("localhost")[0]);
+    }
+
+    @Test
+    public void testResolvedAddressesExpireAfterTtl() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingHostResolver resolver = new CachingHostResolver(delegate, 50, 60000);
+
+        resolver.resolve("localhost");
+        resolver.resolve("localhost");
+        assertEquals(1, delegate.lookups.get());
+
+        Thread.sleep(100);
+
+        resolver.resolve("localhost");
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void testUnknownHostsAreCachedNegatively() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingHostResolver resolver = new CachingHostResolver(delegate, 60000, 50);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                resolver.resolve("unknown.invalid");
+                fail();
+            }
+            catch (UnknownHostException uhe) {
+                assertEquals("unknown.invalid", uhe.getMessage());
+            }
+        }
+        assertEquals(1, delegate.lookups.get());
+
+        Thread.sleep(100);
+
+        try {
+            resolver.resolve("unknown.invalid");
+            fail();
+        }
+        catch (UnknownHostException uhe) {
+            // expected
+        }
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void testZeroNegativeTtlDisablesNegativeCaching() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingHostResolver resolver = new CachingHostResolver(delegate, 60000, 0);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                resolver.resolve("unknown.invalid");
+                fail();
+            }
+            catch (UnknownHostException uhe) {
+                // expected
+            }
+        }
+        assertEquals(3, delegate.lookups.get());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingHostResolver resolver = new CachingHostResolver(delegate, 60000, 60000);
+
+        resolver.resolve("localhost");
+        resolver.clear();
+        assertEquals(0, resolver.size());
+
+        resolver.resolve("localhost");
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void testHostsAreCaseInsensitiveInEveryLocale() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));  // lower cases I to a dotless i
+        try {
+            CountingResolver delegate = new CountingResolver();
+            CachingHostResolver resolver = new CachingHostResolver(delegate, 60000, 60000);
+
+            resolver.resolve("WIKI.example");
+            resolver.resolve("wiki.example");
+            assertEquals(1, delegate.lookups.get());
+        }
+        finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testExpiredEntriesAreEvicted() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingHostResolver resolver = new CachingHostResolver(delegate, 50, 50, 2);
+
+        resolver.resolve("a.example");
+        resolver.resolve("b.example");
+        assertEquals(2, resolver.size());
+
+        Thread.sleep(100);
+
+        // the full cache drops its expired entries to make room
+        resolver.resolve("c.example");
+        assertEquals(1, resolver.size());
+    }
+
+    @Test
+    public void testSizeIsCapped() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingHostResolver resolver = new CachingHostResolver(delegate, 60000, 60000, 2);
+
+        resolver.resolve("a.example");
+        resolver.resolve("b.example");
+        resolver.resolve("c.example");
+        assertEquals(2, resolver.size());
+
+        // the newest host is always cached
+        resolver.resolve("c.example");
+        assertEquals(3, delegate.lookups.get());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeTtl() {
+        new CachingHostResolver(new CountingResolver(), -1, 0);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static class CountingResolver implements HostResolver {
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (host.endsWith(".invalid")) {
+                throw new UnknownHostException(host);
+            }
+
+            return new InetAddress[] { InetAddress.getByAddress(host, new byte[] { 127, 0, 0, 1 }) };
+        }
+    }
+}
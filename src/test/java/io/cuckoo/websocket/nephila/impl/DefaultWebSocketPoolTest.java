@@ -0,0 +1,196 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocket;
+import io.cuckoo.websocket.nephila.WebSocketClient;
+import io.cuckoo.websocket.nephila.WebSocketListener;
+import io.cuckoo.websocket.nephila.WebSocketPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class DefaultWebSocketPoolTest {
+
+    private LocalEchoServer server;
+    private WebSocketClient client;
+    private URI             uri;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalEchoServer(0);
+        server.start();
+        client = new DefaultWebSocketClient(new DefaultWebSocketConfig());
+        uri = new URI("ws://localhost:" + server.getPort() + "/echo");
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testAcquireReplenishesPool() throws Exception {
+        WebSocketPool pool = new DefaultWebSocketPool(client, uri, new String[0], 2, 60000);
+
+        try {
+            awaitIdleCount(pool, 2);
+            assertEquals(2, server.getAcceptedCount());
+
+            CollectingListener collectingListener = new CollectingListener();
+            WebSocket ws = pool.acquire(collectingListener);
+            assertTrue(ws.isConnected());
+            assertEquals(1, collectingListener.connects);
+
+            // the listener of the pool has been replaced by the one of the caller
+            ws.send("TEST");
+            Thread.sleep(200);
+            assertEquals("TEST", collectingListener.messages.get(0));
+
+            // a replacement has been connected in the background
+            awaitIdleCount(pool, 2);
+            assertEquals(3, server.getAcceptedCount());
+
+            ws.close();
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testClosedIdleWebSocketIsDiscarded() throws Exception {
+        WebSocketPool pool = new DefaultWebSocketPool(client, uri, new String[0], 1, 60000);
+
+        try {
+            awaitIdleCount(pool, 1);
+
+            server.dropConnections();
+            Thread.sleep(200);
+            awaitIdleCount(pool, 1);
+
+            // the lost websocket has been removed from the client, and replaced by a new connection
+            assertEquals(2, server.getAcceptedCount());
+            assertEquals(1, client.getWebSockets().size());
+
+            CollectingListener collectingListener = new CollectingListener();
+            WebSocket ws = pool.acquire(collectingListener);
+            assertTrue(ws.isConnected());
+            ws.send("TEST");
+            Thread.sleep(200);
+            assertEquals("TEST", collectingListener.messages.get(0));
+
+            ws.close();
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPingedWebSocketsStayIdle() throws Exception {
+        WebSocketPool pool = new DefaultWebSocketPool(client, uri, new String[0], 2, 50);
+
+        try {
+            awaitIdleCount(pool, 2);
+
+            // answered pings put the websockets back into the pool, while acquire() keeps handing them out
+            for (int i = 0; i < 10; i++) {
+                Thread.sleep(30);
+                CollectingListener collectingListener = new CollectingListener();
+                WebSocket ws = pool.acquire(collectingListener);
+                ws.send("TEST " + i);
+                Thread.sleep(30);
+
+                assertTrue(ws.isConnected());
+                assertEquals("TEST " + i, collectingListener.messages.get(0));
+                ws.close();
+            }
+
+            awaitIdleCount(pool, 2);
+            assertEquals(12, server.getAcceptedCount());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static void awaitIdleCount(WebSocketPool pool, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && pool.getIdleCount() != count; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, pool.getIdleCount());
+    }
+
+    private static class CollectingListener implements WebSocketListener {
+        private final List<String>  messages    = new CopyOnWriteArrayList<String>();
+        private volatile int        connects;
+
+        @Override
+        public void onConnect() {
+            connects++;
+        }
+
+        @Override
+        public void onClose() {}
+
+        @Override
+        public void onMessage(String message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onMessage(byte[] message) {}
+
+        @Override
+        public void onMessageChunk(String messageChunk, boolean isFinalChunk) {}
+
+        @Override
+        public void onMessageChunk(byte[] messageChunk, boolean isFinalChunk) {}
+
+        @Override
+        public void onPing() {}
+
+        @Override
+        public void onPing(byte[] data) {}
+
+        @Override
+        public void onPong() {}
+
+        @Override
+        public void onPong(byte[] data) {}
+    }
+}
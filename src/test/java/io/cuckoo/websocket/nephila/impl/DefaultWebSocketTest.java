@@ -22,21 +22,48 @@
 
 package io.cuckoo.websocket.nephila.impl;
 
+import io.cuckoo.websocket.nephila.CompressionPolicy;
+import io.cuckoo.websocket.nephila.ConnectTimings;
+import io.cuckoo.websocket.nephila.HeartbeatPolicy;
+import io.cuckoo.websocket.nephila.PreparedMessage;
+import io.cuckoo.websocket.nephila.ReconnectPolicy;
 import io.cuckoo.websocket.nephila.WebSocket;
+import io.cuckoo.websocket.nephila.WebSocketClient;
 import io.cuckoo.websocket.nephila.WebSocketConfig;
 import io.cuckoo.websocket.nephila.WebSocketException;
 import io.cuckoo.websocket.nephila.WebSocketListener;
+import io.cuckoo.websocket.nephila.WebSocketReceiveMode;
+import io.cuckoo.websocket.nephila.WebSocketStats;
 import io.cuckoo.websocket.nephila.utils.ReceivingStreamWebSocketApplication;
 import io.cuckoo.websocket.nephila.utils.SendDataOnConnectWebSocketApplication;
 import io.cuckoo.websocket.nephila.utils.WebSocketServer;
+import io.cuckoo.websocket.nephila.util.ByteBufferPool;
+import io.cuckoo.websocket.nephila.util.DictionaryBuilder;
+import io.cuckoo.websocket.nephila.util.ThreadFactories;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import static org.junit.Assert.*;
 
@@ -109,6 +136,68 @@ public class DefaultWebSocketTest {
         assertFalse("disconnected, so receivingDataListener.isConnected() must return false", receivingDataListener.isConnected());
     }
 
+    @Test
+    public void testConnectAndCloseNow() throws Exception {
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        WebSocket ws = new DefaultWebSocket(receivingDataListener);
+        ws.connect(ECHO_URI);
+        assertTrue("connected, so ws.isConnected() must return true", ws.isConnected());
+        ws.closeNow();
+        assertFalse("closed without handshake, so ws.isConnected() must return false at once", ws.isConnected());
+        assertFalse("closed without handshake, so receivingDataListener.isConnected() must return false at once", receivingDataListener.isConnected());
+        ws.closeNow();
+    }
+
+    @Test
+    public void testConnectAsync() throws Exception {
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        WebSocket ws = new DefaultWebSocket(receivingDataListener);
+        CompletableFuture<WebSocket> future = ws.connectAsync(ECHO_URI);
+        assertSame("the future must be completed with the connecting websocket", ws, future.get(5, TimeUnit.SECONDS));
+        assertTrue("connected, so ws.isConnected() must return true", ws.isConnected());
+        ws.close();
+    }
+
+    @Test
+    public void testThreadsAreNamedAfterTheirPurpose() throws Exception {
+        final List<String> threadNames = new CopyOnWriteArrayList<String>();
+        WebSocket ws = new DefaultWebSocket(new DummyListener() {
+            @Override
+            public void onConnect() {
+                threadNames.add(Thread.currentThread().getName());
+            }
+
+            @Override
+            public void onMessage(String message) {
+                threadNames.add(Thread.currentThread().getName());
+            }
+        });
+
+        ws.connectAsync(ECHO_URI).get(5, TimeUnit.SECONDS);
+        ws.send("TEST");
+        Thread.sleep(200);
+
+        assertEquals(Arrays.asList(DefaultWebSocketConfig.CONNECT_THREAD_NAME, DefaultWebSocketConfig.THREAD_NAME),
+                     threadNames);
+        ws.close();
+    }
+
+    @Test
+    public void testSendWhileConnecting() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setEarlySendBufferSize(4);
+
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        WebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+        CompletableFuture<WebSocket> future = ws.connectAsync(ECHO_URI);
+        ws.send("TEST");
+        future.get(5, TimeUnit.SECONDS);
+        Thread.sleep(500);
+
+        assertEquals("sent while connecting, so the message must be echoed", "TEST", receivingDataListener.getText());
+        ws.close();
+    }
+
     @Test
     public void testConnectAndCloseWithString() throws Exception {
         ReceivingDataListener receivingDataListener = new ReceivingDataListener();
@@ -192,6 +281,16 @@ public class DefaultWebSocketTest {
         ws.close();
     }
 
+    @Test(expected=WebSocketException.class)
+    public void testInvalidUriSchemeWithSelectorTransport() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReceiveMode(WebSocketReceiveMode.SELECTOR);
+
+        WebSocket ws = new DefaultWebSocket(new DummyListener(), webSocketConfig);
+        ws.connect("http://localhost:8888/echo");
+        ws.close();
+    }
+
     @Test
     public void testSendString() throws Exception {
         WebSocket ws = new DefaultWebSocket(new WebSocketListener() {
@@ -268,6 +367,48 @@ public class DefaultWebSocketTest {
         ws.close();
     }
 
+    @Test
+    public void testBroadcastPreparedMessage() throws Exception {
+        WebSocketClient client = new DefaultWebSocketClient(new DefaultWebSocketConfig());
+
+        ReceivingDataListener[] listeners = new ReceivingDataListener[3];
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i] = new ReceivingDataListener();
+            client.createWebSocket(listeners[i]).connect(ECHO_URI);
+        }
+
+        // longer than 125 bytes, so that the extended payload length is used
+        char[] text = new char[1000];
+        Arrays.fill(text, 'x');
+        PreparedMessage message = PreparedMessage.text(new String(text));
+
+        assertTrue("broadcast must not fail", client.broadcast(message).isEmpty());
+        assertTrue("broadcast must not fail", client.broadcast(message).isEmpty());
+
+        Thread.sleep(500);
+
+        for (ReceivingDataListener listener : listeners) {
+            assertEquals("sent text must be equal to received text", new String(text), listener.getText());
+        }
+        assertEquals(6, client.getStats().getFramesReceived());
+
+        client.shutdown();
+    }
+
+    @Test
+    public void testWsOnlyClientDoesNotInitializeTls() throws Exception {
+        DefaultWebSocketClient client = new DefaultWebSocketClient(new DefaultWebSocketConfig());
+
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        client.createWebSocket(receivingDataListener).connect(ECHO_URI);
+
+        assertFalse("a ws connect must not initialize the ssl context", client.getTlsContext().isInitialized());
+        assertNotNull(client.getTlsContext().getSslContext());
+        assertTrue(client.getTlsContext().isInitialized());
+
+        client.shutdown();
+    }
+
     @Test
     public void testSendStringGreaterThan65535Bytes() throws Exception {
         // utf-8 encoded string with 65535*2 chars needs min. 65535*2 bytes
@@ -597,6 +738,797 @@ public class DefaultWebSocketTest {
         ws.close();
     }
 
+    @Test
+    public void testSendStringInBusySpinReceiveMode() throws Exception {
+        sendStringInReceiveMode(WebSocketReceiveMode.BUSY_SPIN);
+    }
+
+    @Test
+    public void testSendStringInSpinThenParkReceiveMode() throws Exception {
+        sendStringInReceiveMode(WebSocketReceiveMode.SPIN_THEN_PARK);
+    }
+
+    @Test
+    public void testSendStringInSelectorReceiveMode() throws Exception {
+        sendStringInReceiveMode(WebSocketReceiveMode.SELECTOR);
+    }
+
+    @Test
+    public void testSendStringInAsynchronousReceiveMode() throws Exception {
+        sendStringInReceiveMode(WebSocketReceiveMode.ASYNCHRONOUS);
+    }
+
+    @Test
+    public void testConnectionsShareAsynchronousChannelGroup() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReceiveMode(WebSocketReceiveMode.ASYNCHRONOUS);
+        AsynchronousChannelGroup channelGroup = AsynchronousChannelGroup.withFixedThreadPool(2, Executors.defaultThreadFactory());
+        ByteBufferPool byteBufferPool = new ByteBufferPool();
+
+        ReceivingDataListener[] listeners = new ReceivingDataListener[10];
+        DefaultWebSocket[] webSockets = new DefaultWebSocket[listeners.length];
+        for (int i = 0; i < webSockets.length; i++) {
+            listeners[i] = new ReceivingDataListener();
+            webSockets[i] = new DefaultWebSocket(listeners[i], webSocketConfig);
+            webSockets[i].setAsynchronousChannelGroup(channelGroup);
+            webSockets[i].setByteBufferPool(byteBufferPool);
+            webSockets[i].connect(ECHO_URI);
+            webSockets[i].send("TEST" + i);
+        }
+
+        Thread.sleep(1000);
+
+        for (int i = 0; i < webSockets.length; i++) {
+            assertEquals("Sent message must be equal to received message.", "TEST" + i, listeners[i].getText());
+            webSockets[i].close();
+        }
+
+        Thread.sleep(500);
+
+        assertEquals("all read buffers must have been returned to the pool",
+                byteBufferPool.getAllocatedCount(), byteBufferPool.getPooledCount());
+
+        channelGroup.shutdownNow();
+    }
+
+    @Test
+    public void testSendFromCallbackDoesNotDeadlockAsynchronousChannelGroup() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReceiveMode(WebSocketReceiveMode.ASYNCHRONOUS);
+        AsynchronousChannelGroup channelGroup = AsynchronousChannelGroup.withFixedThreadPool(1, Executors.defaultThreadFactory());
+
+        // larger than the socket buffers, so the writes only complete while the echo is being read
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1024 * 1024) {
+            sb.append(ALPHABET);
+        }
+        final String message = sb.toString();
+
+        final CountDownLatch echoed = new CountDownLatch(4);
+        final DefaultWebSocket[] holder = new DefaultWebSocket[1];
+        DefaultWebSocket ws = new DefaultWebSocket(new DummyListener() {
+            @Override
+            public void onMessage(String received) {
+                echoed.countDown();
+                if (echoed.getCount() > 0) {
+                    try {
+                        holder[0].send(received);
+                    }
+                    catch (WebSocketException wse) {
+                        throw new RuntimeException(wse);
+                    }
+                }
+            }
+        }, webSocketConfig);
+        holder[0] = ws;
+        ws.setAsynchronousChannelGroup(channelGroup);
+        ws.connect(ECHO_URI);
+
+        try {
+            ws.send(message);
+            assertTrue("the echoes must have been sent back from the callback", echoed.await(10, TimeUnit.SECONDS));
+        }
+        finally {
+            ws.closeNow();
+            channelGroup.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReceiverThreadIsCreatedByConfiguredThreadFactory() throws Exception {
+        final AtomicInteger createdThreads = new AtomicInteger();
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                createdThreads.incrementAndGet();
+                return new Thread(runnable, "CustomReceiver-Thread");
+            }
+        });
+
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        WebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+        ws.connect(ECHO_URI);
+        ws.send("TEST");
+        Thread.sleep(500);
+
+        assertEquals("the receiver thread must have been created by the configured thread factory", 1, createdThreads.get());
+        assertEquals("Sent message must be equal to received message.", "TEST", receivingDataListener.getText());
+
+        ws.close();
+    }
+
+    @Test
+    public void testHeartbeatMeasuresRoundTripTime() throws Exception {
+        HeartbeatPolicy heartbeatPolicy = new HeartbeatPolicy();
+        heartbeatPolicy.setIntervalMillis(100);
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setHeartbeatPolicy(heartbeatPolicy);
+
+        DefaultWebSocket ws = new DefaultWebSocket(new ReceivingDataListener(), webSocketConfig);
+        ws.connect(ECHO_URI);
+        Thread.sleep(550);
+
+        assertTrue("heartbeat pings must be answered", ws.getRoundTripNanos() > 0);
+        assertTrue(ws.getStats().getRoundTripTime().getCount() >= 4);
+        assertEquals(0, ws.getStats().getDeadPeers());
+        assertTrue(ws.isConnected());
+
+        ws.close();
+    }
+
+    @Test
+    public void testHeartbeatSkipsPingsBehindBlockedSender() throws Exception {
+        // stops reading after the first message, so that a large send blocks while holding the lock
+        LocalEchoServer server = new LocalEchoServer(0) {
+            @Override
+            protected void writeMessage(OutputStream out, int opCode, byte[] data, String extensions) throws Exception {
+                Thread.sleep(5000);
+            }
+        };
+        server.start();
+
+        HeartbeatPolicy heartbeatPolicy = new HeartbeatPolicy();
+        heartbeatPolicy.setIntervalMillis(100);
+        heartbeatPolicy.setMaxMissedPongs(3);
+
+        final AtomicInteger createdThreads = new AtomicInteger();
+        final ThreadFactory threadFactory = ThreadFactories.platform("Counting-Thread");
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setHeartbeatPolicy(heartbeatPolicy);
+        webSocketConfig.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                createdThreads.incrementAndGet();
+                return threadFactory.newThread(r);
+            }
+        });
+
+        final DefaultWebSocket ws = new DefaultWebSocket(new DummyListener(), webSocketConfig);
+        ws.connect("ws://localhost:" + server.getPort() + "/echo");
+        int createdByConnect = createdThreads.get();
+
+        try {
+            ws.send("STOP");
+            final CompletableFuture<Void> blockedSend = new CompletableFuture<Void>();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ws.send(new byte[32 * 1024 * 1024]);
+                    }
+                    catch (Exception ignored) {
+                    }
+                    blockedSend.complete(null);
+                }
+            }).start();
+
+            // the blocked send is released by closing the dead connection
+            blockedSend.get(5, TimeUnit.SECONDS);
+            assertFalse(ws.isConnected());
+            assertEquals(1, ws.getStats().getDeadPeers());
+
+            // the pings have been skipped by the timer instead of being handed to sender threads
+            assertEquals(0, createdThreads.get() - createdByConnect);
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testConfigImplementingOnlyTheOriginalGetters() throws Exception {
+        // as written against the first release, the getters added since then fall back to their defaults
+        WebSocketConfig webSocketConfig = new WebSocketConfig() {
+            @Override
+            public boolean isDebug() {
+                return false;
+            }
+
+            @Override
+            public String getDateTimeFormat() {
+                return DefaultWebSocketConfig.DATE_TIME_FORMAT;
+            }
+
+            @Override
+            public int getSocketTimeout() {
+                return DefaultWebSocketConfig.SOCKET_TIMEOUT;
+            }
+
+            @Override
+            public int getOutputBufferSize() {
+                return DefaultWebSocketConfig.OUTPUT_BUFFER_SIZE;
+            }
+        };
+        assertEquals(DefaultWebSocketConfig.RECEIVE_MODE, webSocketConfig.getReceiveMode());
+        assertNull(webSocketConfig.getReconnectPolicy());
+
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        DefaultWebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+        ws.connect(ECHO_URI);
+        ws.send("TEST");
+        Thread.sleep(200);
+
+        assertEquals("TEST", receivingDataListener.getText());
+        ws.close();
+    }
+
+    @Test
+    public void testConnectTimings() throws Exception {
+        DefaultWebSocket ws = new DefaultWebSocket();
+        assertNull(ws.getConnectTimings());
+
+        ws.connect(ECHO_URI);
+        ConnectTimings connectTimings = ws.getConnectTimings();
+        ws.close();
+
+        assertNotNull(connectTimings);
+        assertEquals(0, connectTimings.getTlsHandshakeNanos());
+        assertTrue(connectTimings.getUpgradeNanos() > 0);
+        assertEquals(connectTimings.getDnsNanos() + connectTimings.getTcpConnectNanos() + connectTimings.getUpgradeNanos(),
+                     connectTimings.getTotalNanos());
+        assertEquals(1, ws.getConnectTimingHistograms().getTotal().getCount());
+        assertEquals(0, ws.getConnectTimingHistograms().getTlsHandshake().getCount());
+    }
+
+    @Test
+    public void testSendStringWithCompression() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setCompressionPolicy(new CompressionPolicy());
+
+        // compressed if the server accepts the offer, either way the message must be echoed unchanged
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        WebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+        ws.connect(ECHO_URI);
+        ws.send("{\"symbol\":\"TEST\",\"symbol\":\"TEST\",\"symbol\":\"TEST\"}");
+        Thread.sleep(500);
+
+        assertEquals("{\"symbol\":\"TEST\",\"symbol\":\"TEST\",\"symbol\":\"TEST\"}", receivingDataListener.getText());
+        ws.close();
+    }
+
+    @Test
+    public void testAdaptiveCompressionPausesIncompressibleMessages() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setCompressionPolicy(new CompressionPolicy());
+
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        DefaultWebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+        ws.connect(ECHO_URI);
+        Assume.assumeNotNull(ws.getPerMessageDeflate());
+
+        // random bytes do not shrink, so binary compression is paused while text is still compressed
+        Random random = new Random();
+        byte[] data = new byte[1024];
+        for (int i = 0; i < 10; i++) {
+            random.nextBytes(data);
+            ws.send(data.clone());
+        }
+
+        assertTrue(ws.getPerMessageDeflate().isBinaryCompressionPaused());
+        assertFalse(ws.getPerMessageDeflate().isTextCompressionPaused());
+        ws.close();
+    }
+
+    @Test
+    public void testSendStringWithDictionaryCompression() throws Exception {
+        DictionaryBuilder dictionaryBuilder = new DictionaryBuilder();
+        for (int i = 0; i < 100; i++) {
+            dictionaryBuilder.add(("{\"symbol\":\"TEST\",\"price\":" + i + ",\"currency\":\"USD\"}").getBytes("UTF-8"));
+        }
+        byte[] dictionary = dictionaryBuilder.build();
+
+        DictionaryEchoServer server = new DictionaryEchoServer(0, dictionary);
+        server.start();
+        try {
+            CompressionPolicy compressionPolicy = new CompressionPolicy();
+            compressionPolicy.setMinCompressionSize(0);
+            compressionPolicy.setDictionary(dictionary);
+            DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+            webSocketConfig.setCompressionPolicy(compressionPolicy);
+
+            ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+            DefaultWebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+            ws.connect("ws://localhost:" + server.getPort() + "/echo");
+            assertEquals(PerMessageDeflate.DICTIONARY_EXTENSION_NAME, ws.getPerMessageDeflate().getExtensionName());
+
+            ws.send("{\"symbol\":\"TEST\",\"price\":42,\"currency\":\"USD\"}");
+            Thread.sleep(500);
+
+            assertEquals("{\"symbol\":\"TEST\",\"price\":42,\"currency\":\"USD\"}", receivingDataListener.getText());
+            assertTrue(ws.getPerMessageDeflate().getTextCompressionRatio() < 0.5);
+            ws.close();
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testMessageInflatingBeyondMaxMessageSizeFailsConnection() throws Exception {
+        final CompletableFuture<Integer> closeCode = new CompletableFuture<Integer>();
+        LocalEchoServer server = new LocalEchoServer(0) {
+            @Override
+            protected String acceptExtensions(String offer) {
+                return PerMessageDeflate.EXTENSION_NAME + "; server_no_context_takeover";
+            }
+
+            @Override
+            protected void writeMessage(OutputStream out, int opCode, byte[] data, String extensions) throws Exception {
+                // 512 KB fit into the limit, 1.5 MB split into two frames of 768 KB exceed it only together
+                Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+                if ("SMALL".equals(new String(data, "UTF-8"))) {
+                    writeFrame(out, 0xC1, deflate(deflater, new byte[512 * 1024], true));
+                }
+                else {
+                    writeFrame(out, 0x41, deflate(deflater, new byte[768 * 1024], false));
+                    writeFrame(out, 0x80, deflate(deflater, new byte[768 * 1024], true));
+                }
+                deflater.end();
+            }
+
+            @Override
+            protected void closeReceived(byte[] payload) {
+                closeCode.complete(payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : -1);
+            }
+
+            private byte[] deflate(Deflater deflater, byte[] data, boolean fin) {
+                deflater.setInput(data);
+                byte[] buffer = new byte[64 * 1024];
+                int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                // the tail of the final frame is appended by the receiver
+                return Arrays.copyOf(buffer, fin ? length - 4 : length);
+            }
+        };
+        server.start();
+
+        try {
+            CompressionPolicy compressionPolicy = new CompressionPolicy();
+            compressionPolicy.setMaxMessageSize(1024 * 1024);
+            DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+            webSocketConfig.setCompressionPolicy(compressionPolicy);
+
+            ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+            DefaultWebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+            ws.connect("ws://localhost:" + server.getPort() + "/echo");
+            assertNotNull(ws.getPerMessageDeflate());
+
+            ws.send("SMALL");
+            Thread.sleep(500);
+            assertEquals(512 * 1024, receivingDataListener.getText().length());
+            assertTrue(ws.isConnected());
+
+            ws.send("BOMB");
+            assertEquals(Integer.valueOf(1009), closeCode.get(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertFalse(ws.isConnected());
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testSendStringOnVirtualThreads() throws Exception {
+        Assume.assumeTrue(ThreadFactories.isVirtualThreadSupported());
+
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setThreadFactory(ThreadFactories.virtual("WebSocketReceiver-VirtualThread-"));
+
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        WebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+        ws.connect(ECHO_URI);
+        ws.send("TEST");
+        Thread.sleep(500);
+
+        assertEquals("Sent message must be equal to received message.", "TEST", receivingDataListener.getText());
+
+        ws.close();
+    }
+
+    @Test
+    public void testClientConnectsAllWebSocketsAndAggregatesStats() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReceiveMode(WebSocketReceiveMode.SELECTOR);
+        WebSocketClient client = new DefaultWebSocketClient(webSocketConfig);
+
+        Map<WebSocket, URI> uris = new HashMap<WebSocket, URI>();
+        Map<WebSocket, ReceivingDataListener> listeners = new HashMap<WebSocket, ReceivingDataListener>();
+        for (int i = 0; i < 10; i++) {
+            ReceivingDataListener listener = new ReceivingDataListener();
+            WebSocket ws = client.createWebSocket(listener);
+            uris.put(ws, ECHO_URI);
+            listeners.put(ws, listener);
+        }
+        WebSocket unreachable = client.createWebSocket(new DummyListener());
+        uris.put(unreachable, URI.create("ws://nonexistent.invalid:8888/echo"));
+
+        Map<WebSocket, WebSocketException> failures = client.connectAll(uris);
+        assertEquals("only the unreachable websocket must fail", 1, failures.size());
+        assertTrue(failures.containsKey(unreachable));
+        assertEquals(10, client.getConnectedCount());
+
+        for (WebSocket ws : listeners.keySet()) {
+            ws.send("TEST");
+        }
+
+        Thread.sleep(500);
+
+        for (ReceivingDataListener listener : listeners.values()) {
+            assertEquals("Sent message must be equal to received message.", "TEST", listener.getText());
+        }
+
+        WebSocketStats stats = client.getStats();
+        assertEquals(10, stats.getConnects());
+        assertEquals(1, stats.getConnectFailures());
+        assertEquals(10, stats.getFramesSent());
+        assertEquals(10, stats.getFramesReceived());
+
+        client.shutdown();
+        Thread.sleep(500);
+
+        assertEquals(0, client.getConnectedCount());
+    }
+
+    @Test
+    public void testManyConnectionsShareOneEventLoop() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReceiveMode(WebSocketReceiveMode.SELECTOR);
+        EventLoopGroup eventLoopGroup = new EventLoopGroup(1);
+
+        ReceivingDataListener[] listeners = new ReceivingDataListener[50];
+        DefaultWebSocket[] webSockets = new DefaultWebSocket[listeners.length];
+        for (int i = 0; i < webSockets.length; i++) {
+            listeners[i] = new ReceivingDataListener();
+            webSockets[i] = new DefaultWebSocket(listeners[i], webSocketConfig);
+            webSockets[i].setEventLoopGroup(eventLoopGroup);
+            webSockets[i].connect(ECHO_URI);
+        }
+
+        // the channels are registered by the event loop thread, shortly after connect() has returned
+        for (int i = 0; i < 50 && eventLoopGroup.getRegisteredCount() < webSockets.length; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals("all connections must be registered with the event loop", webSockets.length, eventLoopGroup.getRegisteredCount());
+
+        for (int i = 0; i < webSockets.length; i++) {
+            webSockets[i].send("TEST" + i);
+        }
+
+        Thread.sleep(1000);
+
+        for (int i = 0; i < webSockets.length; i++) {
+            assertEquals("Sent message must be equal to received message.", "TEST" + i, listeners[i].getText());
+            webSockets[i].close();
+        }
+
+        eventLoopGroup.shutdown();
+    }
+
+    @Test
+    public void testBlockedListenerDoesNotStallEventLoop() throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReceiveMode(WebSocketReceiveMode.SELECTOR);
+        EventLoopGroup eventLoopGroup = new EventLoopGroup(1);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        CollectingListener blockingListener = new CollectingListener() {
+            @Override
+            public void onMessage(String message) {
+                super.onMessage(message);
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ignored) {
+                }
+            }
+        };
+        CollectingListener collectingListener = new CollectingListener();
+
+        DefaultWebSocket blocked = new DefaultWebSocket(blockingListener, webSocketConfig);
+        DefaultWebSocket ws = new DefaultWebSocket(collectingListener, webSocketConfig);
+        blocked.setEventLoopGroup(eventLoopGroup);
+        ws.setEventLoopGroup(eventLoopGroup);
+        blocked.connect(ECHO_URI);
+        ws.connect(ECHO_URI);
+
+        try {
+            blocked.send("BLOCK");
+            blocked.send("QUEUED");
+            Thread.sleep(200);
+            ws.send("TEST");
+            Thread.sleep(200);
+
+            // both share the loop thread, but not the thread running the callbacks
+            assertEquals(Arrays.asList("TEST"), collectingListener.messages);
+            assertEquals(Arrays.asList("BLOCK"), blockingListener.messages);
+
+            release.countDown();
+            Thread.sleep(200);
+            assertEquals(Arrays.asList("BLOCK", "QUEUED"), blockingListener.messages);
+            assertEquals(2, eventLoopGroup.getRegisteredCount());
+        }
+        finally {
+            release.countDown();
+            blocked.close();
+            ws.close();
+        }
+
+        Thread.sleep(200);
+        assertEquals(0, eventLoopGroup.getRegisteredCount());
+        eventLoopGroup.shutdown();
+    }
+
+    @Test
+    public void testSendStringOverWssInNonBlockingReceiveModes() throws Exception {
+        LocalEchoServer server = new LocalEchoServer(0, LocalEchoServer.createSslContext());
+        server.start();
+
+        // spans several TLS records, which the SSLEngine based transports have to reassemble
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 3 * TlsContext.MAX_RECORD_PLAINTEXT) {
+            sb.append(ALPHABET);
+        }
+        String message = sb.toString();
+
+        try {
+            for (WebSocketReceiveMode receiveMode : new WebSocketReceiveMode[] { WebSocketReceiveMode.SELECTOR,
+                    WebSocketReceiveMode.ASYNCHRONOUS, WebSocketReceiveMode.SPIN_THEN_PARK }) {
+                DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+                webSocketConfig.setReceiveMode(receiveMode);
+
+                ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+                DefaultWebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+                ws.setTlsContext(new TlsContext(LocalEchoServer.createSslContext(), TlsContext.SESSION_CACHE_SIZE,
+                                                TlsContext.SESSION_TIMEOUT_SECONDS));
+                ws.connect("wss://localhost:" + server.getPort() + "/echo");
+                ws.send(message);
+                Thread.sleep(500);
+
+                assertEquals("echo over wss in " + receiveMode, message, receivingDataListener.getText());
+                ws.close();
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testIdleWssConnectionHoldsNoOutputOrPlaintextBuffers() throws Exception {
+        LocalEchoServer server = new LocalEchoServer(0, LocalEchoServer.createSslContext());
+        server.start();
+
+        try {
+            DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+            webSocketConfig.setReceiveMode(WebSocketReceiveMode.SPIN_THEN_PARK);
+            ByteBufferPool byteBufferPool = new ByteBufferPool();
+
+            ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+            DefaultWebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+            ws.setByteBufferPool(byteBufferPool);
+            ws.setTlsContext(new TlsContext(LocalEchoServer.createSslContext(), TlsContext.SESSION_CACHE_SIZE,
+                                            TlsContext.SESSION_TIMEOUT_SECONDS));
+            ws.connect("wss://localhost:" + server.getPort() + "/echo");
+            ws.send("TEST");
+            Thread.sleep(200);
+            assertEquals("Sent message must be equal to received message.", "TEST", receivingDataListener.getText());
+
+            // only the buffer for partially received records is held between operations
+            assertEquals(1, byteBufferPool.getAllocatedCount() - byteBufferPool.getPooledCount());
+
+            ws.close();
+            Thread.sleep(200);
+            assertEquals(byteBufferPool.getAllocatedCount(), byteBufferPool.getPooledCount());
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testWssReconnectResumesTlsSession() throws Exception {
+        LocalEchoServer server = new LocalEchoServer(0, LocalEchoServer.createSslContext());
+        server.start();
+
+        try {
+            TlsContext tlsContext = new TlsContext(LocalEchoServer.createSslContext(), TlsContext.SESSION_CACHE_SIZE,
+                                                   TlsContext.SESSION_TIMEOUT_SECONDS);
+            DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+            webSocketConfig.setReceiveMode(WebSocketReceiveMode.SELECTOR);
+
+            for (int i = 0; i < 3; i++) {
+                ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+                DefaultWebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+                ws.setTlsContext(tlsContext);
+                ws.connect("wss://localhost:" + server.getPort() + "/echo");
+                ws.send("TEST");
+                Thread.sleep(200);
+
+                assertEquals("Sent message must be equal to received message.", "TEST", receivingDataListener.getText());
+                ws.close();
+                Thread.sleep(200);
+            }
+
+            // the session of the first connect is resumed by the reconnects, which skip the full handshake
+            assertEquals(1, tlsContext.getFullHandshakeCount());
+            assertEquals(2, tlsContext.getResumedHandshakeCount());
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testReconnectReplaysBufferedMessagesInOrder() throws Exception {
+        LocalEchoServer server = new LocalEchoServer(0);
+        server.start();
+        int port = server.getPort();
+
+        ReconnectPolicy policy = new ReconnectPolicy();
+        policy.setInitialDelayMillis(100);
+        policy.setMultiplier(1.0);
+        policy.setMaxAttempts(ReconnectPolicy.UNLIMITED);
+
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReconnectPolicy(policy);
+
+        CollectingListener collectingListener = new CollectingListener();
+        DefaultWebSocket ws = new DefaultWebSocket(collectingListener, webSocketConfig);
+        ws.connect("ws://localhost:" + port + "/echo");
+
+        try {
+            // attempts fail while the server is down, messages sent meanwhile are buffered
+            server.stop();
+            server.dropConnections();
+            waitFor(ws, true);
+            assertTrue(ws.isReconnecting());
+
+            for (int i = 0; i < 5; i++) {
+                ws.send("message " + i);
+            }
+            Thread.sleep(300);
+            assertTrue(ws.isReconnecting());
+
+            server = new LocalEchoServer(port);
+            server.start();
+            waitFor(ws, false);
+            Thread.sleep(200);
+
+            assertTrue(ws.isConnected());
+            assertEquals(2, collectingListener.connects.get());
+            assertEquals(Arrays.asList("message 0", "message 1", "message 2", "message 3", "message 4"),
+                         collectingListener.messages);
+        }
+        finally {
+            ws.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testSendDuringSlowReconnectAttemptIsBufferedWithoutWaiting() throws Exception {
+        LocalEchoServer server = new LocalEchoServer(0);
+        server.start();
+
+        ReconnectPolicy policy = new ReconnectPolicy();
+        policy.setInitialDelayMillis(100);
+        policy.setMultiplier(1.0);
+        policy.setMaxAttempts(ReconnectPolicy.UNLIMITED);
+
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReconnectPolicy(policy);
+
+        final CountDownLatch attemptStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CollectingListener collectingListener = new CollectingListener();
+        DefaultWebSocket ws = new DefaultWebSocket(collectingListener, webSocketConfig);
+        ws.setHostResolver(new HostResolver() {
+            @Override
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                // the reconnect attempt hangs in the lookup until it is released
+                if (collectingListener.connects.get() > 0) {
+                    attemptStarted.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException ie) {
+                        throw new UnknownHostException(host);
+                    }
+                }
+                return SystemHostResolver.INSTANCE.resolve(host);
+            }
+        });
+        ws.connect("ws://localhost:" + server.getPort() + "/echo");
+
+        try {
+            server.dropConnections();
+            assertTrue(attemptStarted.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            ws.send("TEST");
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("send must not wait for the reconnect attempt: " + elapsedMillis + " ms", elapsedMillis < 500);
+
+            release.countDown();
+            waitFor(ws, false);
+            Thread.sleep(200);
+
+            assertTrue(ws.isConnected());
+            assertEquals(Arrays.asList("TEST"), collectingListener.messages);
+        }
+        finally {
+            release.countDown();
+            ws.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testReconnectRetriesAfterRuntimeException() throws Exception {
+        LocalEchoServer server = new LocalEchoServer(0);
+        server.start();
+
+        ReconnectPolicy policy = new ReconnectPolicy();
+        policy.setInitialDelayMillis(100);
+        policy.setMultiplier(1.0);
+        policy.setMaxAttempts(ReconnectPolicy.UNLIMITED);
+
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReconnectPolicy(policy);
+
+        final AtomicInteger failures = new AtomicInteger();
+        CollectingListener collectingListener = new CollectingListener();
+        DefaultWebSocket ws = new DefaultWebSocket(collectingListener, webSocketConfig);
+        ws.setHostResolver(new HostResolver() {
+            @Override
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                // the first attempt of the reconnect fails with an unchecked exception
+                if (collectingListener.connects.get() > 0 && failures.getAndIncrement() == 0) {
+                    throw new IllegalStateException("resolver is not ready");
+                }
+                return SystemHostResolver.INSTANCE.resolve(host);
+            }
+        });
+        ws.connect("ws://localhost:" + server.getPort() + "/echo");
+
+        try {
+            server.dropConnections();
+            waitFor(ws, true);
+            ws.send("TEST");
+            waitFor(ws, false);
+            Thread.sleep(200);
+
+            assertTrue(failures.get() >= 2);
+            assertTrue(ws.isConnected());
+            assertEquals(Arrays.asList("TEST"), collectingListener.messages);
+        }
+        finally {
+            ws.close();
+            server.stop();
+        }
+    }
+
     /* ######################################################################## */
     /* ######################################################################## */
     /* ######################################################################## */
@@ -731,6 +1663,22 @@ public class DefaultWebSocketTest {
     /* ######################################################################## */
     /* ######################################################################## */
 
+    private void sendStringInReceiveMode(WebSocketReceiveMode receiveMode) throws Exception {
+        DefaultWebSocketConfig webSocketConfig = new DefaultWebSocketConfig();
+        webSocketConfig.setReceiveMode(receiveMode);
+
+        ReceivingDataListener receivingDataListener = new ReceivingDataListener();
+        DefaultWebSocket ws = new DefaultWebSocket(receivingDataListener, webSocketConfig);
+        ws.connect(ECHO_URI);
+        ws.send("TEST");
+        Thread.sleep(500);
+
+        assertEquals("Sent message must be equal to received message.", "TEST", receivingDataListener.getText());
+        assertTrue("the receive latency of the echoed message must have been recorded", ws.getReceiveLatency().getCount() > 0);
+
+        ws.close();
+    }
+
     private void streamStringChunks(int chunkSize) throws Exception {
         ConnectionIdListener connectionIdListener = new ConnectionIdListener();
         WebSocket ws = new DefaultWebSocket(connectionIdListener);
@@ -979,6 +1927,27 @@ public class DefaultWebSocketTest {
         public void onPong(byte[] data) {}
     }
 
+    private static void waitFor(DefaultWebSocket ws, boolean reconnecting) throws InterruptedException {
+        for (int i = 0; i < 100 && ws.isReconnecting() != reconnecting; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    private class CollectingListener extends DummyListener {
+        private final List<String>  messages    = new CopyOnWriteArrayList<String>();
+        private final AtomicInteger connects    = new AtomicInteger();
+
+        @Override
+        public void onConnect() {
+            connects.incrementAndGet();
+        }
+
+        @Override
+        public void onMessage(String message) {
+            messages.add(message);
+        }
+    }
+
     private class DummyListener implements WebSocketListener {
         @Override
         public void onConnect() {}
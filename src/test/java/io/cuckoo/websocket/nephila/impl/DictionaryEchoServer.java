@@ -0,0 +1,308 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.crypto.Base64;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A local stand-in for a server supporting the x-deflate-dictionary extension: it echoes every message, compressed
+ * with the preset dictionary if the client has offered the same one, and uncompressed otherwise. Only meant for
+ * tests, one thread per connection. Run with a port and a dictionary file, e.g.
+ * {@code java ... DictionaryEchoServer 8890 messages.dict}.
+ */
+public class DictionaryEchoServer {
+
+    private static final String GUID    = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final byte[] TAIL    = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+
+    private final byte[]        dictionary;
+    private final String        dictionaryId;
+    private final ServerSocket  serverSocket;
+
+    /**
+     * @param port the port to listen on, 0 for any free one
+     */
+    public DictionaryEchoServer(int port, byte[] dictionary) throws IOException {
+        this.dictionary     = dictionary;
+        this.dictionaryId   = PerMessageDeflate.getDictionaryId(dictionary);
+        this.serverSocket   = new ServerSocket(port);
+    }
+
+    public static void main(String[] args) throws IOException {
+        new DictionaryEchoServer(Integer.parseInt(args[0]), Files.readAllBytes(new File(args[1]).toPath())).start();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    echo(socket);
+                                }
+                                catch (Exception ignored) {
+                                    // the client has gone away or sent something invalid
+                                }
+                                finally {
+                                    close(socket);
+                                }
+                            }
+                        }, "DictionaryEchoServer-Connection").start();
+                    }
+                    catch (IOException ignored) {
+                        // closed by stop()
+                    }
+                }
+            }
+        }, "DictionaryEchoServer-Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() {
+        close(serverSocket);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void echo(Socket socket) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        String key = null;
+        boolean compressing = false;
+        String line;
+        while ((line = readLine(in)).length() > 0) {
+            String lowerCase = line.toLowerCase();
+            if (lowerCase.startsWith("sec-websocket-key:")) {
+                key = line.substring(18).trim();
+            }
+            else if (lowerCase.startsWith("sec-websocket-extensions:")) {
+                compressing = lowerCase.contains(PerMessageDeflate.DICTIONARY_EXTENSION_NAME + "; dictionary_id="
+                                                 + dictionaryId);
+            }
+        }
+
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes("ISO-8859-1"));
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                   + "Upgrade: websocket\r\n"
+                   + "Connection: Upgrade\r\n"
+                   + "Sec-WebSocket-Accept: " + Base64.encodeToString(digest, false) + "\r\n"
+                   + (compressing ? "Sec-WebSocket-Extensions: " + PerMessageDeflate.DICTIONARY_EXTENSION_NAME
+                                    + "; dictionary_id=" + dictionaryId + "\r\n" : "")
+                   + "\r\n").getBytes("ISO-8859-1"));
+        out.flush();
+
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        boolean compressed = false;
+        int opCode = 0;
+        while (true) {
+            int b0 = in.read();
+            if (b0 < 0) {
+                return;
+            }
+            int b1 = in.readUnsignedByte();
+
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            }
+            else if (length == 127) {
+                length = in.readLong();
+            }
+
+            byte[] mask = new byte[4];
+            if ((b1 & 0x80) != 0) {
+                in.readFully(mask);
+            }
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i % 4];
+            }
+
+            int frameOpCode = b0 & 0x0F;
+            if (frameOpCode == 0x8) {
+                writeFrame(out, 0x88, payload);
+                return;
+            }
+            if (frameOpCode == 0x9) {
+                writeFrame(out, 0x8A, payload);
+                continue;
+            }
+            if (frameOpCode == 0xA) {
+                continue;
+            }
+            if (frameOpCode != 0x0) {
+                opCode = frameOpCode;
+                compressed = (b0 & 0x40) != 0;
+                message.reset();
+            }
+
+            message.write(payload);
+            if ((b0 & 0x80) == 0) {
+                continue;
+            }
+
+            byte[] data = message.toByteArray();
+            if (compressed) {
+                data = inflate(data);
+            }
+
+            if (compressing) {
+                writeFrame(out, 0xC0 | opCode, deflate(data));
+            }
+            else {
+                writeFrame(out, 0x80 | opCode, data);
+            }
+        }
+    }
+
+    private byte[] inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(dictionary);
+            inflater.setInput(concat(data, TAIL));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = inflater.inflate(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+
+            return out.toByteArray();
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(data);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            do {
+                n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, n);
+            }
+            while (n == buffer.length);
+
+            byte[] compressed = out.toByteArray();
+            return compressed.length > TAIL.length ? Arrays.copyOf(compressed, compressed.length - TAIL.length)
+                                                   : new byte[1];
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("connection closed during the opening handshake");
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void writeFrame(OutputStream out, int b0, byte[] payload) throws IOException {
+        out.write(b0);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        }
+        else if (payload.length < 65536) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+        out.write(payload);
+        out.flush();
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+}
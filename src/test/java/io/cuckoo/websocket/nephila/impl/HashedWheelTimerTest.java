@@ -0,0 +1,137 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.util.ConsoleLogger;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class HashedWheelTimerTest {
+
+    // a small wheel, so that the longer delays span several rounds
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8,
+                                                                new ConsoleLogger(new DefaultWebSocketConfig()));
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testTasksExpireNotBeforeTheirDelay() throws Exception {
+        long[] delays = { 0, 15, 50, 200, 350 };
+        final CountDownLatch done = new CountDownLatch(delays.length);
+        final List<AtomicLong> runAt = new ArrayList<AtomicLong>();
+        long start = System.nanoTime();
+
+        List<WebSocketTimeout> timeouts = new ArrayList<WebSocketTimeout>();
+        for (long delay : delays) {
+            final AtomicLong at = new AtomicLong();
+            runAt.add(at);
+            timeouts.add(timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    at.set(System.nanoTime());
+                    done.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(runAt.get(i).get() - start);
+            assertTrue("expired after " + elapsedMillis + " ms instead of " + delays[i],
+                       elapsedMillis >= delays[i] && elapsedMillis < delays[i] + 200);
+            assertTrue(timeouts.get(i).isExpired());
+            assertFalse(timeouts.get(i).cancel());
+        }
+    }
+
+    @Test
+    public void testCancelledTasksDoNotRun() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+
+        // cancelled before the worker has put it into its bucket
+        WebSocketTimeout scheduled = timer.schedule(task, 50, TimeUnit.MILLISECONDS);
+        assertTrue(scheduled.cancel());
+        assertFalse(scheduled.cancel());
+
+        // cancelled while waiting in its bucket
+        WebSocketTimeout pending = timer.schedule(task, 100, TimeUnit.MILLISECONDS);
+        Thread.sleep(40);
+        assertTrue(pending.cancel());
+        assertFalse(pending.cancel());
+
+        Thread.sleep(200);
+        assertEquals(0, runs.get());
+        assertFalse(scheduled.isExpired());
+        assertFalse(pending.isExpired());
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopTheTimer() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("failing task");
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testScheduleAfterStop() {
+        timer.stop();
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+    }
+}
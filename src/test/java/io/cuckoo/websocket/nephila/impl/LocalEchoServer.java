@@ -0,0 +1,373 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.crypto.Base64;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local echo server for tests that need control over the server side, e.g. to drop connections or to serve
+ * wss with a self-signed certificate. Every text and binary message is echoed uncompressed, pings are answered
+ * and close frames are echoed. One thread per connection.
+ */
+public class LocalEchoServer {
+
+    private static final String GUID        = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final char[] PASSWORD    = "changeit".toCharArray();
+
+    private static KeyStore keyStore;
+
+    private final ServerSocket      serverSocket;
+    private final Set<Socket>       connections;
+    private final AtomicInteger     acceptedCount;
+
+    /**
+     * @param port the port to listen on, 0 for any free one
+     */
+    public LocalEchoServer(int port) throws IOException {
+        this(new ServerSocket(port, 50, InetAddress.getByName("localhost")));
+    }
+
+    /**
+     * @param sslContext the context created by {@link #createSslContext()}, serving wss instead of ws
+     */
+    public LocalEchoServer(int port, SSLContext sslContext) throws IOException {
+        this(sslContext.getServerSocketFactory().createServerSocket(port, 50, InetAddress.getByName("localhost")));
+    }
+
+    private LocalEchoServer(ServerSocket serverSocket) {
+        this.serverSocket   = serverSocket;
+        this.connections    = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+        this.acceptedCount  = new AtomicInteger();
+    }
+
+    /**
+     * @return a context with a self-signed certificate for localhost (generated by keytool once per JVM), that
+     * serves as key store of the server and as trust store of the client
+     */
+    public static synchronized SSLContext createSslContext() throws Exception {
+        if (keyStore == null) {
+            File file = File.createTempFile("nephila-test", ".p12");
+            file.delete();
+            try {
+                Process keytool = new ProcessBuilder(
+                        System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+                        "-genkeypair", "-alias", "localhost", "-keyalg", "RSA", "-keysize", "2048",
+                        "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                        "-storetype", "PKCS12", "-keystore", file.getPath(),
+                        "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                        .redirectErrorStream(true).start();
+                drain(keytool.getInputStream());
+                if (keytool.waitFor() != 0) {
+                    throw new IllegalStateException("keytool failed with exit code " + keytool.exitValue());
+                }
+
+                KeyStore ks = KeyStore.getInstance("PKCS12");
+                InputStream in = new FileInputStream(file);
+                try {
+                    ks.load(in, PASSWORD);
+                }
+                finally {
+                    in.close();
+                }
+                keyStore = ks;
+            }
+            finally {
+                file.delete();
+            }
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections accepted so far
+     */
+    public int getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connections.add(socket);
+                        acceptedCount.incrementAndGet();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    echo(socket);
+                                }
+                                catch (Exception ignored) {
+                                    // the client has gone away, sent something invalid or has been dropped
+                                }
+                                finally {
+                                    connections.remove(socket);
+                                    close(socket);
+                                }
+                            }
+                        }, getClass().getSimpleName() + "-Connection").start();
+                    }
+                    catch (IOException ignored) {
+                        // closed by stop()
+                    }
+                }
+            }
+        }, getClass().getSimpleName() + "-Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Closes all current connections without a closing handshake, as a crashed server or a broken network would.
+     */
+    public void dropConnections() {
+        for (Socket socket : connections) {
+            close(socket);
+        }
+    }
+
+    public void stop() {
+        close(serverSocket);
+        dropConnections();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    /**
+     * @param offer the value of the Sec-WebSocket-Extensions request header, or null
+     * @return the value of the Sec-WebSocket-Extensions response header, or null to decline all extensions
+     */
+    protected String acceptExtensions(String offer) {
+        return null;
+    }
+
+    /**
+     * Decodes the payload of a message with RSV1 set, only called if an extension has been accepted.
+     */
+    protected byte[] decompress(byte[] data) throws Exception {
+        throw new IOException("RSV1 is set but no extension has been accepted");
+    }
+
+    /**
+     * Echoes a message.
+     * @param extensions the extensions accepted for the connection, or null
+     */
+    protected void writeMessage(OutputStream out, int opCode, byte[] data, String extensions) throws Exception {
+        writeFrame(out, 0x80 | opCode, data);
+    }
+
+    /**
+     * Called with the payload of the close frame of the client, before it is echoed.
+     */
+    protected void closeReceived(byte[] payload) {
+    }
+
+    protected static void writeFrame(OutputStream out, int b0, byte[] payload) throws IOException {
+        out.write(b0);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        }
+        else if (payload.length < 65536) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+        out.write(payload);
+        out.flush();
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private void echo(Socket socket) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        String key = null;
+        String offer = null;
+        String line;
+        while ((line = readLine(in)).length() > 0) {
+            String lowerCase = line.toLowerCase();
+            if (lowerCase.startsWith("sec-websocket-key:")) {
+                key = line.substring(18).trim();
+            }
+            else if (lowerCase.startsWith("sec-websocket-extensions:")) {
+                offer = line.substring(25).trim();
+            }
+        }
+
+        String extensions = acceptExtensions(offer);
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes("ISO-8859-1"));
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                   + "Upgrade: websocket\r\n"
+                   + "Connection: Upgrade\r\n"
+                   + "Sec-WebSocket-Accept: " + Base64.encodeToString(digest, false) + "\r\n"
+                   + (extensions != null ? "Sec-WebSocket-Extensions: " + extensions + "\r\n" : "")
+                   + "\r\n").getBytes("ISO-8859-1"));
+        out.flush();
+
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        boolean compressed = false;
+        int opCode = 0;
+        while (true) {
+            int b0 = in.read();
+            if (b0 < 0) {
+                return;
+            }
+            int b1 = in.readUnsignedByte();
+
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            }
+            else if (length == 127) {
+                length = in.readLong();
+            }
+
+            byte[] mask = new byte[4];
+            if ((b1 & 0x80) != 0) {
+                in.readFully(mask);
+            }
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i % 4];
+            }
+
+            int frameOpCode = b0 & 0x0F;
+            if (frameOpCode == 0x8) {
+                closeReceived(payload);
+                writeFrame(out, 0x88, payload);
+                return;
+            }
+            if (frameOpCode == 0x9) {
+                writeFrame(out, 0x8A, payload);
+                continue;
+            }
+            if (frameOpCode == 0xA) {
+                continue;
+            }
+            if (frameOpCode != 0x0) {
+                opCode = frameOpCode;
+                compressed = (b0 & 0x40) != 0;
+                message.reset();
+            }
+
+            message.write(payload);
+            if ((b0 & 0x80) == 0) {
+                continue;
+            }
+
+            byte[] data = message.toByteArray();
+            if (compressed) {
+                data = decompress(data);
+            }
+
+            writeMessage(out, opCode, data, extensions);
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("connection closed during the opening handshake");
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) >= 0) {
+            // keytool's output is only read so that it cannot block on a full pipe
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.SocketProfile;
+import io.cuckoo.websocket.nephila.util.Logger;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SocketTuningTest {
+
+    @Test
+    public void testLowLatencyProfile() throws Exception {
+        RecordingLogger log = new RecordingLogger();
+        SocketChannel channel = SocketChannel.open();
+        try {
+            SocketTuning.apply(SocketProfile.lowLatency(), channel, log);
+
+            assertTrue(channel.getOption(StandardSocketOptions.TCP_NODELAY));
+            assertTrue(channel.getOption(StandardSocketOptions.SO_KEEPALIVE));
+
+            // the keepalive timing is applied wherever the platform supports it, and logged where it doesn't
+            SocketOption<?> keepIdle = findOption(channel, "TCP_KEEPIDLE");
+            if (keepIdle != null) {
+                assertEquals(30, channel.getOption(keepIdle));
+                assertEquals(10, channel.getOption(findOption(channel, "TCP_KEEPINTERVAL")));
+                assertEquals(3, channel.getOption(findOption(channel, "TCP_KEEPCOUNT")));
+            }
+            else {
+                assertTrue(log.contains("TCP_KEEPIDLE"));
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testThroughputProfile() throws Exception {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            int defaultReceiveBufferSize = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+            SocketTuning.apply(SocketProfile.throughput(), channel, new RecordingLogger());
+
+            assertFalse(channel.getOption(StandardSocketOptions.TCP_NODELAY));
+            assertTrue(channel.getOption(StandardSocketOptions.SO_KEEPALIVE));
+            // the kernel may cap the requested size, but not below the default
+            assertTrue(channel.getOption(StandardSocketOptions.SO_RCVBUF) >= defaultReceiveBufferSize);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testProfileIsAppliedToSocket() throws Exception {
+        Socket socket = new Socket();
+        try {
+            SocketTuning.apply(SocketProfile.throughput(), socket, new RecordingLogger());
+            assertFalse(socket.getTcpNoDelay());
+            assertTrue(socket.getKeepAlive());
+
+            SocketTuning.apply(SocketProfile.lowLatency(), socket, new RecordingLogger());
+            assertTrue(socket.getTcpNoDelay());
+            assertTrue(socket.getKeepAlive());
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testSystemDefaultsAreLeftUntouched() throws Exception {
+        StandardOptionsChannel channel = new StandardOptionsChannel();
+        SocketProfile profile = new SocketProfile();
+
+        SocketTuning.apply(profile, channel, new RecordingLogger());
+
+        assertEquals(Boolean.TRUE, channel.options.get(StandardSocketOptions.TCP_NODELAY));
+        assertEquals(Boolean.FALSE, channel.options.get(StandardSocketOptions.SO_KEEPALIVE));
+        assertFalse(channel.options.containsKey(StandardSocketOptions.SO_SNDBUF));
+        assertFalse(channel.options.containsKey(StandardSocketOptions.SO_RCVBUF));
+    }
+
+    @Test
+    public void testUnsupportedExtendedOptionsFallBackToSystemDefault() throws Exception {
+        RecordingLogger log = new RecordingLogger();
+        StandardOptionsChannel channel = new StandardOptionsChannel();
+
+        SocketTuning.apply(SocketProfile.lowLatency(), channel, log);
+
+        // the standard options are applied, each extended one is skipped and logged
+        assertEquals(Boolean.TRUE, channel.options.get(StandardSocketOptions.TCP_NODELAY));
+        assertEquals(Boolean.TRUE, channel.options.get(StandardSocketOptions.SO_KEEPALIVE));
+        assertEquals(2, channel.options.size());
+        assertTrue(log.contains("TCP_KEEPIDLE"));
+        assertTrue(log.contains("TCP_KEEPINTERVAL"));
+        assertTrue(log.contains("TCP_KEEPCOUNT"));
+        assertTrue(log.contains("TCP_QUICKACK"));
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static SocketOption<?> findOption(NetworkChannel channel, String name) {
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if (option.name().equals(name)) {
+                return option;
+            }
+        }
+
+        return null;
+    }
+
+    private static class RecordingLogger implements Logger {
+
+        private final List<String> debugMessages = new ArrayList<String>();
+
+        private boolean contains(String text) {
+            for (String message : debugMessages) {
+                if (message.contains(text)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public void trace(Class<?> clazz, String logMsg) {
+        }
+
+        @Override
+        public void debug(Class<?> clazz, String logMsg) {
+            debugMessages.add(logMsg);
+        }
+
+        @Override
+        public void info(Class<?> clazz, String logMsg) {
+        }
+
+        @Override
+        public void warn(Class<?> clazz, String logMsg) {
+        }
+
+        @Override
+        public void error(Class<?> clazz, String logMsg) {
+        }
+    }
+
+    /**
+     * A channel that supports the standard socket options only, like a platform without extended options.
+     */
+    private static class StandardOptionsChannel implements NetworkChannel {
+
+        private final Map<SocketOption<?>, Object> options = new HashMap<SocketOption<?>, Object>();
+
+        @Override
+        public NetworkChannel bind(SocketAddress local) {
+            return this;
+        }
+
+        @Override
+        public <T> NetworkChannel setOption(SocketOption<T> name, T value) {
+            if (!supportedOptions().contains(name)) {
+                throw new UnsupportedOperationException(name.name());
+            }
+            options.put(name, value);
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getOption(SocketOption<T> name) {
+            return (T) options.get(name);
+        }
+
+        @Override
+        public Set<SocketOption<?>> supportedOptions() {
+            Set<SocketOption<?>> supported = new HashSet<SocketOption<?>>();
+            supported.add(StandardSocketOptions.TCP_NODELAY);
+            supported.add(StandardSocketOptions.SO_KEEPALIVE);
+            supported.add(StandardSocketOptions.SO_SNDBUF);
+            supported.add(StandardSocketOptions.SO_RCVBUF);
+            return supported;
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
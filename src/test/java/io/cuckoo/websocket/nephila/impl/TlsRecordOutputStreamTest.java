@@ -0,0 +1,125 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TlsRecordOutputStreamTest {
+
+    @Test
+    public void testFrameHeaderSharesRecordWithPayload() throws Exception {
+        RecordingOutputStream out = new RecordingOutputStream();
+        TlsRecordOutputStream tls = new TlsRecordOutputStream(out);
+
+        // a frame header followed by a payload larger than a record
+        tls.write(new byte[] { (byte) 0x82, 127 });
+        tls.write(new byte[40000]);
+        tls.flush();
+
+        assertEquals(Arrays.asList(16384, 16384, 7234), out.writes);
+        assertEquals(40002, out.size());
+        assertEquals(1, out.flushes);
+    }
+
+    @Test
+    public void testWholeRecordsAreWrittenFromCallersArray() throws Exception {
+        RecordingOutputStream out = new RecordingOutputStream();
+        TlsRecordOutputStream tls = new TlsRecordOutputStream(out);
+
+        byte[] data = new byte[2 * TlsContext.MAX_RECORD_PLAINTEXT];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        tls.write(data, 0, data.length);
+
+        assertEquals(Arrays.asList(16384, 16384), out.writes);
+        assertArrayEquals(data, out.toByteArray());
+
+        // nothing left to write
+        tls.flush();
+        assertEquals(2, out.writes.size());
+    }
+
+    @Test
+    public void testSmallWritesAreBufferedUntilFlush() throws Exception {
+        RecordingOutputStream out = new RecordingOutputStream();
+        TlsRecordOutputStream tls = new TlsRecordOutputStream(out);
+
+        tls.write(0x81);
+        tls.write(new byte[] { 2, 'h', 'i' }, 1, 2);
+        assertTrue(out.writes.isEmpty());
+
+        tls.flush();
+        assertEquals(Arrays.asList(3), out.writes);
+        assertArrayEquals(new byte[] { (byte) 0x81, 'h', 'i' }, out.toByteArray());
+    }
+
+    @Test
+    public void testRecordSizeOfSession() throws Exception {
+        RecordingOutputStream out = new RecordingOutputStream();
+        TlsRecordOutputStream tls = new TlsRecordOutputStream(out);
+        tls.setRecordSize(1000);
+
+        tls.write(new byte[2500]);
+        tls.flush();
+
+        assertEquals(Arrays.asList(1000, 1000, 500), out.writes);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testRecordSizeCannotChangeWhileBuffering() throws Exception {
+        TlsRecordOutputStream tls = new TlsRecordOutputStream(new RecordingOutputStream());
+        tls.write(1);
+        tls.setRecordSize(1000);
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static class RecordingOutputStream extends ByteArrayOutputStream {
+        private final List<Integer> writes = new ArrayList<Integer>();
+        private int                 flushes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes.add(len);
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes++;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketException;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+public class UnixDomainSocketsTest {
+
+    @Test
+    public void testIsUnixDomain() throws Exception {
+        assertTrue(UnixDomainSockets.isUnixDomain(new URI("ws+unix:///tmp/server.sock")));
+        assertFalse(UnixDomainSockets.isUnixDomain(new URI("ws://localhost:8888/echo")));
+    }
+
+    @Test
+    public void testGetSocketPath() throws Exception {
+        assertEquals("/tmp/server.sock", UnixDomainSockets.getSocketPath(new URI("ws+unix:///tmp/server.sock")));
+        assertEquals("/tmp/server.sock", UnixDomainSockets.getSocketPath(new URI("ws+unix:///tmp/server.sock:/echo")));
+        assertEquals("/var/run/app server.sock",
+                     UnixDomainSockets.getSocketPath(new URI("ws+unix:///var/run/app%20server.sock:/chat?room=1")));
+    }
+
+    @Test(expected=WebSocketException.class)
+    public void testGetSocketPathWithoutPath() throws Exception {
+        UnixDomainSockets.getSocketPath(new URI("ws+unix://localhost"));
+    }
+
+    @Test
+    public void testGetHandshakeUri() throws Exception {
+        assertEquals(new URI("ws://localhost/"), UnixDomainSockets.getHandshakeUri(new URI("ws+unix:///tmp/server.sock")));
+        assertEquals(new URI("ws://localhost/echo"),
+                     UnixDomainSockets.getHandshakeUri(new URI("ws+unix:///tmp/server.sock:/echo")));
+        assertEquals(new URI("ws://localhost/chat/rooms?id=1&user=a"),
+                     UnixDomainSockets.getHandshakeUri(new URI("ws+unix:///tmp/server.sock:/chat/rooms?id=1&user=a")));
+    }
+
+    @Test
+    public void testConnectToMissingSocketFile() throws Exception {
+        Assume.assumeTrue(UnixDomainSockets.isSupported());
+
+        File missing = new File(System.getProperty("java.io.tmpdir"), "nephila-missing-" + System.nanoTime() + ".sock");
+        try {
+            UnixDomainSockets.connect(missing.getPath());
+            fail();
+        }
+        catch (IOException ioe) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import io.cuckoo.websocket.nephila.WebSocketException;
+import io.cuckoo.websocket.nephila.crypto.Base64;
+import org.junit.Test;
+
+import java.net.URI;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+public class WebSocketHandshakeTest {
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    @Test
+    public void testKeyIsSplicedIntoTemplate() throws Exception {
+        URI uri = new URI("ws://localhost:8888/echo?room=1");
+        WebSocketHandshake.Template template = new WebSocketHandshake.Template(uri, "chat, superchat",
+                                                                               "permessage-deflate");
+
+        String request = new String(new WebSocketHandshake(uri).getHandshakeBytes(template), "ISO-8859-1");
+        String key = getKey(request);
+
+        assertEquals("GET /echo?room=1 HTTP/1.1\r\n"
+                     + "Host: localhost:8888\r\n"
+                     + "Upgrade: websocket\r\n"
+                     + "Connection: Upgrade\r\n"
+                     + "Sec-WebSocket-Key: " + key + "\r\n"
+                     + "Sec-WebSocket-Protocol: chat, superchat\r\n"
+                     + "Sec-WebSocket-Extensions: permessage-deflate\r\n"
+                     + "Sec-WebSocket-Version: 13\r\n"
+                     + "\r\n", request);
+
+        // the nonce of RFC 6455 is 16 random bytes
+        assertEquals(16, Base64.decodeFast(key).length);
+    }
+
+    @Test
+    public void testEveryHandshakeHasItsOwnKey() throws Exception {
+        URI uri = new URI("ws://localhost:8888/echo");
+        WebSocketHandshake.Template template = new WebSocketHandshake.Template(uri, null, null);
+
+        String first = new String(new WebSocketHandshake(uri).getHandshakeBytes(template), "ISO-8859-1");
+        String second = new String(new WebSocketHandshake(uri).getHandshakeBytes(template), "ISO-8859-1");
+
+        assertFalse(getKey(first).equals(getKey(second)));
+        assertEquals(first.replace(getKey(first), ""), second.replace(getKey(second), ""));
+    }
+
+    @Test
+    public void testTemplateMatchesRequestWithoutTemplate() throws Exception {
+        URI uri = new URI("wss://localhost/");
+        WebSocketHandshake handshake = new WebSocketHandshake(uri);
+
+        byte[] withTemplate = handshake.getHandshakeBytes(new WebSocketHandshake.Template(uri, "chat", null));
+        byte[] withoutTemplate = handshake.getHandshakeBytes("chat");
+
+        assertArrayEquals(withoutTemplate, withTemplate);
+        assertTrue(new String(withTemplate, "ISO-8859-1").contains("Host: localhost:443\r\n"));
+    }
+
+    @Test
+    public void testVerifySecWebSocketAccept() throws Exception {
+        URI uri = new URI("ws://localhost:8888/echo");
+        WebSocketHandshake handshake = new WebSocketHandshake(uri);
+        String key = getKey(new String(handshake.getHandshakeBytes((String) null), "ISO-8859-1"));
+
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes("ISO-8859-1"));
+        handshake.verifySecWebSocketAccept("Sec-WebSocket-Accept: " + Base64.encodeToString(digest, false) + " ");
+
+        try {
+            handshake.verifySecWebSocketAccept("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=");
+            fail();
+        }
+        catch (WebSocketException wse) {
+            assertTrue(wse.getMessage().contains(Base64.encodeToString(digest, false)));
+        }
+    }
+
+    /* ######################################################################## */
+    /* ######################################################################## */
+    /* ######################################################################## */
+
+    private static String getKey(String request) {
+        int begin = request.indexOf("Sec-WebSocket-Key: ") + "Sec-WebSocket-Key: ".length();
+        return request.substring(begin, request.indexOf("\r\n", begin));
+    }
+}
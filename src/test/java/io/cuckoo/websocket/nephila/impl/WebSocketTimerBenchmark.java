@@ -0,0 +1,147 @@
+/**
+ *
+ * This file is part of the
+ *
+ *          Nephila WebSocket Client (https://github.com/justphil/nephila-websocket-client)
+ *
+ * Copyright 2012 Philipp Tarasiewicz <philipp.tarasiewicz@googlemail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package io.cuckoo.websocket.nephila.impl;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the {@link HashedWheelTimer} with the {@link ScheduledExecutorTimer} for the per-connection deadlines
+ * of many websockets: scheduling one timeout per connection, rescheduling all of them (as a heartbeat or an idle
+ * timeout does on every message) from a single and from one thread per processor, and the heap they occupy while
+ * pending. Run with the connection counts as
+ * arguments, e.g. {@code java ... WebSocketTimerBenchmark 10000 50000}.
+ */
+public class WebSocketTimerBenchmark {
+
+    private static final int ROUNDS             = 10;
+
+    private static final long MIN_DELAY_MILLIS  = 10000;
+
+    private static final long MAX_DELAY_MILLIS  = 40000;
+
+    public static void main(String[] args) throws Exception {
+        int[] connectionCounts = args.length > 0 ? new int[args.length] : new int[] { 10000, 50000 };
+        for (int i = 0; i < args.length; i++) {
+            connectionCounts[i] = Integer.parseInt(args[i]);
+        }
+
+        // warm up both timers before measuring
+        run(new ScheduledExecutorTimer(), "warmup", connectionCounts[0], false);
+        run(new HashedWheelTimer(), "warmup", connectionCounts[0], false);
+
+        for (int connections : connectionCounts) {
+            run(new ScheduledExecutorTimer(), ScheduledExecutorTimer.class.getSimpleName(), connections, true);
+            run(new HashedWheelTimer(), HashedWheelTimer.class.getSimpleName(), connections, true);
+        }
+    }
+
+    private static void run(final WebSocketTimer timer, String name, int connections, boolean print) throws Exception {
+        final AtomicLong expired = new AtomicLong();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                expired.incrementAndGet();
+            }
+        };
+        Random random = new Random(42);
+        final WebSocketTimeout[] timeouts = new WebSocketTimeout[connections];
+
+        long heapBefore = usedHeap();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            timeouts[i] = timer.schedule(task, delayMillis(random), TimeUnit.MILLISECONDS);
+        }
+        long scheduleNanos = System.nanoTime() - start;
+
+        // the wheel moves scheduled timeouts into its buckets on the next tick
+        Thread.sleep(100);
+        long heapBytes = usedHeap() - heapBefore;
+
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < connections; i++) {
+                timeouts[i].cancel();
+                timeouts[i] = timer.schedule(task, delayMillis(random), TimeUnit.MILLISECONDS);
+            }
+        }
+        long rescheduleNanos = System.nanoTime() - start;
+
+        // every thread reschedules the deadlines of its share of the connections, like the receiver threads do
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final int share = connections / threads;
+        final CountDownLatch done = new CountDownLatch(threads);
+        start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * share;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(offset);
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (int i = offset; i < offset + share; i++) {
+                            timeouts[i].cancel();
+                            timeouts[i] = timer.schedule(task, delayMillis(random), TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        long concurrentRescheduleNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            timeouts[i].cancel();
+        }
+        long cancelNanos = System.nanoTime() - start;
+
+        timer.stop();
+
+        if (print) {
+            System.out.printf("%-24s connections=%6d schedule=%5d ns/op reschedule=%5d ns/op"
+                            + " reschedule(%d threads)=%5d ns/op cancel=%5d ns/op heap=%4d bytes/timeout%n",
+                    name, connections, scheduleNanos / connections, rescheduleNanos / ((long) connections * ROUNDS),
+                    threads, concurrentRescheduleNanos / ((long) share * threads * ROUNDS),
+                    cancelNanos / connections, heapBytes / connections);
+        }
+    }
+
+    private static long delayMillis(Random random) {
+        return MIN_DELAY_MILLIS + (long) (random.nextDouble() * (MAX_DELAY_MILLIS - MIN_DELAY_MILLIS));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}